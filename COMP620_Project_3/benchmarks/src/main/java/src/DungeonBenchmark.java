@@ -0,0 +1,274 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times the stages of a solve on generated dungeons: loading the files,
+ * Floyd-Warshall in memory and out of core, path reconstruction from heap and off-heap tables, contraction
+ * hierarchy queries, checking a path for locks, picking up a key, planning a key tour, and the greedy,
+ * exact and bidirectional solves end to end.
+ * 
+ * @author Evann Hall
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector,jdk.incubator.foreign")
+public class DungeonBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Dungeon {
+
+        @Param({ "64", "256", "1024" })
+        int rooms;
+
+        /** Out-edges per room. */
+        @Param({ "2", "8" })
+        int degree;
+
+        @Param({ "0", "4", "16" })
+        int keys;
+
+        Path dir;
+        Path graphFile;
+        Path keyFile;
+        Path tableFile;
+        int keyRoom = -1;
+
+        /** Loaded with Floyd-Warshall already run, only read by the benchmarks. */
+        DungeonMap solved;
+        ArrayList<Integer> optimalPath;
+
+        int[][] dist;
+        int[][] next;
+
+        ContractionHierarchy hierarchy;
+        OffHeapShortestPathTable offHeap;
+
+        @Setup
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("dungeon-bench");
+            graphFile = dir.resolve("graph.txt");
+            keyFile = dir.resolve("keys.txt");
+            tableFile = dir.resolve("tables.bin");
+            new DungeonGenerator().rooms(rooms).degree(DungeonGenerator.Degree.FIXED, degree).keys(keys, 1).seed(620)
+                    .write(graphFile, keyFile);
+
+            solved = load();
+            for (int r = 0; r < rooms && keyRoom == -1; r++) {
+                if (solved.keyTable().hasKey(r)) {
+                    keyRoom = r;
+                }
+            }
+            if (keyRoom == -1) {
+                keyRoom = solved.startVertex; // no keys, grabKey only does the lookup
+            }
+            solved.runFloydWarshall();
+            optimalPath = solved.memoizedOptimalPath(solved.startVertex, solved.endVertex);
+
+            dist = solved.floydWarshallMap;
+            next = solved.floydWarshallNext;
+            hierarchy = ContractionHierarchy.build(solved.graph());
+            offHeap = OffHeapShortestPathTable.allocate(rooms);
+            offHeap.fill(solved.graph(), null);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            offHeap.close();
+            Files.deleteIfExists(graphFile);
+            Files.deleteIfExists(keyFile);
+            Files.deleteIfExists(tableFile);
+            Files.deleteIfExists(dir);
+        }
+
+        DungeonMap load() {
+            return new DungeonMap(graphFile.toString(), keyFile.toString(), Level.OFF);
+        }
+    }
+
+    /**
+     * grabKey and solveDungeon change the map they run on, so every call gets its
+     * own freshly loaded map with copies of the precomputed tables. A pool of them
+     * is loaded before each iteration and the benchmark makes one call on each in
+     * a single invocation, so loading never lands inside the timing and no call
+     * sees a map an earlier one changed.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+
+        static final int POOL = 16;
+
+        final DungeonMap[] maps = new DungeonMap[POOL];
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void setUp(Dungeon dungeon) {
+            for (int i = 0; i < POOL; i++) {
+                maps[i] = null; // let the last iteration's map go before loading its replacement
+                maps[i] = dungeon.load();
+                maps[i].floydWarshallMap = copy(dungeon.dist);
+                maps[i].floydWarshallNext = copy(dungeon.next);
+            }
+        }
+
+        private static int[][] copy(int[][] table) {
+            int[][] copy = new int[table.length][];
+            for (int i = 0; i < table.length; i++) {
+                copy[i] = table[i].clone();
+            }
+            return copy;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        PathResult path = new PathResult();
+    }
+
+    @Benchmark
+    public DungeonMap buildDungeon(Dungeon dungeon) {
+        return dungeon.load();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int[][] runFloydWarshall(Dungeon dungeon) {
+        dungeon.solved.runFloydWarshall();
+        return dungeon.solved.floydWarshallMap;
+    }
+
+    /**
+     * Floyd-Warshall through the tile file with a 1 MB pool, so tiles keep
+     * streaming on the larger maps; compare against runFloydWarshall.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public OutOfCoreFloydWarshall runFloydWarshallOutOfCore(Dungeon dungeon) throws IOException {
+        return OutOfCoreFloydWarshall.run(dungeon.solved.graph(), dungeon.tableFile, 1L << 20);
+    }
+
+    @Benchmark
+    public ArrayList<Integer> memoizedOptimalPath(Dungeon dungeon) {
+        return dungeon.solved.memoizedOptimalPath(dungeon.solved.startVertex, dungeon.solved.endVertex);
+    }
+
+    /**
+     * memoizedOptimalPath into a reused PathResult, no boxing or allocation.
+     */
+    @Benchmark
+    public PathResult optimalPath(Dungeon dungeon, Buffer buffer) {
+        dungeon.solved.optimalPath(dungeon.solved.startVertex, dungeon.solved.endVertex, buffer.path);
+        return buffer.path;
+    }
+
+    /**
+     * One query answered by BucketQueueSearch, without the all-pairs tables.
+     */
+    @Benchmark
+    public PathResult singleSourcePath(Dungeon dungeon, Buffer buffer) {
+        DungeonMap map = dungeon.solved;
+        map.shortestPathsFrom(map.startVertex).path(map.endVertex, buffer.path);
+        return buffer.path;
+    }
+
+    /**
+     * Same reconstruction as optimalPath, reading next hops out of native memory.
+     */
+    @Benchmark
+    public PathResult offHeapPath(Dungeon dungeon, Buffer buffer) {
+        DungeonMap map = dungeon.solved;
+        dungeon.offHeap.path(map.startVertex, map.endVertex, buffer.path);
+        return buffer.path;
+    }
+
+    /**
+     * One query answered by the contraction hierarchy; compare against
+     * singleSourcePath.
+     */
+    @Benchmark
+    public PathResult hierarchyPath(Dungeon dungeon, Buffer buffer) {
+        DungeonMap map = dungeon.solved;
+        dungeon.hierarchy.path(map.startVertex, map.endVertex, buffer.path);
+        return buffer.path;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ContractionHierarchy buildContractionHierarchy(Dungeon dungeon) {
+        return ContractionHierarchy.build(dungeon.solved.graph());
+    }
+
+    @Benchmark
+    public int pathChecker(Dungeon dungeon) {
+        return dungeon.solved.pathChecker(dungeon.optimalPath);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(Fresh.POOL)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    public DungeonMap[] grabKey(Dungeon dungeon, Fresh fresh) {
+        for (DungeonMap map : fresh.maps) {
+            map.grabKey(dungeon.keyRoom);
+        }
+        return fresh.maps;
+    }
+
+    /**
+     * Held-Karp over the key rooms, legs read from the Floyd-Warshall tables.
+     */
+    @Benchmark
+    public ArrayList<Integer> planKeyTour(Dungeon dungeon) {
+        return dungeon.solved.planKeyTour(dungeon.solved.startVertex, dungeon.solved.endVertex);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Integer> solveDungeonExact(Dungeon dungeon) {
+        return dungeon.solved.solveDungeonExact(dungeon.solved.startVertex, dungeon.solved.endVertex);
+    }
+
+    /**
+     * The exact solve from both ends; compare against solveDungeonExact.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Integer> solveDungeonBidirectional(Dungeon dungeon) {
+        return dungeon.solved.solveDungeonBidirectional(dungeon.solved.startVertex, dungeon.solved.endVertex);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(Fresh.POOL)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void solveDungeon(Fresh fresh, Blackhole blackhole) {
+        for (DungeonMap map : fresh.maps) {
+            blackhole.consume(map.solveDungeon(map.startVertex, map.endVertex));
+        }
+    }
+}
@@ -6,5 +6,12 @@
  *
  */
 module COMP620_Project_3 {
-    requires java.logging;
+    exports src;
+
+    // Level and jdk.jfr.Event appear in exported signatures
+    requires transitive java.logging;
+    requires java.management;
+    requires transitive jdk.jfr;
+    requires static jdk.incubator.vector;
+    requires static jdk.incubator.foreign;
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package src;
+
+/**
+ * ShortestPathTable over the int[][] matrices runFloydWarshall produces.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class ArrayShortestPathTable implements ShortestPathTable {
+
+    private final int[][] dist;
+    private final int[][] next;
+
+    public ArrayShortestPathTable(int[][] dist, int[][] next) {
+        this.dist = dist;
+        this.next = next;
+    }
+
+    @Override
+    public int size() {
+        return dist.length;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        return dist[from][to];
+    }
+
+    @Override
+    public int nextHop(int from, int to) {
+        return next[from][to];
+    }
+}
@@ -0,0 +1,316 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Exact solver like KeyStateSolver, but searching from both ends at once so a
+ * single query needs neither all-pairs tables nor a frontier grown all the way
+ * from the start.
+ *
+ * The forward side is a breadth-first search over (room, keys held), always
+ * holding the key of the room it is in. The backward side runs from the exit
+ * over in-edges with (room, keys needed): the keys that must be held while
+ * standing in the room for the rest of the walk to the exit to be open. Going
+ * back over a move into room v drops v's own key from what is needed and adds
+ * one smallest set of keys that opens the door into v, so a door several key
+ * sets can open branches once per set.
+ *
+ * The two sides meet in a room where the keys held cover the keys needed. Each
+ * round grows whichever frontier is smaller by one move, and the search stops
+ * once no walk longer than both depths could beat the best meeting. States
+ * are dropped when another in the same room reached with the same moves or
+ * fewer holds a superset of their keys, or needs a subset.
+ *
+ * Not thread safe; use one instance per thread.
+ *
+ * @author Evann Hall
+ *
+ */
+public class BidirectionalKeySearch {
+
+    /*
+     * Doors are opened by enumerating subsets of their keys.
+     */
+    public static final int MAX_KEYS_PER_DOOR = 16;
+
+    private static final int[] NO_KEYS = { 0 };
+
+    private final int size;
+    private final CsrGraph graph;
+    private final KeyRing keys;
+
+    /*
+     * doorSets[e] lists every smallest key set that opens edge e, filled in the
+     * first time the backward side crosses it.
+     */
+    private final int[][] doorSets;
+
+    private int forwardStates;
+    private int backwardStates;
+    private long relaxations;
+
+    public BidirectionalKeySearch(CsrGraph graph, KeyRing keys) {
+        this.size = graph.size();
+        this.graph = graph;
+        this.keys = keys;
+        this.doorSets = new int[graph.edgeCount()][];
+    }
+
+    /**
+     * @return States found by both sides of the last solve together.
+     */
+    public int getStatesExpanded() {
+        return forwardStates + backwardStates;
+    }
+
+    public int getForwardStates() {
+        return forwardStates;
+    }
+
+    public int getBackwardStates() {
+        return backwardStates;
+    }
+
+    public long getRelaxations() {
+        return relaxations;
+    }
+
+    /**
+     * Finds the shortest walk from startVertex to endVertex, picking up whatever
+     * keys are needed along the way.
+     *
+     * @return The rooms walked through in order, or null if the exit can't be
+     *         reached with the keys in this dungeon.
+     */
+    public int[] solve(int startVertex, int endVertex) {
+        return solve(startVertex, endVertex, 0);
+    }
+
+    /**
+     * Searches from startVertex already holding the keys in heldKeys.
+     */
+    public int[] solve(int startVertex, int endVertex, int heldKeys) {
+        Side forward = new Side(size, true);
+        Side backward = new Side(size, false);
+        relaxations = 0;
+
+        forward.add(startVertex, heldKeys | keys.keyBit(startVertex), 0, -1);
+        backward.add(endVertex, 0, 0, -1);
+
+        int best = Integer.MAX_VALUE;
+        int bestForward = -1;
+        int bestBackward = -1;
+        if (startVertex == endVertex) {
+            best = 0;
+            bestForward = 0;
+            bestBackward = 0;
+        }
+
+        // Every walk of up to forward.depth + backward.depth moves has been seen
+        while (best > forward.depth + backward.depth + 1 && forward.hasFrontier() && backward.hasFrontier()) {
+            boolean forwardTurn = forward.frontierSize() <= backward.frontierSize();
+            Side side = forwardTurn ? forward : backward;
+            Side other = forwardTurn ? backward : forward;
+
+            int end = side.count;
+            for (int s = side.frontier; s < end; s++) {
+                int room = side.room[s];
+                int mask = side.mask[s];
+                int d = side.dist[s] + 1;
+
+                if (forwardTurn) {
+                    for (int e = graph.firstEdge(room); e < graph.endEdge(room); e++) {
+                        int to = graph.target(e);
+                        if (!keys.isOpen(graph.weight(e), to, mask)) {
+                            continue;
+                        }
+                        relaxations++;
+
+                        int held = mask | keys.keyBit(to);
+                        if (side.dominated(to, held)) {
+                            continue;
+                        }
+                        int added = side.add(to, held, d, s);
+                        int match = other.bestMatch(to, held);
+                        if (match != -1 && d + other.dist[match] < best) {
+                            best = d + other.dist[match];
+                            bestForward = added;
+                            bestBackward = match;
+                        }
+                    }
+                } else {
+                    int needed = mask & ~keys.keyBit(room);
+                    for (int in = graph.firstInEdge(room); in < graph.endInEdge(room); in++) {
+                        int from = graph.inSource(in);
+                        for (int door : doorSets(graph.inEdge(in), room)) {
+                            relaxations++;
+
+                            int need = needed | door;
+                            if (side.dominated(from, need)) {
+                                continue;
+                            }
+                            int added = side.add(from, need, d, s);
+                            int match = other.bestMatch(from, need);
+                            if (match != -1 && d + other.dist[match] < best) {
+                                best = d + other.dist[match];
+                                bestForward = match;
+                                bestBackward = added;
+                            }
+                        }
+                    }
+                }
+            }
+            side.frontier = end;
+            side.depth++;
+        }
+
+        forwardStates = forward.count;
+        backwardStates = backward.count;
+        if (best == Integer.MAX_VALUE) {
+            return null;
+        }
+        return reconstruct(forward, bestForward, backward, bestBackward, best);
+    }
+
+    /*
+     * Every smallest set of keys that opens edge e into room to. A key set is
+     * smallest when dropping any one of its keys leaves the door locked.
+     */
+    private int[] doorSets(int edge, int to) {
+        int weight = graph.weight(edge);
+        if (weight == 0) {
+            return NO_KEYS;
+        }
+        if (doorSets[edge] != null) {
+            return doorSets[edge];
+        }
+
+        int door = keys.doorMask[to];
+        if (Integer.bitCount(door) > MAX_KEYS_PER_DOOR) {
+            throw new IllegalStateException(
+                    "Door into " + to + " takes more than " + MAX_KEYS_PER_DOOR + " keys to enumerate");
+        }
+
+        int[] sets = new int[4];
+        int found = 0;
+        for (int subset = door;; subset = (subset - 1) & door) {
+            if (keys.isOpen(weight, to, subset) && isSmallest(weight, to, subset)) {
+                if (found == sets.length) {
+                    sets = Arrays.copyOf(sets, found * 2);
+                }
+                sets[found++] = subset;
+            }
+            if (subset == 0) {
+                break;
+            }
+        }
+
+        doorSets[edge] = Arrays.copyOf(sets, found);
+        return doorSets[edge];
+    }
+
+    private boolean isSmallest(int weight, int to, int subset) {
+        for (int rest = subset; rest != 0; rest &= rest - 1) {
+            if (keys.isOpen(weight, to, subset & ~(rest & -rest))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] reconstruct(Side forward, int f, Side backward, int b, int moves) {
+        int[] path = new int[moves + 1];
+        int at = forward.dist[f];
+        for (int s = f; s != -1; s = forward.parent[s]) {
+            path[at--] = forward.room[s];
+        }
+
+        // Backward parents lead towards the exit; the meeting room is already in
+        at = forward.dist[f] + 1;
+        for (int s = backward.parent[b]; s != -1; s = backward.parent[s]) {
+            path[at++] = backward.room[s];
+        }
+        return path;
+    }
+
+    /*
+     * One direction's states, kept in the order found so each depth is a
+     * contiguous run and the arrays double as the queue. Rooms chain their states
+     * through next for the dominance and meeting checks.
+     */
+    private static final class Side {
+        final boolean forward;
+        final int[] first;
+
+        int[] room = new int[64];
+        int[] mask = new int[64];
+        int[] dist = new int[64];
+        int[] parent = new int[64];
+        int[] next = new int[64];
+        int count;
+
+        int frontier;
+        int depth;
+
+        Side(int size, boolean forward) {
+            this.forward = forward;
+            this.first = new int[size];
+            Arrays.fill(first, -1);
+        }
+
+        boolean hasFrontier() {
+            return frontier < count;
+        }
+
+        int frontierSize() {
+            return count - frontier;
+        }
+
+        int add(int r, int m, int d, int p) {
+            if (count == room.length) {
+                int grown = count * 2;
+                room = Arrays.copyOf(room, grown);
+                mask = Arrays.copyOf(mask, grown);
+                dist = Arrays.copyOf(dist, grown);
+                parent = Arrays.copyOf(parent, grown);
+                next = Arrays.copyOf(next, grown);
+            }
+            room[count] = r;
+            mask[count] = m;
+            dist[count] = d;
+            parent[count] = p;
+            next[count] = first[r];
+            first[r] = count;
+            return count++;
+        }
+
+        /*
+         * Found earlier, so with no more moves: forward holding a superset of m,
+         * backward needing a subset of it.
+         */
+        boolean dominated(int r, int m) {
+            for (int s = first[r]; s != -1; s = next[s]) {
+                if (forward ? (m & ~mask[s]) == 0 : (mask[s] & ~m) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * Closest state in room r that fits the other side's m: for the forward
+         * side one holding every key m needs, for the backward side one needing
+         * only keys m holds.
+         */
+        int bestMatch(int r, int m) {
+            int best = -1;
+            for (int s = first[r]; s != -1; s = next[s]) {
+                boolean fits = forward ? (m & ~mask[s]) == 0 : (mask[s] & ~m) == 0;
+                if (fits && (best == -1 || dist[s] < dist[best])) {
+                    best = s;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Single-source shortest paths over the dungeon's current weights, for when one
+ * query doesn't justify all-pairs Floyd-Warshall.
+ *
+ * Dungeon weights are mostly 0 with a few small door costs, so each run picks a
+ * queue by CsrGraph.maxWeight, a bound on the largest weight the graph keeps
+ * rather than scans for:
+ *
+ * <ul>
+ * <li>0 or 1: 0-1 BFS on a deque, zero-weight edges to the front.</li>
+ * <li>up to MAX_BUCKET_WEIGHT: Dial's algorithm, one bucket per distance in a
+ * ring of maxWeight + 1 buckets.</li>
+ * <li>anything larger: Dijkstra on an IntMinHeap.</li>
+ * </ul>
+ *
+ * The first two are linear in rooms plus edges. Like the blocked Floyd-Warshall,
+ * ties on distance go to the path with fewer moves, so zero-weight corridors
+ * don't produce needlessly long walks.
+ *
+ * Results live in arrays owned by the search and are overwritten by the next
+ * run, so one instance serves any number of queries without allocating. Not
+ * thread safe.
+ *
+ * @author Evann Hall
+ *
+ */
+public class BucketQueueSearch {
+
+    public static final int MAX_BUCKET_WEIGHT = 1024;
+
+    public enum Strategy {
+        ZERO_ONE_BFS, DIAL, HEAP
+    }
+
+    private final CsrGraph graph;
+    private final int size;
+
+    private final int[] dist;
+    private final int[] hops;
+    private final int[] pred;
+
+    private Strategy strategy;
+    private int source = -1;
+
+    /*
+     * Queue storage, kept between runs. The deque is a ring buffer; Dial's
+     * buckets are a ring of growable int lists.
+     */
+    private int[] deque = new int[16];
+    private int[][] buckets = new int[0][];
+    private int[] bucketSize = new int[0];
+    private IntMinHeap heap;
+
+    public BucketQueueSearch(CsrGraph graph) {
+        this.graph = graph;
+        this.size = graph.size();
+        this.dist = new int[size];
+        this.hops = new int[size];
+        this.pred = new int[size];
+    }
+
+    public CsrGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Shortest distances from source to every room.
+     */
+    public void run(int source) {
+        run(source, -1);
+    }
+
+    /**
+     * Shortest paths from source, stopping once target's distance is final. Other
+     * rooms may be left unsettled.
+     */
+    public void run(int source, int target) {
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        Arrays.fill(hops, Integer.MAX_VALUE);
+        Arrays.fill(pred, -1);
+        dist[source] = 0;
+        hops[source] = 0;
+        this.source = source;
+
+        int maxWeight = graph.maxWeight();
+
+        if (maxWeight <= 1) {
+            strategy = Strategy.ZERO_ONE_BFS;
+            zeroOneBfs(source, target);
+        } else if (maxWeight <= MAX_BUCKET_WEIGHT) {
+            strategy = Strategy.DIAL;
+            dial(source, target, maxWeight);
+        } else {
+            strategy = Strategy.HEAP;
+            dijkstra(source, target);
+        }
+    }
+
+    /**
+     * @return Source of the last run, -1 before the first.
+     */
+    public int source() {
+        return source;
+    }
+
+    /**
+     * @return Which queue the last run used.
+     */
+    public Strategy strategy() {
+        return strategy;
+    }
+
+    public int distance(int room) {
+        return dist[room];
+    }
+
+    public int predecessor(int room) {
+        return pred[room];
+    }
+
+    /**
+     * @return dist[r] from the last run, Integer.MAX_VALUE if unreached. Shared,
+     *         overwritten by the next run.
+     */
+    public int[] distances() {
+        return dist;
+    }
+
+    /**
+     * @return The room before r on its shortest path, -1 for the source and
+     *         unreached rooms. Shared, overwritten by the next run.
+     */
+    public int[] predecessors() {
+        return pred;
+    }
+
+    /**
+     * Writes the path from the last run's source to target into path, cost set to
+     * its distance.
+     *
+     * @return False, leaving path empty, if target wasn't reached.
+     */
+    public boolean path(int target, PathResult path) {
+        path.clear();
+        if (dist[target] == Integer.MAX_VALUE) {
+            return false;
+        }
+
+        for (int at = target; at != -1; at = pred[at]) {
+            path.add(at);
+        }
+        path.reverse();
+        path.setCost(dist[target]);
+        return true;
+    }
+
+    /*
+     * (d, h) beats the room's current (dist, hops), lexicographically.
+     */
+    private boolean improves(int room, int d, int h) {
+        return d < dist[room] || (d == dist[room] && h < hops[room]);
+    }
+
+    private void zeroOneBfs(int source, int target) {
+        int mask = deque.length - 1;
+        int head = 0;
+        int tail = 0;
+        deque[tail++] = source;
+
+        while (head != tail) {
+            int u = deque[head];
+            head = (head + 1) & mask;
+            if (target != -1 && dist[u] > dist[target]) {
+                break; // everything left is further than the target
+            }
+
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                int w = graph.weight(e);
+                int d = dist[u] + w;
+                int h = hops[u] + 1;
+                if (!improves(v, d, h)) {
+                    continue;
+                }
+                dist[v] = d;
+                hops[v] = h;
+                pred[v] = u;
+
+                if (((tail + 1) & mask) == head) {
+                    // Full: unroll the ring into a buffer twice the size
+                    int[] grown = new int[deque.length * 2];
+                    int count = deque.length - 1;
+                    for (int i = 0; i < count; i++) {
+                        grown[i] = deque[(head + i) & mask];
+                    }
+                    deque = grown;
+                    mask = deque.length - 1;
+                    head = 0;
+                    tail = count;
+                }
+
+                if (w == 0) {
+                    head = (head - 1) & mask;
+                    deque[head] = v;
+                } else {
+                    deque[tail] = v;
+                    tail = (tail + 1) & mask;
+                }
+            }
+        }
+    }
+
+    private void dial(int source, int target, int maxWeight) {
+        int ring = maxWeight + 1;
+        if (buckets.length < ring) {
+            buckets = Arrays.copyOf(buckets, ring);
+            bucketSize = Arrays.copyOf(bucketSize, ring);
+        }
+        for (int b = 0; b < ring; b++) {
+            if (buckets[b] == null) {
+                buckets[b] = new int[8];
+            }
+            bucketSize[b] = 0;
+        }
+
+        append(0, source);
+        int queued = 1;
+
+        // Distances in the queue always lie within [d, d + maxWeight], one lap of the ring
+        for (int d = 0; queued > 0; d++) {
+            if (target != -1 && d > dist[target]) {
+                break;
+            }
+
+            int b = d % ring;
+            // Zero-weight edges append to the bucket being scanned, so re-read its size
+            for (int i = 0; i < bucketSize[b]; i++) {
+                int u = buckets[b][i];
+                queued--;
+                if (dist[u] != d) {
+                    continue; // stale, reached more cheaply since
+                }
+
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    int v = graph.target(e);
+                    int nd = d + graph.weight(e);
+                    int h = hops[u] + 1;
+                    if (improves(v, nd, h)) {
+                        dist[v] = nd;
+                        hops[v] = h;
+                        pred[v] = u;
+                        append(nd % ring, v);
+                        queued++;
+                    }
+                }
+            }
+            bucketSize[b] = 0;
+        }
+    }
+
+    private void append(int bucket, int room) {
+        if (bucketSize[bucket] == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], buckets[bucket].length * 2);
+        }
+        buckets[bucket][bucketSize[bucket]++] = room;
+    }
+
+    private void dijkstra(int source, int target) {
+        if (heap == null) {
+            heap = new IntMinHeap(size);
+        }
+        heap.clear();
+        heap.push(0, source);
+
+        while (!heap.isEmpty()) {
+            int d = heap.peekPriority();
+            int u = heap.peekValue();
+            heap.pop();
+            if (d != dist[u]) {
+                continue; // stale
+            }
+            if (target != -1 && d > dist[target]) {
+                break;
+            }
+
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                int nd = d + graph.weight(e);
+                int h = hops[u] + 1;
+                if (improves(v, nd, h)) {
+                    dist[v] = nd;
+                    hops[v] = h;
+                    pred[v] = u;
+                    heap.push(nd, v);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package src;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Least-recently-used cache of compiled dungeons, keyed by a SHA-256 of the
+ * graph and key file contents. A hit skips loading and Floyd-Warshall entirely;
+ * editing either file changes the hash, so a stale map is never served.
+ * 
+ * The files are only hashed when a pair is first seen (or registered) and again
+ * whenever either file's size or modification time changes, so a hit costs two
+ * stat calls rather than reading both files. An edit that keeps the size and
+ * lands within the file system's timestamp resolution goes unnoticed.
+ * 
+ * Concurrent requests for the same map share a single load.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class CompiledMapCache {
+
+    private static final Logger logger = Logger.getLogger(CompiledMapCache.class.getName());
+
+    private final int capacity;
+    private final Map<String, CompletableFuture<FrozenDungeon>> maps;
+
+    /*
+     * The last hash of each pair of files, by their absolute paths.
+     */
+    private final Map<List<Path>, Fingerprint> fingerprints = new ConcurrentHashMap<List<Path>, Fingerprint>();
+
+    /**
+     * @param capacity Most compiled maps to keep; the least recently used one is
+     *                 dropped beyond this.
+     */
+    public CompiledMapCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.maps = new LinkedHashMap<String, CompletableFuture<FrozenDungeon>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<FrozenDungeon>> eldest) {
+                if (size() > CompiledMapCache.this.capacity) {
+                    logger.info("Evicting compiled map " + eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return The compiled dungeon for these files, loading and running
+     *         Floyd-Warshall on a miss.
+     * @throws IOException If the files can't be read or parsed.
+     */
+    public FrozenDungeon get(Path graphFile, Path keyFile) throws IOException {
+        String hash = register(graphFile, keyFile);
+
+        CompletableFuture<FrozenDungeon> load;
+        boolean owner = false;
+        synchronized (maps) {
+            load = maps.get(hash);
+            if (load == null) {
+                load = new CompletableFuture<FrozenDungeon>();
+                maps.put(hash, load);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                logger.info("Compiling map " + graphFile + " / " + keyFile + " (" + hash + ")");
+                DungeonMap map = new DungeonMap(graphFile, keyFile, Level.INFO);
+                map.runFloydWarshall();
+                map.runFloydWarshallUnlocked();
+                load.complete(map.freeze());
+            } catch (IOException | RuntimeException e) {
+                synchronized (maps) {
+                    maps.remove(hash, load);
+                }
+                load.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public int size() {
+        synchronized (maps) {
+            return maps.size();
+        }
+    }
+
+    /**
+     * Hashes the files now, so the first get for them only needs to stat them.
+     * Later calls rehash only if either file's size or modification time changed.
+     * 
+     * @return The content hash the pair is cached under.
+     * @throws IOException If either file can't be read.
+     */
+    public String register(Path graphFile, Path keyFile) throws IOException {
+        List<Path> files = List.of(graphFile.toAbsolutePath().normalize(), keyFile.toAbsolutePath().normalize());
+        BasicFileAttributes graph = Files.readAttributes(graphFile, BasicFileAttributes.class);
+        BasicFileAttributes keys = Files.readAttributes(keyFile, BasicFileAttributes.class);
+
+        Fingerprint known = fingerprints.get(files);
+        if (known != null && known.matches(graph, keys)) {
+            return known.hash;
+        }
+
+        String hash = contentHash(graphFile, keyFile);
+        fingerprints.put(files, new Fingerprint(graph, keys, hash));
+        return hash;
+    }
+
+    /**
+     * @return Hex SHA-256 over, for the graph file then the key file, its length
+     *         as 8 bytes followed by its bytes. The lengths keep bytes moved
+     *         from one file to the other from hashing the same.
+     * @throws IOException If either file can't be read or changes size while
+     *                     being hashed.
+     */
+    public static String contentHash(Path graphFile, Path keyFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every JVM", e);
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        for (Path file : new Path[] { graphFile, keyFile }) {
+            long length = Files.size(file);
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(length).array());
+
+            long hashed = 0;
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    hashed += read;
+                }
+            }
+            if (hashed != length) {
+                throw new IOException(file + " changed while it was being hashed");
+            }
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Size and modification time of both files when they hashed to hash.
+     */
+    private static final class Fingerprint {
+        final long graphSize;
+        final long graphModified;
+        final long keySize;
+        final long keyModified;
+        final String hash;
+
+        Fingerprint(BasicFileAttributes graph, BasicFileAttributes keys, String hash) {
+            this.graphSize = graph.size();
+            this.graphModified = graph.lastModifiedTime().toMillis();
+            this.keySize = keys.size();
+            this.keyModified = keys.lastModifiedTime().toMillis();
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes graph, BasicFileAttributes keys) {
+            return graph.size() == graphSize && graph.lastModifiedTime().toMillis() == graphModified
+                    && keys.size() == keySize && keys.lastModifiedTime().toMillis() == keyModified;
+        }
+    }
+}
@@ -0,0 +1,916 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Contraction hierarchy over a dungeon's current weights, for answering many
+ * key-ignoring queries on a map that doesn't change: linear memory in the
+ * edges plus shortcuts, and a query touches a few hundred rooms instead of the
+ * whole map.
+ *
+ * Rooms are contracted one at a time, cheapest first by edge difference (the
+ * shortcuts contracting a room would add, minus the edges it removes). When
+ * room v goes, every u -> v -> w that is the only shortest way from u to w
+ * among the rooms still left becomes a shortcut u -> w remembering the two
+ * edges it replaces. A query then runs Dijkstra up the hierarchy from both
+ * ends and meets at the highest room on the path; shortcuts are unpacked back
+ * into moves. Corridor-like maps contract well; dense random ones pile
+ * shortcuts into a core and can end up slower than one BucketQueueSearch.
+ *
+ * Costs are (weight, moves) packed into a long, so like the blocked
+ * Floyd-Warshall and BucketQueueSearch, ties on weight go to fewer moves.
+ *
+ * The hierarchy is only right for the weights it was built from; after a key
+ * pickup it has to be dropped or rebuilt. Safe to share between threads, each
+ * thread queries with its own scratch space. The last query per thread is
+ * remembered, so distance, nextHop and path for the same pair search once.
+ *
+ * Layout on disk, all ints big-endian:
+ *
+ * <pre>
+ * header   magic, version, sourceCrc (long), graphCrc (long), bodyCrc (long),
+ *          n, edgeCount
+ * body     rank[n], edgeCount x (from, to, cost (long), left, right)
+ * </pre>
+ *
+ * sourceCrc is DungeonSnapshot.sourceChecksum of the text files it was compiled
+ * from, 0 if it was built in memory. graphCrc covers the weights it was built
+ * for, see matches.
+ *
+ * @author Evann Hall
+ *
+ */
+public class ContractionHierarchy implements ShortestPathTable {
+
+    private static final Logger logger = Logger.getLogger(ContractionHierarchy.class.getName());
+
+    public static final int MAGIC = 0x44474348; // "DGCH"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 2 * 4;
+    private static final int EDGE_BYTES = 4 * 4 + 8;
+
+    /*
+     * Most bytes mapped at once when reading a hierarchy; a whole number of ints.
+     */
+    private static final long WINDOW = 1L << 30;
+
+    /*
+     * Ints checksummed at a time by matches.
+     */
+    private static final int CHECKSUM_CHUNK = 1 << 14;
+
+    /*
+     * Rooms a witness search may settle before giving up and adding the shortcut
+     * anyway. Extra shortcuts cost memory, never correctness.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 256;
+
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    private final int size;
+    private final long sourceCrc;
+    private final long graphCrc;
+    private final int[] rank;
+
+    /*
+     * Every edge and shortcut. left/right are the two edges a shortcut replaces,
+     * -1 for an edge of the graph.
+     */
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final long[] edgeCost;
+    private final int[] edgeLeft;
+    private final int[] edgeRight;
+
+    /*
+     * up lists the edges from u to higher ranked rooms, down the edges into v
+     * from higher ranked rooms: the forward and backward searches respectively.
+     */
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    private final int[] downOffsets;
+    private final int[] downEdges;
+
+    private final ThreadLocal<Query> queries;
+
+    private ContractionHierarchy(int size, long sourceCrc, long graphCrc, int[] rank, int[] edgeFrom, int[] edgeTo,
+            long[] edgeCost, int[] edgeLeft, int[] edgeRight) {
+        this.size = size;
+        this.sourceCrc = sourceCrc;
+        this.graphCrc = graphCrc;
+        this.rank = rank;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeCost = edgeCost;
+        this.edgeLeft = edgeLeft;
+        this.edgeRight = edgeRight;
+
+        this.upOffsets = new int[size + 1];
+        this.downOffsets = new int[size + 1];
+        for (int e = 0; e < edgeFrom.length; e++) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+                upOffsets[edgeFrom[e] + 1]++;
+            } else {
+                downOffsets[edgeTo[e] + 1]++;
+            }
+        }
+        for (int u = 0; u < size; u++) {
+            upOffsets[u + 1] += upOffsets[u];
+            downOffsets[u + 1] += downOffsets[u];
+        }
+        this.upEdges = new int[upOffsets[size]];
+        this.downEdges = new int[downOffsets[size]];
+        int[] upFill = Arrays.copyOf(upOffsets, size);
+        int[] downFill = Arrays.copyOf(downOffsets, size);
+        for (int e = 0; e < edgeFrom.length; e++) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+                upEdges[upFill[edgeFrom[e]]++] = e;
+            } else {
+                downEdges[downFill[edgeTo[e]]++] = e;
+            }
+        }
+
+        this.queries = ThreadLocal.withInitial(() -> new Query(size));
+    }
+
+    /**
+     * Contracts every room of graph, using its current weights.
+     */
+    public static ContractionHierarchy build(CsrGraph graph) {
+        return build(graph, 0);
+    }
+
+    private static ContractionHierarchy build(CsrGraph graph, long sourceCrc) {
+        long start = System.nanoTime();
+        Contraction contraction = new Contraction(graph);
+        int[] rank = contraction.run();
+
+        int m = contraction.edges;
+        ContractionHierarchy hierarchy = new ContractionHierarchy(graph.size(), sourceCrc, checksum(graph), rank,
+                Arrays.copyOf(contraction.from, m), Arrays.copyOf(contraction.to, m),
+                Arrays.copyOf(contraction.cost, m), Arrays.copyOf(contraction.left, m),
+                Arrays.copyOf(contraction.right, m));
+
+        logger.info("Contracted " + graph.size() + " rooms with " + (m - contraction.original) + " shortcuts over "
+                + contraction.original + " edges in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return hierarchy;
+    }
+
+    /**
+     * Loads a dungeon from its text files, contracts it and writes the hierarchy
+     * next to them.
+     *
+     * @throws IOException If the text can't be read or the hierarchy written.
+     */
+    public static void compile(Path graphFile, Path keyFile, Path out) throws IOException {
+        DungeonMap map = new DungeonMap(graphFile, keyFile, Level.INFO);
+        ContractionHierarchy hierarchy = build(map.graph(), DungeonSnapshot.sourceChecksum(graphFile, keyFile));
+
+        logger.info("Writing contraction hierarchy " + out);
+        hierarchy.write(out);
+    }
+
+    public void write(Path out) throws IOException {
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            channel.position(HEADER_BYTES);
+
+            DungeonSnapshot.IntWriter body = new DungeonSnapshot.IntWriter(channel);
+            body.write(rank, 0, size);
+            for (int e = 0; e < edgeFrom.length; e++) {
+                body.write(edgeFrom[e]);
+                body.write(edgeTo[e]);
+                body.write((int) (edgeCost[e] >>> 32));
+                body.write((int) edgeCost[e]);
+                body.write(edgeLeft[e]);
+                body.write(edgeRight[e]);
+            }
+            long bodyCrc = body.finish();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putLong(sourceCrc).putLong(graphCrc).putLong(bodyCrc);
+            header.putInt(size).putInt(edgeFrom.length);
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by write or compile, checking its header and
+     * checksum.
+     *
+     * @throws IOException If the file isn't a hierarchy of this version or is
+     *                     corrupt.
+     */
+    public static ContractionHierarchy open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException(file + " is too short to be a contraction hierarchy");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a contraction hierarchy");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is hierarchy version " + version + ", expected " + VERSION);
+            }
+
+            long sourceCrc = header.getLong();
+            long graphCrc = header.getLong();
+            long bodyCrc = header.getLong();
+            int n = header.getInt();
+            int m = header.getInt();
+
+            long bodyBytes = 4L * n + (long) EDGE_BYTES * m;
+            if (n < 0 || m < 0 || length != HEADER_BYTES + bodyBytes) {
+                throw new IOException(file + " is truncated or has trailing data");
+            }
+
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < bodyBytes; position += WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + position,
+                        Math.min(WINDOW, bodyBytes - position)));
+            }
+            if (crc.getValue() != bodyCrc) {
+                throw new IOException(file + " failed its checksum, the hierarchy is corrupt");
+            }
+
+            WindowedInts body = new WindowedInts(channel, HEADER_BYTES, HEADER_BYTES + bodyBytes);
+            int[] rank = new int[n];
+            for (int u = 0; u < n; u++) {
+                rank[u] = body.next();
+            }
+            int[] from = new int[m];
+            int[] to = new int[m];
+            long[] cost = new long[m];
+            int[] left = new int[m];
+            int[] right = new int[m];
+            for (int e = 0; e < m; e++) {
+                from[e] = body.next();
+                to[e] = body.next();
+                cost[e] = (long) body.next() << 32 | (body.next() & 0xFFFFFFFFL);
+                left[e] = body.next();
+                right[e] = body.next();
+            }
+
+            logger.info("Opened contraction hierarchy " + file + " with " + n + " rooms and " + m + " edges");
+            return new ContractionHierarchy(n, sourceCrc, graphCrc, rank, from, to, cost, left, right);
+        }
+    }
+
+    /**
+     * Opens a hierarchy and rejects it if it wasn't compiled from exactly these
+     * text files.
+     */
+    public static ContractionHierarchy open(Path file, Path graphFile, Path keyFile) throws IOException {
+        ContractionHierarchy hierarchy = open(file);
+        if (hierarchy.sourceCrc != DungeonSnapshot.sourceChecksum(graphFile, keyFile)) {
+            throw new IOException(file + " is stale, " + graphFile + " or " + keyFile + " changed since it was compiled");
+        }
+        return hierarchy;
+    }
+
+    /**
+     * @return True if this hierarchy was built from graph's shape and current
+     *         weights.
+     */
+    public boolean matches(CsrGraph graph) {
+        return graph.size() == size && checksum(graph) == graphCrc;
+    }
+
+    private static long checksum(CsrGraph graph) {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(4 * CHECKSUM_CHUNK);
+        update(crc, chunk, graph.offsets, graph.size() + 1);
+        update(crc, chunk, graph.targets, graph.edgeCount());
+        update(crc, chunk, graph.weights, graph.edgeCount());
+        return crc.getValue();
+    }
+
+    /*
+     * CRC of values[0..count) as big-endian ints, a chunk at a time.
+     */
+    private static void update(CRC32 crc, ByteBuffer chunk, int[] values, int count) {
+        for (int from = 0; from < count; from += CHECKSUM_CHUNK) {
+            int length = Math.min(CHECKSUM_CHUNK, count - from);
+            chunk.clear();
+            chunk.asIntBuffer().put(values, from, length);
+            chunk.limit(4 * length);
+            crc.update(chunk);
+        }
+    }
+
+    /*
+     * Reads ints from [position, end) of a file through windows of at most
+     * WINDOW bytes, since one mapping can't pass 2 GB.
+     */
+    private static class WindowedInts {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private ByteBuffer window;
+
+        WindowedInts(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        int next() throws IOException {
+            if (window == null || !window.hasRemaining()) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, end - position));
+                position += window.capacity();
+            }
+            return window.getInt();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Edges plus shortcuts in the hierarchy.
+     */
+    public int edgeCount() {
+        return edgeFrom.length;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        Query query = search(from, to);
+        return query.best == UNREACHED ? Integer.MAX_VALUE : (int) (query.best >>> 32);
+    }
+
+    @Override
+    public int nextHop(int from, int to) {
+        Query query = search(from, to);
+        if (query.best == UNREACHED || from == to) {
+            return -1;
+        }
+
+        // The first edge on the way up from from, or down to to if from is the top
+        int e;
+        if (query.meet != from) {
+            e = query.predForward[query.meet];
+            while (edgeFrom[e] != from) {
+                e = query.predForward[edgeFrom[e]];
+            }
+        } else {
+            e = query.predBackward[from];
+        }
+        while (edgeLeft[e] != -1) {
+            e = edgeLeft[e];
+        }
+        return edgeTo[e];
+    }
+
+    @Override
+    public boolean path(int from, int to, PathResult path) {
+        path.clear();
+        Query query = search(from, to);
+        if (query.best == UNREACHED) {
+            return false;
+        }
+
+        // Walking back from the meeting room stacks the upward edges first on top
+        path.add(from);
+        int top = 0;
+        for (int at = query.meet; at != from; at = edgeFrom[query.predForward[at]]) {
+            top = query.push(top, query.predForward[at]);
+        }
+        unpack(query, top, path);
+
+        for (int at = query.meet; at != to; at = edgeTo[query.predBackward[at]]) {
+            unpack(query, query.push(0, query.predBackward[at]), path);
+        }
+
+        path.setCost((int) (query.best >>> 32));
+        return true;
+    }
+
+    /*
+     * Appends the rooms reached by the edges on query's stack, top first,
+     * expanding shortcuts into the edges they replace.
+     */
+    private void unpack(Query query, int top, PathResult path) {
+        while (top > 0) {
+            int e = query.stack[--top];
+            if (edgeLeft[e] == -1) {
+                path.add(edgeTo[e]);
+            } else {
+                top = query.push(top, edgeRight[e]);
+                top = query.push(top, edgeLeft[e]);
+            }
+        }
+    }
+
+    /*
+     * Bidirectional upward Dijkstra from -> to, or the remembered result if this
+     * thread asked for the same pair last.
+     */
+    private Query search(int from, int to) {
+        Query query = queries.get();
+        if (query.from == from && query.to == to) {
+            return query;
+        }
+        query.reset();
+        query.from = from;
+        query.to = to;
+
+        query.reach(true, from, 0, -1);
+        query.reach(false, to, 0, -1);
+
+        long best = UNREACHED;
+        int meet = -1;
+        LongMinHeap forward = query.forwardHeap;
+        LongMinHeap backward = query.backwardHeap;
+        while (true) {
+            long forwardMin = forward.isEmpty() ? UNREACHED : forward.peekPriority();
+            long backwardMin = backward.isEmpty() ? UNREACHED : backward.peekPriority();
+            if (Math.min(forwardMin, backwardMin) >= best) {
+                break;
+            }
+
+            boolean isForward = forwardMin <= backwardMin;
+            LongMinHeap heap = isForward ? forward : backward;
+            long d = heap.peekPriority();
+            int u = heap.peekValue();
+            heap.pop();
+
+            long[] dist = isForward ? query.distForward : query.distBackward;
+            long[] other = isForward ? query.distBackward : query.distForward;
+            if (d > dist[u]) {
+                continue; // stale
+            }
+            if (other[u] != UNREACHED && d + other[u] < best) {
+                best = d + other[u];
+                meet = u;
+            }
+
+            if (isForward) {
+                if (stalled(u, d, dist, downOffsets, downEdges, edgeFrom)) {
+                    continue;
+                }
+                for (int i = upOffsets[u]; i < upOffsets[u + 1]; i++) {
+                    int e = upEdges[i];
+                    query.reach(true, edgeTo[e], d + edgeCost[e], e);
+                }
+            } else {
+                if (stalled(u, d, dist, upOffsets, upEdges, edgeTo)) {
+                    continue;
+                }
+                for (int i = downOffsets[u]; i < downOffsets[u + 1]; i++) {
+                    int e = downEdges[i];
+                    query.reach(false, edgeFrom[e], d + edgeCost[e], e);
+                }
+            }
+        }
+
+        query.best = best;
+        query.meet = meet;
+        return query;
+    }
+
+    /*
+     * Stall on demand: u can't be on a shortest upward path if a higher room
+     * already reached reaches it cheaper through the edges going the other way.
+     */
+    private boolean stalled(int u, long d, long[] dist, int[] offsets, int[] edges, int[] end) {
+        for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+            int e = edges[i];
+            long via = dist[end[e]];
+            if (via != UNREACHED && via + edgeCost[e] < d) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * One thread's search state. Only the rooms touched are reset between
+     * queries, so a query costs what it visits rather than O(n).
+     */
+    private static final class Query {
+        final long[] distForward;
+        final long[] distBackward;
+        final int[] predForward;
+        final int[] predBackward;
+        final LongMinHeap forwardHeap = new LongMinHeap(64);
+        final LongMinHeap backwardHeap = new LongMinHeap(64);
+
+        int[] touched = new int[64];
+        int touchedCount;
+        int[] stack = new int[64];
+
+        int from = -1;
+        int to = -1;
+        long best;
+        int meet;
+
+        Query(int size) {
+            distForward = new long[size];
+            distBackward = new long[size];
+            predForward = new int[size];
+            predBackward = new int[size];
+            Arrays.fill(distForward, UNREACHED);
+            Arrays.fill(distBackward, UNREACHED);
+        }
+
+        int push(int top, int edge) {
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top] = edge;
+            return top + 1;
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                distForward[touched[i]] = UNREACHED;
+                distBackward[touched[i]] = UNREACHED;
+            }
+            touchedCount = 0;
+            forwardHeap.clear();
+            backwardHeap.clear();
+        }
+
+        void reach(boolean forward, int room, long d, int edge) {
+            long[] dist = forward ? distForward : distBackward;
+            if (d >= dist[room]) {
+                return;
+            }
+            if (distForward[room] == UNREACHED && distBackward[room] == UNREACHED) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = room;
+            }
+            dist[room] = d;
+            (forward ? predForward : predBackward)[room] = edge;
+            (forward ? forwardHeap : backwardHeap).push(d, room);
+        }
+    }
+
+    /*
+     * The rooms not yet contracted with their remaining edges, and the edge and
+     * shortcut arrays the hierarchy is built from.
+     */
+    private static final class Contraction {
+        final int n;
+        final int original;
+
+        int[] from;
+        int[] to;
+        long[] cost;
+        int[] left;
+        int[] right;
+        int edges;
+
+        /*
+         * Edge ids out of and into each room still in the graph; edges to
+         * contracted rooms are removed as the rooms go.
+         */
+        final int[][] out;
+        final int[] outCount;
+        final int[][] in;
+        final int[] inCount;
+
+        final boolean[] contracted;
+        final int[] deletedNeighbours;
+        final int[] depth;
+        int[] neighbours = new int[16];
+
+        /*
+         * Witness search scratch, reset through touched.
+         */
+        final long[] witness;
+        final int[] touched;
+        int touchedCount;
+        final LongMinHeap heap = new LongMinHeap(64);
+
+        Contraction(CsrGraph graph) {
+            n = graph.size();
+            int m = graph.edgeCount();
+            from = new int[Math.max(16, m)];
+            to = new int[from.length];
+            cost = new long[from.length];
+            left = new int[from.length];
+            right = new int[from.length];
+
+            out = new int[n][];
+            in = new int[n][];
+            outCount = new int[n];
+            inCount = new int[n];
+            for (int u = 0; u < n; u++) {
+                out[u] = new int[Math.max(2, graph.endEdge(u) - graph.firstEdge(u))];
+                in[u] = new int[Math.max(2, graph.endInEdge(u) - graph.firstInEdge(u))];
+            }
+            contracted = new boolean[n];
+            deletedNeighbours = new int[n];
+            depth = new int[n];
+            witness = new long[n];
+            touched = new int[n];
+            Arrays.fill(witness, UNREACHED);
+
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    if (graph.target(e) != u) {
+                        addOrLower(u, graph.target(e), (long) graph.weight(e) << 32 | 1, -1, -1);
+                    }
+                }
+            }
+            original = edges;
+        }
+
+        /*
+         * Contracts every room in order of edge difference, recomputed when a
+         * room comes off the queue in case its neighbourhood changed since.
+         */
+        int[] run() {
+            IntMinHeap queue = new IntMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                queue.push(priority(v), v);
+            }
+
+            int[] rank = new int[n];
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.peekValue();
+                queue.pop();
+                if (contracted[v]) {
+                    continue;
+                }
+
+                int p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekPriority()) {
+                    queue.push(p, v);
+                    continue;
+                }
+
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = next++;
+                detach(v);
+            }
+            return rank;
+        }
+
+        private int priority(int v) {
+            return 2 * contract(v, true) - outCount[v] - inCount[v] + deletedNeighbours[v] + depth[v];
+        }
+
+        /*
+         * For every u -> v -> w with no path from u to w as cheap that avoids v,
+         * adds the shortcut u -> w, or only counts them when simulating.
+         */
+        int contract(int v, boolean simulate) {
+            int shortcuts = 0;
+            for (int i = 0; i < inCount[v]; i++) {
+                int a = in[v][i];
+                int u = from[a];
+
+                long limit = 0;
+                for (int j = 0; j < outCount[v]; j++) {
+                    int b = out[v][j];
+                    if (to[b] != u) {
+                        limit = Math.max(limit, cost[a] + cost[b]);
+                    }
+                }
+                if (limit == 0) {
+                    continue;
+                }
+
+                witnessSearch(u, v, limit);
+                for (int j = 0; j < outCount[v]; j++) {
+                    int b = out[v][j];
+                    int w = to[b];
+                    long via = cost[a] + cost[b];
+                    if (w == u || witness[w] <= via) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (!simulate) {
+                        addOrLower(u, w, via, a, b);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /*
+         * Dijkstra from u over rooms still in the graph except v, as far as limit
+         * or WITNESS_SETTLE_LIMIT rooms.
+         */
+        private void witnessSearch(int u, int v, long limit) {
+            for (int i = 0; i < touchedCount; i++) {
+                witness[touched[i]] = UNREACHED;
+            }
+            touchedCount = 0;
+            heap.clear();
+
+            witness[u] = 0;
+            touched[touchedCount++] = u;
+            heap.push(0, u);
+            int settled = 0;
+            while (!heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                long d = heap.peekPriority();
+                int x = heap.peekValue();
+                heap.pop();
+                if (d > witness[x]) {
+                    continue;
+                }
+                if (d > limit) {
+                    break;
+                }
+                settled++;
+
+                for (int j = 0; j < outCount[x]; j++) {
+                    int e = out[x][j];
+                    int y = to[e];
+                    if (y == v) {
+                        continue;
+                    }
+                    long dy = d + cost[e];
+                    if (dy < witness[y]) {
+                        if (witness[y] == UNREACHED) {
+                            touched[touchedCount++] = y;
+                        }
+                        witness[y] = dy;
+                        heap.push(dy, y);
+                    }
+                }
+            }
+        }
+
+        private void addOrLower(int u, int w, long c, int l, int r) {
+            for (int j = 0; j < outCount[u]; j++) {
+                int e = out[u][j];
+                if (to[e] == w) {
+                    if (c < cost[e]) {
+                        cost[e] = c;
+                        left[e] = l;
+                        right[e] = r;
+                    }
+                    return;
+                }
+            }
+
+            if (edges == from.length) {
+                int capacity = edges * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                cost = Arrays.copyOf(cost, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+            }
+            int e = edges++;
+            from[e] = u;
+            to[e] = w;
+            cost[e] = c;
+            left[e] = l;
+            right[e] = r;
+
+            if (outCount[u] == out[u].length) {
+                out[u] = Arrays.copyOf(out[u], outCount[u] * 2);
+            }
+            out[u][outCount[u]++] = e;
+            if (inCount[w] == in[w].length) {
+                in[w] = Arrays.copyOf(in[w], inCount[w] * 2);
+            }
+            in[w][inCount[w]++] = e;
+        }
+
+        /*
+         * Drops a contracted room's edges from its neighbours' lists, leaving the
+         * neighbours in neighbours[0 .. count).
+         */
+        private int detach(int v) {
+            int count = 0;
+            if (neighbours.length < outCount[v] + inCount[v]) {
+                neighbours = new int[outCount[v] + inCount[v]];
+            }
+            for (int j = 0; j < outCount[v]; j++) {
+                int w = to[out[v][j]];
+                inCount[w] = remove(in[w], inCount[w], out[v][j]);
+                neighbours[count++] = w;
+            }
+            for (int i = 0; i < inCount[v]; i++) {
+                int u = from[in[v][i]];
+                outCount[u] = remove(out[u], outCount[u], in[v][i]);
+                neighbours[count++] = u;
+            }
+            for (int i = 0; i < count; i++) {
+                deletedNeighbours[neighbours[i]]++;
+                depth[neighbours[i]] = Math.max(depth[neighbours[i]], depth[v] + 1);
+            }
+            out[v] = null;
+            in[v] = null;
+            outCount[v] = 0;
+            inCount[v] = 0;
+            return count;
+        }
+
+        private static int remove(int[] list, int count, int e) {
+            for (int i = 0; i < count; i++) {
+                if (list[i] == e) {
+                    list[i] = list[--count];
+                    return count;
+                }
+            }
+            return count;
+        }
+    }
+
+    /*
+     * IntMinHeap with long priorities, for (weight, moves) costs.
+     */
+    private static final class LongMinHeap {
+        private long[] priorities;
+        private int[] values;
+        private int size;
+
+        LongMinHeap(int initialCapacity) {
+            priorities = new long[initialCapacity];
+            values = new int[initialCapacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long peekPriority() {
+            return priorities[0];
+        }
+
+        int peekValue() {
+            return values[0];
+        }
+
+        void push(long priority, int value) {
+            if (size == priorities.length) {
+                priorities = Arrays.copyOf(priorities, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (priorities[parent] <= priority) {
+                    break;
+                }
+                priorities[i] = priorities[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            priorities[i] = priority;
+            values[i] = value;
+        }
+
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            long priority = priorities[size];
+            int value = values[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                    child++;
+                }
+                if (priorities[child] >= priority) {
+                    break;
+                }
+                priorities[i] = priorities[child];
+                values[i] = values[child];
+                i = child;
+            }
+            priorities[i] = priority;
+            values[i] = value;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Directed weighted graph in compressed sparse row form. The out-edges of room u
+ * are the slots offsets[u] .. offsets[u + 1] - 1 of targets/weights, sorted by
+ * target, so a 50k room dungeon with a handful of doors per room costs a few MB
+ * instead of an n*n matrix.
+ * 
+ * The shape is fixed once built; weights can still be lowered in place, which is
+ * all grabKey needs. New edges go through a Builder.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class CsrGraph {
+
+    private final int size;
+    final int[] offsets;
+    final int[] targets;
+    final int[] weights;
+
+    /*
+     * Reverse view, built on first use: the in-edges of room v are the forward
+     * slots inEdges[inOffsets[v]] .. inEdges[inOffsets[v + 1] - 1], leaving from
+     * the matching inSources. inOffsets is written last and read first.
+     */
+    private volatile int[] inOffsets;
+    private int[] inEdges;
+    private int[] inSources;
+
+    /*
+     * At least every weight, kept so searches don't scan the edges for it.
+     * Weights are only ever lowered after building, which leaves it a valid
+     * bound; setWeight raises it in the rare case one goes up.
+     */
+    private int maxWeight;
+
+    private CsrGraph(int size, int[] offsets, int[] targets, int[] weights) {
+        this(size, offsets, targets, weights, maxOf(weights));
+    }
+
+    private CsrGraph(int size, int[] offsets, int[] targets, int[] weights, int maxWeight) {
+        this.size = size;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.maxWeight = maxWeight;
+    }
+
+    private static int maxOf(int[] weights) {
+        int max = 0;
+        for (int weight : weights) {
+            max = Math.max(max, weight);
+        }
+        return max;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return Slot of the first out-edge of room u.
+     */
+    public int firstEdge(int u) {
+        return offsets[u];
+    }
+
+    /**
+     * @return One past the slot of the last out-edge of room u.
+     */
+    public int endEdge(int u) {
+        return offsets[u + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public int weight(int edge) {
+        return weights[edge];
+    }
+
+    public void setWeight(int edge, int weight) {
+        weights[edge] = weight;
+        if (weight > maxWeight) {
+            maxWeight = weight;
+        }
+    }
+
+    /**
+     * @return An upper bound on every edge weight, 0 for no edges. Exact when
+     *         built, possibly high after weights are lowered.
+     */
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return Position in the in-edge list of the first edge into room v.
+     */
+    public int firstInEdge(int v) {
+        buildReverse();
+        return inOffsets[v];
+    }
+
+    /**
+     * @return One past the position of the last edge into room v.
+     */
+    public int endInEdge(int v) {
+        buildReverse();
+        return inOffsets[v + 1];
+    }
+
+    /**
+     * @return The forward slot of the i-th in-edge, usable with weight/setWeight.
+     */
+    public int inEdge(int i) {
+        return inEdges[i];
+    }
+
+    /**
+     * @return The room the i-th in-edge leaves from.
+     */
+    public int inSource(int i) {
+        return inSources[i];
+    }
+
+    private void buildReverse() {
+        if (inOffsets != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (inOffsets != null) {
+                return;
+            }
+
+            int[] reverseOffsets = new int[size + 1];
+            for (int t : targets) {
+                reverseOffsets[t + 1]++;
+            }
+            for (int v = 0; v < size; v++) {
+                reverseOffsets[v + 1] += reverseOffsets[v];
+            }
+
+            int[] cursor = Arrays.copyOf(reverseOffsets, size);
+            int[] reverseEdges = new int[targets.length];
+            int[] reverseSources = new int[targets.length];
+            for (int u = 0; u < size; u++) {
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    int slot = cursor[targets[e]]++;
+                    reverseEdges[slot] = e;
+                    reverseSources[slot] = u;
+                }
+            }
+
+            inEdges = reverseEdges;
+            inSources = reverseSources;
+            inOffsets = reverseOffsets;
+        }
+    }
+
+    /**
+     * @return The slot of the edge from -> to, or -1 if there is no such edge.
+     */
+    public int findEdge(int from, int to) {
+        int slot = Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to);
+        return slot < 0 ? -1 : slot;
+    }
+
+    /**
+     * @return Weight of the edge from -> to, or Integer.MAX_VALUE if there is no
+     *         such edge, the same convention the adjacency matrix used.
+     */
+    public int getWeight(int from, int to) {
+        int edge = findEdge(from, to);
+        return edge == -1 ? Integer.MAX_VALUE : weights[edge];
+    }
+
+    /**
+     * @return A graph with the same edges and its own copy of the weights, so
+     *         they can be lowered independently. The shape arrays are shared.
+     */
+    public CsrGraph copy() {
+        return new CsrGraph(size, offsets, targets, weights.clone(), maxWeight);
+    }
+
+    /**
+     * Collects edges in any order and packs them into a CsrGraph. Adding the same
+     * edge twice keeps the last weight, just like writing the matrix cell twice.
+     */
+    public static class Builder {
+
+        /*
+         * Largest array the JVM reliably hands out.
+         */
+        private static final int MAX_EDGES = Integer.MAX_VALUE - 8;
+
+        private final int size;
+        private int[] from;
+        private int[] to;
+        private int[] weight;
+        private int count;
+
+        public Builder(int size) {
+            this(size, 16);
+        }
+
+        public Builder(int size, int expectedEdges) {
+            this.size = size;
+            int capacity = Math.max(16, expectedEdges);
+            this.from = new int[capacity];
+            this.to = new int[capacity];
+            this.weight = new int[capacity];
+        }
+
+        /**
+         * Starts a builder holding every edge of an existing graph.
+         */
+        public Builder(CsrGraph graph) {
+            this(graph.size, graph.edgeCount() + 16);
+            for (int u = 0; u < graph.size; u++) {
+                for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                    addEdge(u, graph.targets[e], graph.weights[e]);
+                }
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder addEdge(int src, int dest, int cost) {
+            if (src < 0 || src >= size || dest < 0 || dest >= size) {
+                throw new IllegalArgumentException(
+                        "Edge " + src + " -> " + dest + " is outside a dungeon of " + size + " rooms");
+            }
+
+            if (count == from.length) {
+                if (count == MAX_EDGES) {
+                    throw new IllegalStateException("A dungeon can't hold more than " + MAX_EDGES + " edges");
+                }
+                int capacity = (int) Math.min(MAX_EDGES, count * 2L);
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+            }
+
+            from[count] = src;
+            to[count] = dest;
+            weight[count] = cost;
+            count++;
+            return this;
+        }
+
+        public CsrGraph build() {
+            /*
+             * Counting sort by source keeps insertion order within a row, so a
+             * stable sort by target then lets the last duplicate win.
+             */
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < count; e++) {
+                offsets[from[e] + 1]++;
+            }
+            for (int u = 0; u < size; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+
+            int[] cursor = Arrays.copyOf(offsets, size);
+            int[] targets = new int[count];
+            int[] weights = new int[count];
+            for (int e = 0; e < count; e++) {
+                int slot = cursor[from[e]]++;
+                targets[slot] = to[e];
+                weights[slot] = weight[e];
+            }
+
+            int[] packedOffsets = new int[size + 1];
+            int write = 0;
+            for (int u = 0; u < size; u++) {
+                int start = offsets[u];
+                int end = offsets[u + 1];
+                sortRow(targets, weights, start, end);
+
+                packedOffsets[u] = write;
+                for (int e = start; e < end; e++) {
+                    if (e + 1 < end && targets[e + 1] == targets[e]) {
+                        continue; // a later duplicate of this edge overrides it
+                    }
+                    targets[write] = targets[e];
+                    weights[write] = weights[e];
+                    write++;
+                }
+            }
+            packedOffsets[size] = write;
+
+            return new CsrGraph(size, packedOffsets, Arrays.copyOf(targets, write), Arrays.copyOf(weights, write));
+        }
+
+        /*
+         * Rows are tiny, a stable insertion sort is the right tool.
+         */
+        private static void sortRow(int[] targets, int[] weights, int start, int end) {
+            for (int i = start + 1; i < end; i++) {
+                int t = targets[i];
+                int w = weights[i];
+                int j = i - 1;
+                while (j >= start && targets[j] > t) {
+                    targets[j + 1] = targets[j];
+                    weights[j + 1] = weights[j];
+                    j--;
+                }
+                targets[j + 1] = t;
+                weights[j + 1] = w;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for the expensive steps of a solve. They cost next to
+ * nothing unless a recording is running, e.g.
+ * 
+ * <pre>
+ * java -XX:StartFlightRecording=filename=dungeon.jfr ...
+ * jfr print --categories Dungeon dungeon.jfr
+ * </pre>
+ * 
+ * @author Evann Hall
+ *
+ */
+public final class DungeonEvents {
+
+    private DungeonEvents() {
+    }
+
+    @Name("src.Load")
+    @Label("Dungeon Load")
+    @Category("Dungeon")
+    @Description("Graph and key files or a snapshot read into a DungeonMap")
+    public static class Load extends Event {
+
+        Load() {
+        }
+
+        @Label("Source")
+        @Description("text, mapped or snapshot")
+        String source;
+
+        @Label("Rooms")
+        int rooms;
+
+        @Label("Edges")
+        int edges;
+
+        @Label("Key Rooms")
+        int keyRooms;
+    }
+
+    @Name("src.Apsp")
+    @Label("Floyd-Warshall")
+    @Category("Dungeon")
+    @Description("One all-pairs shortest path computation")
+    public static class Apsp extends Event {
+
+        Apsp() {
+        }
+
+        @Label("Rooms")
+        int rooms;
+
+        @Label("Unlocked")
+        @Description("Computed as if every key was held, for the A* heuristic")
+        boolean unlocked;
+
+        @Label("Blocked")
+        boolean blocked;
+
+        @Label("Parallelism")
+        int parallelism;
+
+        @Label("Relaxations")
+        long relaxations;
+    }
+
+    @Name("src.Solve")
+    @Label("Dungeon Solve")
+    @Category("Dungeon")
+    public static class Solve extends Event {
+
+        Solve() {
+        }
+
+        @Label("Solver")
+        @Description("greedy, exact, astar, bidirectional or frozen")
+        String solver;
+
+        @Label("Start")
+        int start;
+
+        @Label("End")
+        int end;
+
+        @Label("Solved")
+        boolean solved;
+
+        @Label("Path Length")
+        @Description("Rooms in the path, 0 if unsolved")
+        int pathLength;
+
+        @Label("States Expanded")
+        long statesExpanded;
+
+        @Label("Relaxations")
+        long relaxations;
+
+        @Label("Blockers Hit")
+        int blockers;
+    }
+
+    @Name("src.KeyPickup")
+    @Label("Key Pickup")
+    @Category("Dungeon")
+    public static class KeyPickup extends Event {
+
+        KeyPickup() {
+        }
+
+        @Label("Room")
+        int room;
+
+        @Label("Doors")
+        @Description("Rooms whose incoming edges the key made cheaper")
+        int doors;
+
+        @Label("Repaired Cells")
+        @Description("Floyd-Warshall distances improved by the pickup")
+        int repairedCells;
+    }
+}
@@ -0,0 +1,32 @@
+package src;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a graph or key file can't be parsed. Carries the file and the
+ * 1-based line number so the bad line can be found.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class DungeonFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String file;
+    private final int line;
+
+    public DungeonFormatException(String file, int line, String message) {
+        super(file + ":" + line + ": " + message);
+        this.file = file;
+        this.line = line;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,255 @@
+package src;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Writes random graph and key files in the same formats buildDungeon reads, for
+ * testing at sizes the hand-made maps don't reach. The same settings and seed
+ * always produce the same files.
+ *
+ * Rooms are split into doors + 1 zones in a row, start in the first and exit in
+ * the last. Each zone is a corridor of free edges both ways plus random free
+ * edges inside the zone or back into earlier zones. The only way forward into
+ * the next zone is a locked door, so the door's keys decide whether the exit can
+ * be reached:
+ *
+ * <ul>
+ * <li>solvable: every key for a door lies in an earlier zone, so it can be
+ * picked up before the door is reached.</li>
+ * <li>unsolvable: one key of one door lies behind that door, so nothing past it
+ * can ever be reached.</li>
+ * </ul>
+ *
+ * Edges are written as they are drawn, so memory use depends on the key count
+ * and the largest out-degree, never on the number of rooms.
+ *
+ * @author Evann Hall
+ *
+ */
+public class DungeonGenerator {
+
+    private static final Logger logger = Logger.getLogger(DungeonGenerator.class.getName());
+
+    public enum Degree {
+        /** Every room has the mean out-degree. */
+        FIXED,
+        /** Out-degree uniform between 1 and twice the mean. */
+        UNIFORM,
+        /**
+         * Pareto with alpha 1.5 (density exponent 2.5): a few hub rooms with many
+         * exits, and unbounded variance.
+         */
+        POWER_LAW
+    }
+
+    private int rooms = 100;
+    private long seed = 620;
+    private Degree degree = Degree.UNIFORM;
+    private int meanDegree = 4;
+    private int minWeight = 1;
+    private int maxWeight = 10;
+    private int keys = 4;
+    private int keysPerDoor = 1;
+    private boolean solvable = true;
+
+    /**
+     * A generator with the defaults above: 100 rooms, mean degree 4, weights
+     * 1-10 and 4 keys on 4 doors, seeded with 620.
+     */
+    public DungeonGenerator() {
+    }
+
+    public DungeonGenerator rooms(int rooms) {
+        this.rooms = rooms;
+        return this;
+    }
+
+    public DungeonGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param distribution How out-degrees are spread across rooms.
+     * @param mean         Average out-degree, counting the corridor.
+     */
+    public DungeonGenerator degree(Degree distribution, int mean) {
+        this.degree = distribution;
+        this.meanDegree = mean;
+        return this;
+    }
+
+    /**
+     * Range each key's reduction is drawn from. A door needing k keys weighs k
+     * times its keys' reduction, so only all k together open it.
+     */
+    public DungeonGenerator weights(int min, int max) {
+        this.minWeight = min;
+        this.maxWeight = max;
+        return this;
+    }
+
+    /**
+     * @param keys        Total keys, each in its own room.
+     * @param keysPerDoor Keys needed to open each door; must divide keys.
+     */
+    public DungeonGenerator keys(int keys, int keysPerDoor) {
+        this.keys = keys;
+        this.keysPerDoor = keysPerDoor;
+        return this;
+    }
+
+    public DungeonGenerator solvable(boolean solvable) {
+        this.solvable = solvable;
+        return this;
+    }
+
+    /**
+     * Writes the dungeon.
+     *
+     * @throws IllegalArgumentException If the settings can't produce a dungeon.
+     */
+    public void write(Path graphFile, Path keyFile) throws IOException {
+        int doors = validate();
+        int zones = doors + 1;
+        Random random = new Random(seed);
+
+        long[] zoneStart = new long[zones + 1];
+        for (int z = 0; z <= zones; z++) {
+            zoneStart[z] = (long) rooms * z / zones;
+        }
+
+        // Keys are placed first so the doors know what they weigh
+        int[] keyRoom = new int[keys];
+        int[] reduction = new int[keys];
+        Set<Integer> taken = new HashSet<Integer>();
+        int lockedOut = solvable ? -1 : random.nextInt(doors);
+
+        for (int d = 0; d < doors; d++) {
+            int door = (int) zoneStart[d + 1];
+            int r = minWeight + random.nextInt(maxWeight - minWeight + 1);
+
+            for (int k = d * keysPerDoor; k < (d + 1) * keysPerDoor; k++) {
+                // The locked-out door's first key goes on the far side of it
+                boolean behind = d == lockedOut && k == d * keysPerDoor;
+                long from = behind ? door : 0;
+                long to = behind ? zoneStart[d + 2] : door;
+
+                int room;
+                do {
+                    room = (int) (from + (long) (random.nextDouble() * (to - from)));
+                } while (!taken.add(room));
+
+                keyRoom[k] = room;
+                reduction[k] = r;
+            }
+        }
+
+        try (Writer out = Files.newBufferedWriter(keyFile, StandardCharsets.UTF_8)) {
+            for (int k = 0; k < keys; k++) {
+                int door = (int) zoneStart[k / keysPerDoor + 1];
+                out.write(keyRoom[k] + "," + reduction[k] + "," + door + "\n");
+            }
+        }
+
+        long edges = 0;
+        try (BufferedWriter out = new BufferedWriter(Files.newBufferedWriter(graphFile, StandardCharsets.UTF_8),
+                1 << 16)) {
+            out.write(rooms + "\n0\n" + (rooms - 1) + "\n");
+
+            Set<Integer> targets = new HashSet<Integer>();
+            int z = 0;
+            for (int r = 0; r < rooms; r++) {
+                while (r >= zoneStart[z + 1]) {
+                    z++;
+                }
+                targets.clear();
+
+                // Corridor, with a locked door out of every zone but the last
+                if (r + 1 < rooms) {
+                    int weight = r + 1 == zoneStart[z + 1] ? reduction[z * keysPerDoor] * keysPerDoor : 0;
+                    targets.add(r + 1);
+                    writeEdge(out, r, r + 1, weight);
+                }
+                if (r > 0) {
+                    targets.add(r - 1);
+                    writeEdge(out, r, r - 1, 0);
+                }
+
+                // Anything up to the end of our own zone is free to reach
+                int reach = (int) zoneStart[z + 1];
+                int wanted = Math.min(drawDegree(random), reach - 1);
+                while (targets.size() < wanted) {
+                    int to = random.nextInt(reach);
+                    if (to != r && targets.add(to)) {
+                        writeEdge(out, r, to, 0);
+                    }
+                }
+                edges += targets.size();
+            }
+        }
+
+        logger.info("Generated " + rooms + " rooms, " + edges + " edges and " + keys + " keys on " + doors
+                + " doors (" + (solvable ? "solvable" : "unsolvable") + ") into " + graphFile + " and " + keyFile);
+    }
+
+    private int validate() {
+        if (rooms < 2) {
+            throw new IllegalArgumentException("A dungeon needs at least 2 rooms, got " + rooms);
+        }
+        if (meanDegree < 1) {
+            throw new IllegalArgumentException("Mean degree must be at least 1, got " + meanDegree);
+        }
+        if (minWeight < 1 || maxWeight < minWeight) {
+            throw new IllegalArgumentException("Bad weight range " + minWeight + "-" + maxWeight);
+        }
+        if (keysPerDoor < 1 || keys % keysPerDoor != 0) {
+            throw new IllegalArgumentException(keys + " keys can't be split into doors of " + keysPerDoor);
+        }
+        if ((long) maxWeight * keysPerDoor > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Doors would weigh more than an int holds");
+        }
+
+        int doors = keys / keysPerDoor;
+        if (!solvable && doors == 0) {
+            throw new IllegalArgumentException("An unsolvable dungeon needs at least one door");
+        }
+        // Each zone has to fit the keys for the door out of it plus a room to spare
+        if (rooms / (doors + 1) < keysPerDoor + 1) {
+            throw new IllegalArgumentException(rooms + " rooms is too few for " + keys + " keys on " + doors + " doors");
+        }
+        return doors;
+    }
+
+    private int drawDegree(Random random) {
+        switch (degree) {
+        case FIXED:
+            return meanDegree;
+        case UNIFORM:
+            return 1 + random.nextInt(2 * meanDegree);
+        default:
+            // Pareto with alpha 1.5 has mean alpha / (alpha - 1) * xMin = 3 * xMin
+            double xMin = Math.max(1.0, meanDegree / 3.0);
+            double d = xMin * Math.pow(1.0 - random.nextDouble(), -1.0 / 1.5);
+            return (int) Math.min(d, rooms - 1);
+        }
+    }
+
+    private static void writeEdge(Writer out, int from, int to, int weight) throws IOException {
+        out.write(Integer.toString(from));
+        out.write(',');
+        out.write(Integer.toString(to));
+        out.write(',');
+        out.write(Integer.toString(weight));
+        out.write('\n');
+    }
+}
@@ -3,10 +3,15 @@ package src;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.*;
 
 public class DungeonMap {
@@ -18,9 +23,15 @@ public class DungeonMap {
     int endVertex;
 
     /*
-     * Starting point; what is read in from our file initially.
+     * Starting point; what is read in from our file initially. Kept sparse since
+     * real dungeons only have a few doors per room.
      */
-    public int[][] adjacencyMatrix;
+    private CsrGraph graph;
+
+    /*
+     * Edges added through addPath since the graph was last packed.
+     */
+    private CsrGraph.Builder pendingPaths;
 
     /*
      * We implement this as a better "memory" for pathing.
@@ -29,19 +40,101 @@ public class DungeonMap {
     public int[][] floydWarshallNext;
 
     /*
-     * For int[a][b], describes that there is a key in room a that will reduce the
-     * weight for all edges traveling into b by adjacencyMatrix[a][b].
+     * Where paths are read from when the tables didn't come from runFloydWarshall,
+     * e.g. a mapped snapshot, a contraction hierarchy or out-of-core tables. Null means use
+     * floydWarshallMap/floydWarshallNext.
      */
-    private int[][] keyLocations;
+    private ShortestPathTable pathTable;
+
+    /*
+     * Move counts with every key applied, a lower bound for any keyed route.
+     */
+    public int[][] floydWarshallUnlockedMap;
+
+    /*
+     * For key a -> b, describes that there is a key in room a that will reduce the
+     * weight for all edges traveling into b by keyLocations.getReduction(a, b).
+     */
+    private KeyTable keyLocations;
 
     /*
      * Global path variable
      */
 
-    ArrayList<Integer> currentPath;
+    PathResult currentPath = new PathResult();
     Stack<Integer> nextTarget = new Stack<Integer>();
     int currentRoom;
 
+    /*
+     * Number of threads the blocked Floyd-Warshall and the key tour planner may
+     * use, 1 keeps them on the calling thread.
+     */
+    private int apspParallelism = 1;
+
+    /*
+     * Blockers the greedy solver ran into during the current solveDungeon.
+     */
+    private int blockersHit;
+
+    /*
+     * Rooms in currentPath, and rooms pathChecker has walked so far, so the "have
+     * we been past this key" checks are bit lookups rather than list scans.
+     */
+    private final BitSet walkedRooms = new BitSet();
+    private final BitSet checkedRooms = new BitSet();
+
+    /*
+     * Key rooms pushed onto nextTarget since the greedy solver last moved. Asking
+     * for one of them again means its keys are behind each other's doors.
+     */
+    private final BitSet pendingKeyRooms = new BitSet();
+
+    /*
+     * Pre-pass for the current greedy solve, used to skip keys it can't reach.
+     */
+    private DungeonReachability.Result reachability;
+
+    /*
+     * Reused for every leg the greedy solver plans.
+     */
+    private final PathResult leg = new PathResult();
+
+    /*
+     * Answers single queries when there are no all-pairs tables, see optimalPath.
+     */
+    private BucketQueueSearch singleSource;
+
+    /*
+     * Set by useLazyShortestPaths; rows computed on demand instead of all pairs.
+     */
+    private ShortestPathRowCache lazyPaths;
+
+    /*
+     * Set by useOffHeapShortestPaths; all pairs kept outside the heap, repaired in
+     * place by decreaseEdge after a key pickup and refilled on first use after
+     * paths are added.
+     */
+    private OffHeapShortestPathTable offHeapPaths;
+
+    /*
+     * Off-heap tables need jdk.incubator.foreign, which is only resolved when the
+     * JVM is started with --add-modules jdk.incubator.foreign.
+     */
+    private static final boolean OFF_HEAP_SUPPORTED = ModuleLayer.boot().findModule("jdk.incubator.foreign")
+            .isPresent();
+
+    /*
+     * Memory for the rows a frozen copy computes itself when this map's tables
+     * are off-heap.
+     */
+    private static final long FROZEN_ROW_BUDGET = 64L << 20;
+
+    /*
+     * Most edges the mapped loader reserves room for before reading any; the
+     * builder doubles from there, so big files only pay for what they hold.
+     */
+    private static final int INITIAL_EDGE_CAPACITY = 1 << 20;
+
     public DungeonMap(String graphFile, String keyFile) {
 
         Logger rootLogger = Logger.getLogger("");
@@ -52,7 +145,11 @@ public class DungeonMap {
 
         logger.info("Building dungeon from graphFile: " + graphFile + " and keyFile: " + keyFile);
 
+        DungeonEvents.Load event = new DungeonEvents.Load();
+        event.begin();
+        long started = System.nanoTime();
         buildDungeon(graphFile, keyFile);
+        recordLoad(event, "text", started);
     }
 
     public DungeonMap(String graphFile, String keyFile, Level l) {
@@ -64,7 +161,79 @@ public class DungeonMap {
 
         logger.info("Building dungeon from graphFile: " + graphFile + " and keyFile: " + keyFile);
 
+        DungeonEvents.Load event = new DungeonEvents.Load();
+        event.begin();
+        long started = System.nanoTime();
         buildDungeon(graphFile, keyFile);
+        recordLoad(event, "text", started);
+    }
+
+    /**
+     * Builds the dungeon with the memory-mapped loader. Numbers are parsed
+     * straight from the mapped bytes into the graph and key arrays, and a bad line
+     * is reported rather than skipped.
+     * 
+     * @throws DungeonFormatException If a line of either file is malformed, with
+     *                                its line number.
+     * @throws IOException            If either file can't be read.
+     */
+    public DungeonMap(Path graphFile, Path keyFile, Level l) throws IOException {
+        Logger rootLogger = Logger.getLogger("");
+        Handler[] handlers = rootLogger.getHandlers();
+        if (handlers[0] instanceof ConsoleHandler) {
+            handlers[0].setLevel(l);
+        }
+
+        logger.info("Mapping dungeon from graphFile: " + graphFile + " and keyFile: " + keyFile);
+
+        DungeonEvents.Load event = new DungeonEvents.Load();
+        event.begin();
+        long started = System.nanoTime();
+        buildDungeonMapped(graphFile, keyFile);
+        recordLoad(event, "mapped", started);
+    }
+
+    /**
+     * Builds the dungeon from a compiled snapshot. Paths are served straight from
+     * the snapshot's mapped Floyd-Warshall tables, nothing is recomputed.
+     */
+    public DungeonMap(DungeonSnapshot snapshot, Level l) {
+        Logger rootLogger = Logger.getLogger("");
+        Handler[] handlers = rootLogger.getHandlers();
+        if (handlers[0] instanceof ConsoleHandler) {
+            handlers[0].setLevel(l);
+        }
+
+        DungeonEvents.Load event = new DungeonEvents.Load();
+        event.begin();
+        long started = System.nanoTime();
+
+        this.size = snapshot.size();
+        this.startVertex = snapshot.getStartVertex();
+        this.endVertex = snapshot.getEndVertex();
+        this.graph = snapshot.graph();
+        this.keyLocations = snapshot.keys();
+        this.pathTable = snapshot;
+
+        recordLoad(event, "snapshot", started);
+        logger.info("Built dungeon from snapshot with " + size + " rooms");
+    }
+
+    private void recordLoad(DungeonEvents.Load event, String source, long started) {
+        DungeonMetrics.global().recordLoad(System.nanoTime() - started);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.rooms = size;
+            event.edges = graph().edgeCount();
+            for (int r = 0; r < size; r++) {
+                if (keyLocations.hasKey(r)) {
+                    event.keyRooms++;
+                }
+            }
+            event.commit();
+        }
     }
 
     private void buildDungeon(String graphFile, String keyFile) {
@@ -74,7 +243,7 @@ public class DungeonMap {
          * Setting up graphs...
          */
 
-        logger.info("Setting up adjacencyMatrix");
+        logger.info("Setting up graph");
 
         try (BufferedReader br = new BufferedReader(new FileReader(graphFile))) {
             String line;
@@ -89,18 +258,11 @@ public class DungeonMap {
 
             this.size = n;
 
-            this.adjacencyMatrix = new int[n][n];
-            this.keyLocations = new int[n][n];
+            this.keyLocations = new KeyTable(n);
 
-            for (int i = 0; i < n; i++) {
-                for (int j = 0; j < n; j++) {
-
-                    adjacencyMatrix[i][j] = Integer.MAX_VALUE; // Initialize with max value to denote no direct path
-                    keyLocations[i][j] = 0; // Initialize all key locations to false
-                }
-            }
+            CsrGraph.Builder builder = new CsrGraph.Builder(n);
 
-            logger.info("Set adjacencyMatrix and keyLocations to starting values");
+            logger.info("Set graph and keyLocations to starting values");
 
             /*
              * Read and add edges
@@ -111,21 +273,97 @@ public class DungeonMap {
                 int src = Integer.parseInt(parts[0].trim());
                 int dest = Integer.parseInt(parts[1].trim());
                 int weight = Integer.parseInt(parts[2].trim());
-                adjacencyMatrix[src][dest] = weight; // Add edge with weight
+                builder.addEdge(src, dest, weight); // Add edge with weight
 
-                logger.fine("Added edge from " + src + " to " + dest + " with weight " + weight);
+                logger.fine(() -> "Added edge from " + src + " to " + dest + " with weight " + weight);
             }
 
+            this.graph = builder.build();
+
         } catch (IOException e) {
             logger.severe("Error reading file: " + graphFile);
         }
 
-        logger.info("Finished creating adjacency matrix! Creating keys matrix...");
+        logger.info("Finished creating graph with " + graph.edgeCount() + " edges! Creating keys...");
 
         applyKeysFromFile(keyFile);
 
     }
 
+    private void buildDungeonMapped(Path graphFile, Path keyFile) throws IOException {
+        try (MappedIntReader reader = new MappedIntReader(graphFile)) {
+            int n = readHeader(reader, "number of rooms");
+            startVertex = readHeader(reader, "start room");
+            endVertex = readHeader(reader, "end room");
+
+            if (n < 1 || startVertex < 0 || startVertex >= n || endVertex < 0 || endVertex >= n) {
+                throw new DungeonFormatException(reader.name(), reader.line(),
+                        "start " + startVertex + " and end " + endVertex + " must be rooms of a dungeon of " + n);
+            }
+
+            this.size = n;
+            this.keyLocations = new KeyTable(n);
+
+            // A line is at least "a,b,c\n" and usually a good deal longer
+            CsrGraph.Builder builder = new CsrGraph.Builder(n,
+                    (int) Math.min(INITIAL_EDGE_CAPACITY, Files.size(graphFile) / 16));
+
+            while (reader.nextLine()) {
+                if (reader.count() != 3) {
+                    throw new DungeonFormatException(reader.name(), reader.line(),
+                            "expected src,dest,cost but found " + reader.count() + " numbers");
+                }
+
+                int[] edge = reader.values();
+                if (!inRange(edge[0]) || !inRange(edge[1])) {
+                    throw new DungeonFormatException(reader.name(), reader.line(),
+                            "edge " + edge[0] + " -> " + edge[1] + " is outside a dungeon of " + n + " rooms");
+                }
+                builder.addEdge(edge[0], edge[1], edge[2]);
+            }
+
+            this.graph = builder.build();
+        }
+
+        logger.info("Mapped graph with " + size + " rooms and " + graph.edgeCount() + " edges! Mapping keys...");
+
+        try (MappedIntReader reader = new MappedIntReader(keyFile)) {
+            int keys = 0;
+            while (reader.nextLine()) {
+                if (reader.count() < 3) {
+                    throw new DungeonFormatException(reader.name(), reader.line(),
+                            "expected room,reduction,target... but found " + reader.count() + " numbers");
+                }
+
+                int[] key = reader.values();
+                for (int i = 0; i < reader.count(); i++) {
+                    if (i != 1 && !inRange(key[i])) {
+                        throw new DungeonFormatException(reader.name(), reader.line(),
+                                "room " + key[i] + " is outside a dungeon of " + size + " rooms");
+                    }
+                }
+
+                for (int i = 2; i < reader.count(); i++) {
+                    keyLocations.placeKey(key[0], key[i], key[1]);
+                }
+                keys++;
+            }
+
+            logger.info("Mapped " + keys + " keys");
+        }
+    }
+
+    private static int readHeader(MappedIntReader reader, String what) throws IOException {
+        if (!reader.nextLine() || reader.count() != 1) {
+            throw new DungeonFormatException(reader.name(), reader.line(), "expected the " + what + " on its own line");
+        }
+        return reader.values()[0];
+    }
+
+    private boolean inRange(int room) {
+        return room >= 0 && room < size;
+    }
+
     private void applyKeysFromFile(String keyFile) {
         try (BufferedReader br = new BufferedReader(new FileReader(keyFile))) {
             String line;
@@ -148,8 +386,8 @@ public class DungeonMap {
                 for (int i = 2; i < parts.length; i++) {
                     int affectedRoom = Integer.parseInt(parts[i].trim()); // Room affected by the key
 
-                    keyLocations[roomWithKey][affectedRoom] = weightReduction;
-                    logger.fine("Added key for room " + affectedRoom + " inside of room " + roomWithKey
+                    keyLocations.placeKey(roomWithKey, affectedRoom, weightReduction);
+                    logger.fine(() -> "Added key for room " + affectedRoom + " inside of room " + roomWithKey
                             + " for a weight reduction of " + weightReduction);
                 }
 
@@ -161,19 +399,217 @@ public class DungeonMap {
         logger.info("Completed reading of keyfile and writing of keyLocations");
     }
 
+    /**
+     * @param parallelism Threads to spread the blocked Floyd-Warshall, the
+     *                    off-heap table fill and the key tour planner over, 1 to
+     *                    run them on the calling thread.
+     */
+    public void setApspParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.apspParallelism = parallelism;
+    }
+
     // Add a path from src to dest with a cost
     public void addPath(int src, int dest, int cost) {
-        adjacencyMatrix[src][dest] = cost;
+        if (pendingPaths == null) {
+            pendingPaths = new CsrGraph.Builder(graph);
+        }
+        pendingPaths.addEdge(src, dest, cost);
+    }
+
+    /**
+     * @return The graph with every addPath so far packed in.
+     */
+    CsrGraph graph() {
+        if (pendingPaths != null) {
+            graph = pendingPaths.build();
+            pendingPaths = null;
+        }
+        return graph;
+    }
+
+    /**
+     * Takes an immutable copy of this dungeon that any number of threads can solve
+     * against at once. The copy keeps the current weights and keys (anything
+     * grabbed so far stays grabbed) and the shortest path tables if they were
+     * computed or loaded; later changes to this DungeonMap don't reach it.
+     * 
+     * @return The frozen dungeon.
+     */
+    public FrozenDungeon freeze() {
+        CsrGraph frozen = graph().copy();
+        ShortestPathTable paths = pathTable;
+        if (paths == null && floydWarshallMap != null) {
+            paths = new ArrayShortestPathTable(copyOf(floydWarshallMap), copyOf(floydWarshallNext));
+        } else if (paths == null && lazyPaths != null) {
+            paths = new ShortestPathRowCache(frozen, lazyPaths.maxRows());
+        } else if (paths == null && offHeapPaths != null) {
+            // Off-heap tables are repaired in place after a pickup, and too big to copy
+            paths = new ShortestPathRowCache(frozen, ShortestPathRowCache.rowsForBudget(size, FROZEN_ROW_BUDGET));
+        }
+
+        return new FrozenDungeon(startVertex, endVertex, frozen, keyLocations.copy(), paths,
+                floydWarshallUnlockedMap == null ? null : copyOf(floydWarshallUnlockedMap));
+    }
+
+    private static int[][] copyOf(int[][] matrix) {
+        int[][] copy = new int[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+
+    KeyTable keyTable() {
+        return keyLocations;
+    }
+
+    /**
+     * Serves paths from a ShortestPathRowCache of at most maxRows source rows
+     * instead of the full Floyd-Warshall tables, which are dropped. For maps too
+     * big for an n x n matrix; see ShortestPathRowCache.rowsForBudget.
+     */
+    public void useLazyShortestPaths(int maxRows) {
+        lazyPaths = new ShortestPathRowCache(graph(), maxRows);
+        floydWarshallMap = null;
+        floydWarshallNext = null;
+        logger.info("Serving shortest paths from a cache of up to " + maxRows + " rows");
+    }
+
+    /**
+     * Contracts the dungeon as it is now and serves paths from the hierarchy, see
+     * useContractionHierarchy(ContractionHierarchy).
+     *
+     * @return The hierarchy, e.g. to write next to the map files.
+     */
+    public ContractionHierarchy useContractionHierarchy() {
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph());
+        useContractionHierarchy(hierarchy);
+        return hierarchy;
+    }
+
+    /**
+     * Serves paths from a contraction hierarchy instead of the Floyd-Warshall
+     * tables, which are dropped. Pays off on large sparse maps queried many times.
+     * Like a snapshot's tables it is read-only and gets dropped at the first key
+     * pickup, after which paths come from single-source searches (or the lazy row
+     * cache if enabled).
+     *
+     * @throws IllegalArgumentException If the hierarchy wasn't built for this
+     *                                  map's current weights.
+     */
+    public void useContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (!hierarchy.matches(graph())) {
+            throw new IllegalArgumentException("Contraction hierarchy doesn't match this dungeon's current weights");
+        }
+        pathTable = hierarchy;
+        floydWarshallMap = null;
+        floydWarshallNext = null;
+        logger.info("Serving shortest paths from a contraction hierarchy of " + hierarchy.edgeCount() + " edges");
+    }
+
+    /**
+     * Keeps the all-pairs tables in native memory, see
+     * useOffHeapShortestPaths(Path).
+     */
+    public void useOffHeapShortestPaths() {
+        requireOffHeap();
+        useOffHeapShortestPaths(OffHeapShortestPathTable.allocate(size));
+    }
+
+    /**
+     * Keeps the all-pairs tables outside the heap instead of floydWarshallMap and
+     * floydWarshallNext, which are dropped, and fills them now. A key pickup
+     * repairs them in place like the heap tables; adding paths marks them stale
+     * and they are refilled the next time paths are read.
+     *
+     * @param file File to map the tables onto, created or overwritten, so they
+     *             live in the page cache rather than native memory.
+     * @throws IllegalStateException If the JVM wasn't started with --add-modules
+     *                               jdk.incubator.foreign.
+     * @throws IOException           If the file can't be mapped.
+     */
+    public void useOffHeapShortestPaths(Path file) throws IOException {
+        requireOffHeap();
+        useOffHeapShortestPaths(OffHeapShortestPathTable.map(file, size));
+    }
+
+    private static void requireOffHeap() {
+        if (!OFF_HEAP_SUPPORTED) {
+            throw new IllegalStateException("Off-heap tables need the JVM started with --add-modules jdk.incubator.foreign");
+        }
+    }
+
+    private void useOffHeapShortestPaths(OffHeapShortestPathTable table) {
+        if (offHeapPaths != null) {
+            offHeapPaths.close();
+        }
+        offHeapPaths = table;
+        floydWarshallMap = null;
+        floydWarshallNext = null;
+        fillOffHeap();
+    }
+
+    private void fillOffHeap() {
+        logger.info("Filling " + (offHeapPaths.byteSize() >> 20) + " MB of off-heap shortest path tables for " + size
+                + " rooms...");
+        if (apspParallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(apspParallelism);
+            try {
+                offHeapPaths.fill(graph(), pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            offHeapPaths.fill(graph(), null);
+        }
+    }
+
+    /*
+     * Whether shortestPaths() has tables to read, rather than running
+     * Floyd-Warshall.
+     */
+    private boolean hasShortestPaths() {
+        return pathTable != null || floydWarshallNext != null || lazyPaths != null || offHeapPaths != null;
+    }
+
+    /**
+     * @return The table memoizedOptimalPath reads from: loaded or computed tables,
+     *         else the off-heap tables or the lazy row cache if enabled, else
+     *         Floyd-Warshall run now.
+     */
+    public ShortestPathTable shortestPaths() {
+        if (pathTable != null) {
+            return pathTable;
+        }
+        if (floydWarshallNext == null && offHeapPaths != null) {
+            if (offHeapPaths.isStale() || offHeapPaths.graph() != graph()) {
+                fillOffHeap(); // a key was picked up or paths were added
+            }
+            return offHeapPaths;
+        }
+        if (floydWarshallNext == null && lazyPaths != null) {
+            if (lazyPaths.graph() != graph()) {
+                lazyPaths = new ShortestPathRowCache(graph(), lazyPaths.maxRows()); // paths were added
+            }
+            return lazyPaths;
+        }
+        if (floydWarshallNext == null) {
+            runFloydWarshall();
+        }
+        return new ArrayShortestPathTable(floydWarshallMap, floydWarshallNext);
     }
 
     // Place a key that affects paths to a specific room
     public void placeKey(int src, int dest, int weight) {
-        keyLocations[src][dest] = weight;
+        keyLocations.placeKey(src, dest, weight);
     }
 
     // Get the cost of traveling from src to dest
     public int getCost(int src, int dest) {
-        return adjacencyMatrix[src][dest];
+        return graph().getWeight(src, dest);
     }
 
     /**
@@ -183,9 +619,7 @@ public class DungeonMap {
      * @param room The room to remove weight reductions from.
      */
     public void removeRoomKey(int room) {
-        for (int i = 0; i < size; i++) {
-            keyLocations[room][i] = 0;
-        }
+        keyLocations.removeKey(room);
 
         logger.info("Removed key from room " + room + "!");
     }
@@ -202,11 +636,9 @@ public class DungeonMap {
 
         ArrayList<Integer> returnArray = new ArrayList<Integer>();
 
-        for (int i = 0; i < size; i++) {
-            if (keyLocations[room][i] != 0) {
-                logger.info("Found key for room " + i);
-                returnArray.add(i);
-            }
+        for (int i : keyLocations.targetsOf(room)) {
+            logger.info("Found key for room " + i);
+            returnArray.add(i);
         }
         if (returnArray.isEmpty()) {
             logger.warning("No key found!");
@@ -215,13 +647,11 @@ public class DungeonMap {
     }
 
     public int getKeyWeightReduction(int room) {
-        for (int i = 0; i < size; i++) {
-            if (keyLocations[room][i] != 0) {
-                logger.fine("Key value for key found in room " + room + " is a weight reduction of "
-                        + keyLocations[room][i]);
+        int[] reductions = keyLocations.reductionsOf(room);
+        if (reductions.length > 0) {
+            logger.fine(() -> "Key value for key found in room " + room + " is a weight reduction of " + reductions[0]);
 
-                return keyLocations[room][i];
-            }
+            return reductions[0];
         }
 
         return -1;
@@ -234,27 +664,51 @@ public class DungeonMap {
         ArrayList<Integer> keyRoomTo = isKey(room);
 
         if (!keyRoomTo.isEmpty()) {
-            logger.finest("Found key to rooms " + keyRoomTo.toString() + " which was in room " + room
+            DungeonEvents.KeyPickup event = new DungeonEvents.KeyPickup();
+            event.begin();
+
+            logger.finest(() -> "Found key to rooms " + keyRoomTo.toString() + " which was in room " + room
                     + ". \n Updating weights...");
 
-            for (Integer r : keyRoomTo) {
-                for (int i = 0; i < size; i++) {
-                    logger.finest(
-                            "Updating weight from room " + i + " to room " + r + " by " + getKeyWeightReduction(room)
-                                    + ",\nNote that some may be at 0 already, so will see no difference.");
+            CsrGraph g = graph();
+            int reduction = getKeyWeightReduction(room);
 
-                    if (adjacencyMatrix[i][r] < Integer.MAX_VALUE) {
-                        adjacencyMatrix[i][r] = Math.max(0, adjacencyMatrix[i][r] - getKeyWeightReduction(room));
-                    }
+            if (pathTable != null) {
+                logger.info("Loaded shortest path tables are read-only, they will be recomputed after this pickup");
+                pathTable = null;
+            }
+            if (lazyPaths != null) {
+                lazyPaths.invalidate();
+            }
+
+            // Only the edges that actually point into an affected room change
+            int changedCells = 0;
+            for (Integer r : keyRoomTo) {
+                for (int in = g.firstInEdge(r); in < g.endInEdge(r); in++) {
+                    int e = g.inEdge(in);
+                    int from = g.inSource(in);
+                    logger.finest(() -> "Updating weight from room " + from + " to room " + r + " by "
+                            + reduction + ",\nNote that some may be at 0 already, so will see no difference.");
+
+                    g.setWeight(e, Math.max(0, g.weight(e) - reduction));
+                    changedCells += decreaseEdge(from, r, g.weight(e));
                 }
-                // Math.min(0, adjacencyMatrix[i][r] - getKeyWeightReduction(room)
+            }
 
+            if (floydWarshallMap != null || offHeapPaths != null) {
+                logger.info("Repaired " + changedCells + " shortest path cells after the pickup");
             }
 
             logger.info("Updated weights, now removing key...");
 
             removeRoomKey(room);
 
+            DungeonMetrics.global().recordKeyPickup();
+            event.room = room;
+            event.doors = keyRoomTo.size();
+            event.repairedCells = changedCells;
+            event.commit();
+
         } else {
             logger.warning("Tried to take key when one is not available! Possibly broken logic!");
         }
@@ -262,11 +716,12 @@ public class DungeonMap {
     }
 
     public boolean isPath(int from, int to) {
-        return (adjacencyMatrix[from][to] != Integer.MAX_VALUE);
+        return (graph().findEdge(from, to) != -1);
     }
 
     public void printAdjacencyMatrix() {
         StringBuilder matrixString = new StringBuilder("Adjacency Matrix:\n");
+        int[][] adjacencyMatrix = toAdjacencyMatrix();
 
         // Calculate the maximum number of digits in the matrix for formatting
         int maxDigits = 0;
@@ -316,6 +771,14 @@ public class DungeonMap {
 
     public void printKeyLocations() {
         StringBuilder matrixString = new StringBuilder("Key Locations Matrix:\n");
+        int[][] keyLocations = new int[size][size];
+        for (int a = 0; a < size; a++) {
+            int[] targets = this.keyLocations.targetsOf(a);
+            int[] reductions = this.keyLocations.reductionsOf(a);
+            for (int i = 0; i < targets.length; i++) {
+                keyLocations[a][targets[i]] = reductions[i];
+            }
+        }
 
         // Calculate the maximum number of digits in the matrix for formatting
         int maxDigits = 0;
@@ -363,9 +826,25 @@ public class DungeonMap {
         logger.info(matrixString.toString());
     }
 
+    /**
+     * Expands the graph into a dense matrix, Integer.MAX_VALUE for no edge. Only
+     * meant for printing small dungeons.
+     */
+    public int[][] toAdjacencyMatrix() {
+        CsrGraph g = graph();
+        int[][] matrix = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            java.util.Arrays.fill(matrix[i], Integer.MAX_VALUE);
+            for (int e = g.firstEdge(i); e < g.endEdge(i); e++) {
+                matrix[i][g.target(e)] = g.weight(e);
+            }
+        }
+        return matrix;
+    }
+
     // Check if a direct edge exists between src and dest
     public boolean directEdgeExists(int src, int dest) {
-        return adjacencyMatrix[src][dest] != Integer.MAX_VALUE;
+        return graph().findEdge(src, dest) != -1;
     }
 
     public ArrayList<Integer> findRoomsWithKey(int room) {
@@ -374,11 +853,9 @@ public class DungeonMap {
 
         logger.info("Checking for keys for room " + room);
 
-        for (int i = 0; i < size; i++) {
-            if (keyLocations[i][room] > 0) {
-                logger.info("FOUND: A key for room " + room + " is in room " + i);
-                roomsWithRequiredKeys.add(i);
-            }
+        for (int i : keyLocations.keyRoomsFor(room)) {
+            logger.info("FOUND: A key for room " + room + " is in room " + i);
+            roomsWithRequiredKeys.add(i);
         }
 
         if (roomsWithRequiredKeys.isEmpty()) {
@@ -390,49 +867,290 @@ public class DungeonMap {
     }
 
     public boolean isRoomLocked(int roomFrom, int roomTo) {
-        return (adjacencyMatrix[roomFrom][roomTo] > 0);
+        return (getCost(roomFrom, roomTo) > 0);
     }
 
-    public ArrayList<Integer> solveDungeon(int startVertex, int endVertex) {
+    /**
+     * Runs the reachability pre-pass over the current weights and the keys not
+     * yet picked up.
+     */
+    public DungeonReachability.Result analyze(int startVertex, int endVertex) {
+        DungeonReachability.Result result = DungeonReachability.of(graph(), keyLocations).analyze(startVertex,
+                endVertex);
+        logger.info("Reachability from " + startVertex + " to " + endVertex + ": " + result);
+        return result;
+    }
 
-        currentPath = new ArrayList<Integer>();
+    /**
+     * Greedy solve: walk the key-ignoring shortest path and detour for the keys of
+     * each door found locked on it.
+     * 
+     * This consumes the map. Every key on the walk is picked up with grabKey,
+     * which lowers this map's weights and removes the key for good, so a later
+     * solve of any kind sees the dungeon as the walk left it. Run exact solves
+     * first, reload the map for each greedy solve, or freeze() it beforehand and
+     * solve the frozen copy.
+     * 
+     * @return The rooms walked through in order, or null if the pre-pass proves
+     *         there is no way out.
+     * @throws IllegalStateException If the greedy walk gets stuck on a dungeon the
+     *                               pre-pass couldn't rule out.
+     */
+    public ArrayList<Integer> solveDungeon(int startVertex, int endVertex) {
+        PathResult path = solveDungeonPath(startVertex, endVertex);
+        return path == null ? null : path.toList();
+    }
 
-        // begin with finding the initial best path even given keys
-        ArrayList<Integer> optimalPath = memoizedOptimalPath();
+    /**
+     * solveDungeon without the boxing. The cost is the number of moves, and the
+     * key pickups are where the greedy walk grabbed each key. Consumes the map
+     * the same way.
+     */
+    public PathResult solveDungeonPath(int startVertex, int endVertex) {
+        DungeonEvents.Solve event = new DungeonEvents.Solve();
+        event.begin();
+        long started = System.nanoTime();
+
+        currentPath = new PathResult();
+        walkedRooms.clear();
+        pendingKeyRooms.clear();
+        nextTarget.clear();
+        blockersHit = 0;
+
+        reachability = analyze(startVertex, endVertex);
+        if (reachability.verdict() == DungeonReachability.Verdict.UNSOLVABLE) {
+            logger.warning("No path exists from " + startVertex + " to " + endVertex + " with the keys available");
+            DungeonMetrics.global().recordSolve(System.nanoTime() - started, null, 0, 0, 0);
+            recordSolve(event, "greedy", startVertex, endVertex, null, 0, 0, 0);
+            return null;
+        }
 
         currentRoom = startVertex;
         nextTarget.push(endVertex);
 
+        // Visit the planned key rooms first, in order, then head for the exit
+        int[] tour = planTour(startVertex, endVertex, reachability.reachableRooms());
+        if (tour != null) {
+            for (int i = tour.length - 1; i >= 0; i--) {
+                nextTarget.push(tour[i]);
+            }
+        }
+
         while (!nextTarget.isEmpty()) {
             recursivelySolve(currentRoom);
         }
         
+        currentPath.setCost(currentPath.length() - 1);
         logger.info("Path found! Path:\n\n\n" + currentPath);
+
+        int[] walked = currentPath.toArray();
+        DungeonMetrics.global().recordSolve(System.nanoTime() - started, walked, 0, 0, blockersHit);
+        recordSolve(event, "greedy", startVertex, endVertex, walked, 0, 0, blockersHit);
         
         return currentPath;
     }
 
+    /**
+     * Plans which key rooms to fetch, and in which order, on the way from
+     * startVertex to endVertex. Legs follow the same key-ignoring shortest paths
+     * as solveDungeon.
+     *
+     * @return The key rooms in visiting order, or null if no tour was found or
+     *         more than KeyTourPlanner.MAX_TOUR_KEYS keys are left.
+     */
+    public ArrayList<Integer> planKeyTour(int startVertex, int endVertex) {
+        int[] tour = planTour(startVertex, endVertex, null);
+        if (tour == null) {
+            return null;
+        }
+
+        ArrayList<Integer> result = new ArrayList<Integer>(tour.length);
+        for (int room : tour) {
+            result.add(room);
+        }
+        return result;
+    }
+
+    private int[] planTour(int startVertex, int endVertex, BitSet candidates) {
+        // Without tables only the rows for the start and the key rooms get computed
+        ShortestPathTable legs = hasShortestPaths() ? shortestPaths()
+                : new ShortestPathRowCache(graph(), KeyTourPlanner.MAX_TOUR_KEYS + 2);
+
+        KeyTourPlanner planner;
+        try {
+            planner = new KeyTourPlanner(graph(), keyLocations, legs, candidates);
+        } catch (IllegalStateException e) {
+            logger.info("Not planning a key tour: " + e.getMessage());
+            return null;
+        }
+
+        int[] tour;
+        if (apspParallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(apspParallelism);
+            try {
+                tour = planner.plan(startVertex, endVertex, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            tour = planner.plan(startVertex, endVertex);
+        }
+
+        if (tour == null) {
+            logger.info("No key tour found from " + startVertex + " to " + endVertex);
+        } else {
+            logger.info("Key tour of " + planner.getMoves() + " moves from " + startVertex + " to " + endVertex
+                    + " via " + Arrays.toString(tour) + ", " + planner.getStatesExpanded() + " states");
+        }
+        return tour;
+    }
+
+    /**
+     * Solves the dungeon exactly by searching over (room, keys collected) rather
+     * than replanning around blockers. Unlike solveDungeon this terminates when a
+     * key is missing, and the path returned is the shortest one the locks allow.
+     *
+     * @param startVertex Room we start in.
+     * @param endVertex   Room we want to reach.
+     * @return The rooms walked through in order, or null if there is no way out.
+     */
+    public ArrayList<Integer> solveDungeonExact(int startVertex, int endVertex) {
+        return runKeyStateSolver(startVertex, endVertex, null, false);
+    }
+
+    /**
+     * Same result as solveDungeonExact, but guided towards the exit by the
+     * unlocked Floyd-Warshall distances so far fewer key states get expanded.
+     *
+     * @param startVertex Room we start in.
+     * @param endVertex   Room we want to reach.
+     * @return The rooms walked through in order, or null if there is no way out.
+     */
+    public ArrayList<Integer> solveDungeonAStar(int startVertex, int endVertex) {
+        if (floydWarshallUnlockedMap == null) {
+            runFloydWarshallUnlocked();
+        }
+
+        int[] heuristic = new int[size];
+        for (int r = 0; r < size; r++) {
+            heuristic[r] = floydWarshallUnlockedMap[r][endVertex];
+        }
+
+        return runKeyStateSolver(startVertex, endVertex, heuristic, false);
+    }
+
+    /**
+     * Same result as solveDungeonExact, searching from both the start and the
+     * exit with a BidirectionalKeySearch. Needs no Floyd-Warshall tables, so it
+     * suits one-off queries on large dungeons.
+     *
+     * @param startVertex Room we start in.
+     * @param endVertex   Room we want to reach.
+     * @return The rooms walked through in order, or null if there is no way out.
+     */
+    public ArrayList<Integer> solveDungeonBidirectional(int startVertex, int endVertex) {
+        return runKeyStateSolver(startVertex, endVertex, null, true);
+    }
+
+    private ArrayList<Integer> runKeyStateSolver(int startVertex, int endVertex, int[] heuristic,
+            boolean bidirectional) {
+        DungeonEvents.Solve event = new DungeonEvents.Solve();
+        event.begin();
+        long started = System.nanoTime();
+
+        // Keys the pre-pass shows can never be picked up are left out of the ring
+        DungeonReachability.Result reach = analyze(startVertex, endVertex);
+        int[] path = null;
+        int states = 0;
+        long relaxations = 0;
+        if (reach.verdict() != DungeonReachability.Verdict.UNSOLVABLE) {
+            KeyRing ring = KeyRing.fromKeyTable(keyLocations, reach.reachableRooms());
+            if (bidirectional) {
+                BidirectionalKeySearch solver = new BidirectionalKeySearch(graph(), ring);
+                path = solver.solve(startVertex, endVertex);
+                states = solver.getStatesExpanded();
+                relaxations = solver.getRelaxations();
+            } else {
+                KeyStateSolver solver = new KeyStateSolver(graph(), ring);
+                path = solver.solve(startVertex, endVertex, heuristic);
+                states = solver.getStatesExpanded();
+                relaxations = solver.getRelaxations();
+            }
+        }
+
+        DungeonMetrics.global().recordSolve(System.nanoTime() - started, path, states, relaxations, 0);
+        String solverName = bidirectional ? "bidirectional" : heuristic == null ? "exact" : "astar";
+        recordSolve(event, solverName, startVertex, endVertex, path, states, relaxations, 0);
+
+        logger.info("The " + solverName + " search settled " + states + " key states");
+
+        if (path == null) {
+            logger.warning("No path exists from " + startVertex + " to " + endVertex + " with the keys available");
+            return null;
+        }
+
+        ArrayList<Integer> result = new ArrayList<Integer>(path.length);
+        for (int room : path) {
+            result.add(room);
+        }
+
+        logger.info("Exact path found with cost " + (path.length - 1) + "! Path:\n\n\n" + result);
+
+        return result;
+    }
+
+    static void recordSolve(DungeonEvents.Solve event, String solver, int start, int end, int[] path,
+            long statesExpanded, long relaxations, int blockers) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.solver = solver;
+            event.start = start;
+            event.end = end;
+            event.solved = path != null;
+            event.pathLength = path == null ? 0 : path.length;
+            event.statesExpanded = statesExpanded;
+            event.relaxations = relaxations;
+            event.blockers = blockers;
+            event.commit();
+        }
+    }
+
     private ArrayList<Integer> recursivelySolve(int startVertex) {
         
         
         int nextRoomTarget = this.nextTarget.pop();
-        int blocker = pathChecker(memoizedOptimalPath(startVertex, nextRoomTarget));
+        if (!optimalPath(startVertex, nextRoomTarget, leg)) {
+            throw new IllegalStateException("No path from " + startVertex + " to " + nextRoomTarget);
+        }
+        int blocker = pathChecker(leg);
 
         /*
          * BASE CASE: Take the direct path if no blockers
          */
 
         if (blocker == -1) {
-            this.currentPath.addAll(memoizedOptimalPath(startVertex, nextRoomTarget));
-            
-            if(!nextTarget.isEmpty()) {
-                this.currentPath.remove(this.currentPath.size()-1); // ensure no repeats
+            // The last room starts the next leg, so only add it on the final one
+            int walk = nextTarget.isEmpty() ? leg.length() : leg.length() - 1; // ensure no repeats
+            int offset = currentPath.length();
+            for (int i = 0; i < walk; i++) {
+                currentPath.add(leg.room(i));
+                walkedRooms.set(leg.room(i));
+            }
+
+            // Pick up any keys we walked past so the next leg is planned with them
+            for (int i = 0; i < leg.length(); i++) {
+                int room = leg.room(i);
+                if (keyLocations.hasKey(room)) {
+                    currentPath.addKeyPickup(offset + i);
+                    grabKey(room);
+                }
             }
             
             this.currentRoom = nextRoomTarget; // since we took this path, we are now here.
+            pendingKeyRooms.clear();
             logger.info("Successfully moved from " + startVertex + " to " + nextRoomTarget);
             
-            logger.fine("Current path traveled so far: " + currentPath.toString());
+            logger.fine(() -> "Current path traveled so far: " + currentPath.toString());
         } else {
             /*
              * RECURSE: If there is a blocker, we must first path to the required key
@@ -442,20 +1160,39 @@ public class DungeonMap {
              */
 
             nextTarget.push(nextRoomTarget); // push this one back on to revaluate after our subTarget
+            blockersHit++;
             
-            logger.fine("Blocker at " + blocker + " so we must push this original target " + nextRoomTarget + " to be stored, and push our "
+            logger.fine(() -> "Blocker at " + blocker + " so we must push this original target " + nextRoomTarget + " to be stored, and push our "
                     + "target keys on to be processed first.\n\nQUEUE: " + nextTarget.toString());
             
             ArrayList<Integer> roomsWithKeysNeeded = findRoomsWithKey(blocker);
             
-            if (!roomsWithKeysNeeded.isEmpty()) {
-                nextTarget.push(roomsWithKeysNeeded.get(0)); // Only push if not empty
-                
-                logger.fine("Blocker's keys are in: " + roomsWithKeysNeeded.toString());
-                
+            logger.fine(() -> "Blocker's keys are in: " + roomsWithKeysNeeded.toString());
+
+            /*
+             * Nothing has moved since the rooms in pendingKeyRooms were pushed, so
+             * asking for one again would replan the same legs forever.
+             */
+            int keyRoom = -1;
+            int keyMoves = Integer.MAX_VALUE;
+            PathResult probe = new PathResult();
+            for (int room : roomsWithKeysNeeded) {
+                // Fetch the nearest copy
+                if (reachability.isReachable(room) && !pendingKeyRooms.get(room)
+                        && optimalPath(startVertex, room, probe) && probe.length() - 1 < keyMoves) {
+                    keyRoom = room;
+                    keyMoves = probe.length() - 1;
+                }
             }
-            
-            recursivelySolve(startVertex); // we gotta find our path to the room containing the key for this!
+            if (keyRoom == -1) {
+                nextTarget.clear();
+                throw new IllegalStateException("Stuck at the door into " + blocker + ": none of the keys in "
+                        + roomsWithKeysNeeded + " can be reached from " + startVertex);
+            }
+
+            // The solveDungeonPath loop plans the leg to the key next
+            pendingKeyRooms.set(keyRoom);
+            nextTarget.push(keyRoom);
 
             
             /*
@@ -483,36 +1220,58 @@ public class DungeonMap {
      * @return Returns -1 if there is no blocker, or the int room blocker.
      */
     public int pathChecker(ArrayList<Integer> optimalPathIgnoringKeys) {
+        PathResult path = new PathResult(optimalPathIgnoringKeys.size());
+        for (int room : optimalPathIgnoringKeys) {
+            path.add(room);
+        }
+        return pathChecker(path);
+    }
 
-        logger.info("Validating path " + optimalPathIgnoringKeys.toString() + " is able to be traversed...");
+    /**
+     * pathChecker on a primitive path. Rooms already walked by the current solve
+     * and rooms passed so far on this path are tracked in bitsets.
+     * 
+     * @return Returns -1 if there is no blocker, or the int room blocker.
+     */
+    public int pathChecker(PathResult optimalPathIgnoringKeys) {
 
-        ArrayList<Integer> hypotheticalPath = new ArrayList<Integer>();
-        hypotheticalPath.add(optimalPathIgnoringKeys.get(0));
+        logger.info(() -> "Validating path " + optimalPathIgnoringKeys + " is able to be traversed...");
 
+        checkedRooms.set(optimalPathIgnoringKeys.first());
+        try {
+            return findBlocker(optimalPathIgnoringKeys);
+        } finally {
+            for (int r = 0; r < optimalPathIgnoringKeys.length(); r++) {
+                checkedRooms.clear(optimalPathIgnoringKeys.room(r));
+            }
+        }
+    }
+
+    private int findBlocker(PathResult optimalPathIgnoringKeys) {
         /*
          * Running along path to see where a blocker is. We add the path thus far to see
          * if we may have grabbed keys needed along the way.
          */
-        for (int r = 0; r < optimalPathIgnoringKeys.size() - 1; r++) {
-            int currentRoom = optimalPathIgnoringKeys.get(r);
-            int nextRoom = optimalPathIgnoringKeys.get(r + 1);
+        for (int r = 0; r < optimalPathIgnoringKeys.length() - 1; r++) {
+            int currentRoom = optimalPathIgnoringKeys.room(r);
+            int nextRoom = optimalPathIgnoringKeys.room(r + 1);
 
-            if ((adjacencyMatrix[currentRoom][nextRoom] == 0)) {
-                logger.fine("We have a free path from " + currentRoom + " to nextRoom " + nextRoom);
-                hypotheticalPath.add(nextRoom);
+            if ((getCost(currentRoom, nextRoom) == 0)) {
+                logger.fine(() -> "We have a free path from " + currentRoom + " to nextRoom " + nextRoom);
+                checkedRooms.set(nextRoom);
             } else {
-                logger.fine("There is a key required to go from room " + currentRoom + " to room " + nextRoom
+                logger.fine(() -> "There is a key required to go from room " + currentRoom + " to room " + nextRoom
                         + "! Checking if we have the key...");
                 /*
                  * If the actual path we have traversed contained the key to next room OR If the
                  * hypothetical path we are exploring currently contained the key to the next
                  * room
                  */
-                if (currentPath.containsAll(findRoomsWithKey(nextRoom))
-                        || hypotheticalPath.containsAll(findRoomsWithKey(nextRoom))) {
+                int[] keyRooms = keyLocations.keyRoomsFor(nextRoom);
+                if (allSet(walkedRooms, keyRooms) || allSet(checkedRooms, keyRooms)) {
 
-                    logger.fine("Path is still viable as we have visited a room with the key for it at one point");
-                    hypotheticalPath.add(nextRoom);
+                    logger.fine(() -> "Path is still viable as we have visited a room with the key for it at one point");
+                    checkedRooms.set(nextRoom);
                 } else {
                     logger.info("Blocker found! From room " + currentRoom + " to " + nextRoom);
                     return nextRoom;
@@ -523,23 +1282,159 @@ public class DungeonMap {
         return -1;
     }
 
+    private static boolean allSet(BitSet rooms, int[] keyRooms) {
+        for (int room : keyRooms) {
+            if (!rooms.get(room)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void runFloydWarshall() {
+        FloydWarshallKernel.cells(size); // fail before allocating anything n^2
 
         int[][] dist = new int[size][size];
         int[][] next = new int[size][size];
 
+        floydWarshall(graph(), dist, next, false);
+
+        logger.info("Saving our Floyd-Warshall map...");
+        floydWarshallMap = dist;
+        floydWarshallNext = next;
+        pathTable = null;
+    }
+
+    /**
+     * Runs Floyd-Warshall with the tables in file instead of floydWarshallMap and
+     * floydWarshallNext, which are dropped, for maps whose n^2 tables don't fit
+     * in memory. Paths are then read from the file. Like a snapshot's tables they
+     * are read-only and get dropped at the first key pickup.
+     *
+     * @param file         Where to keep the tables, created or overwritten.
+     * @param memoryBudget Bytes of tiles to hold in memory while computing.
+     * @return The tables, which stay readable after this map drops them.
+     * @throws IOException If the file can't be written.
+     */
+    public OutOfCoreFloydWarshall runFloydWarshallOutOfCore(Path file, long memoryBudget) throws IOException {
+        DungeonEvents.Apsp event = new DungeonEvents.Apsp();
+        event.begin();
+        long started = System.nanoTime();
+
+        OutOfCoreFloydWarshall tables = OutOfCoreFloydWarshall.run(graph(), file, memoryBudget);
+
+        long relaxations = (long) size * size * size;
+        DungeonMetrics.global().recordApsp(System.nanoTime() - started, relaxations);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.rooms = size;
+            event.unlocked = false;
+            event.blocked = true;
+            event.parallelism = 1;
+            event.relaxations = relaxations;
+            event.commit();
+        }
+
+        pathTable = tables;
+        floydWarshallMap = null;
+        floydWarshallNext = null;
+        return tables;
+    }
+
+    /**
+     * Runs Floyd-Warshall on the dungeon as if every key had been picked up,
+     * counting each move as 1. No set of keys can do better than this, so it is
+     * the heuristic for solveDungeonAStar.
+     *
+     * Every key is applied straight from the key table rather than through a
+     * KeyRing, so this works however many keys the dungeon holds.
+     */
+    public void runFloydWarshallUnlocked() {
+        CsrGraph g = graph();
+
+        // What every key together takes off the edges into each room, counted the
+        // way KeyRing.residual counts it
+        long[] allKeys = new long[size];
+        for (int b = 0; b < size; b++) {
+            for (int a : keyLocations.keyRoomsFor(b)) {
+                allKeys[b] += keyLocations.reductionsOf(a)[0];
+            }
+        }
+
+        CsrGraph.Builder steps = new CsrGraph.Builder(size, g.edgeCount());
+        for (int i = 0; i < size; i++) {
+            for (int e = g.firstEdge(i); e < g.endEdge(i); e++) {
+                if (g.weight(e) <= allKeys[g.target(e)]) {
+                    steps.addEdge(i, g.target(e), 1);
+                }
+            }
+        }
+
+        FloydWarshallKernel.cells(size);
+        int[][] dist = new int[size][size];
+        floydWarshall(steps.build(), dist, new int[size][size], true);
+
+        logger.info("Saving our unlocked Floyd-Warshall map...");
+        floydWarshallUnlockedMap = dist;
+    }
+
+    private void floydWarshall(CsrGraph weights, int[][] dist, int[][] next, boolean unlocked) {
+        DungeonEvents.Apsp event = new DungeonEvents.Apsp();
+        event.begin();
+        long started = System.nanoTime();
+
+        floydWarshall(weights, dist, next);
+
+        long relaxations = (long) size * size * size;
+        DungeonMetrics.global().recordApsp(System.nanoTime() - started, relaxations);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.rooms = size;
+            event.unlocked = unlocked;
+            event.blocked = FloydWarshallKernel.shouldUseBlocked(size);
+            event.parallelism = event.blocked ? apspParallelism : 1;
+            event.relaxations = relaxations;
+            event.commit();
+        }
+    }
+
+    private void floydWarshall(CsrGraph weights, int[][] dist, int[][] next) {
+
+        if (FloydWarshallKernel.shouldUseBlocked(size)) {
+            int cells = FloydWarshallKernel.cells(size);
+            long[] flatDist = new long[cells];
+            int[] flatNext = new int[cells];
+
+            FloydWarshallKernel.initialize(weights, size, flatDist, flatNext);
+            logger.info("Starting blocked Floyd-Warshall algorithm for " + size + " rooms...");
+            if (apspParallelism > 1) {
+                ForkJoinPool pool = new ForkJoinPool(apspParallelism);
+                try {
+                    FloydWarshallKernel.runBlockedParallel(flatDist, flatNext, size, FloydWarshallKernel.DEFAULT_BLOCK,
+                            pool);
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                FloydWarshallKernel.runBlocked(flatDist, flatNext, size, FloydWarshallKernel.DEFAULT_BLOCK);
+            }
+            FloydWarshallKernel.copyOut(flatDist, flatNext, size, dist, next);
+            return;
+        }
+
         // Step 1: Initialize dist and next matrices
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < size; j++) {
-                if (i == j) {
-                    dist[i][j] = 0;
-                    next[i][j] = -1;
-                } else if (adjacencyMatrix[i][j] != Integer.MAX_VALUE) {
-                    dist[i][j] = adjacencyMatrix[i][j];
+                dist[i][j] = i == j ? 0 : Integer.MAX_VALUE;
+                next[i][j] = -1;
+            }
+            for (int e = weights.firstEdge(i); e < weights.endEdge(i); e++) {
+                int j = weights.target(e);
+                if (i != j) {
+                    dist[i][j] = weights.weight(e);
                     next[i][j] = j;
-                } else {
-                    dist[i][j] = Integer.MAX_VALUE;
-                    next[i][j] = -1;
                 }
             }
         }
@@ -547,6 +1442,7 @@ public class DungeonMap {
 
         // Step 2: Run Floyd-Warshall, update dist and next
         logger.info("Starting Floyd-Warshall algorithm...");
+        boolean tracing = logger.isLoggable(Level.FINEST);
         for (int k = 0; k < size; k++) {
             for (int i = 0; i < size; i++) {
                 for (int j = 0; j < size; j++) {
@@ -554,16 +1450,14 @@ public class DungeonMap {
                             && dist[i][k] + dist[k][j] < dist[i][j]) {
                         dist[i][j] = dist[i][k] + dist[k][j];
                         next[i][j] = next[i][k];
-                        logger.finest("Updating distance from " + i + " to " + j + " via " + k + " to new distance: "
-                                + dist[i][j]);
+                        if (tracing) {
+                            logger.finest("Updating distance from " + i + " to " + j + " via " + k
+                                    + " to new distance: " + dist[i][j]);
+                        }
                     }
                 }
             }
         }
-
-        logger.info("Saving our Floyd-Warshall map...");
-        floydWarshallMap = dist;
-        floydWarshallNext = next;
     }
 
     /**
@@ -572,11 +1466,7 @@ public class DungeonMap {
      * 
      */
     public ArrayList<Integer> findOptimalPathUsingFloydWarshall() {
-        ArrayList<Integer> path = new ArrayList<Integer>();
-
-        path = memoizedOptimalPath(startVertex, endVertex);
-
-        return path;
+        return memoizedOptimalPath(startVertex, endVertex);
     }
 
     /**
@@ -587,82 +1477,177 @@ public class DungeonMap {
      * @param targetVertex  Vertex we are attempting to go to.
      */
     public ArrayList<Integer> findOptimalPathUsingFloydWarshall(int startVertex, int endVertex) {
-        ArrayList<Integer> path = new ArrayList<Integer>();
-
-        path = memoizedOptimalPath(startVertex, endVertex);
-
-        return path;
+        return memoizedOptimalPath(startVertex, endVertex);
     }
 
     public ArrayList<Integer> memoizedOptimalPath() {
-        ArrayList<Integer> path = new ArrayList<Integer>();
+        return memoizedOptimalPath(startVertex, endVertex);
+    }
+
+    public ArrayList<Integer> memoizedOptimalPath(int startVertex, int endVertex) {
+        PathResult path = new PathResult();
 
         logger.info("Reconstructing path from startVertex to endVertex...");
-        int u = startVertex;
-        if (floydWarshallNext[u][endVertex] != -1) { // There is a path
-            while (u != endVertex) {
-                path.add(u);
-                u = floydWarshallNext[u][endVertex];
-            }
-            path.add(endVertex); // Add the end vertex to the path
+        if (optimalPath(startVertex, endVertex, path)) { // There is a path
             logger.info("Optimal path found: " + path);
         } else {
             logger.info("No path exists from " + startVertex + " to " + endVertex);
             return null;
         }
 
-        return path;
+        return path.toList();
     }
 
-    public ArrayList<Integer> memoizedOptimalPath(int startVertex, int endVertex) {
-        ArrayList<Integer> path = new ArrayList<Integer>();
+    /**
+     * Runs a single-source search from source over the current weights, without
+     * touching the Floyd-Warshall tables.
+     * 
+     * @return The search, holding distances and predecessors for source until the
+     *         next call.
+     */
+    public BucketQueueSearch shortestPathsFrom(int source) {
+        singleSource().run(source);
+        return singleSource;
+    }
 
-        logger.info("Reconstructing path from startVertex to endVertex...");
-        int u = startVertex;
-        if (floydWarshallNext[u][endVertex] != -1) { // There is a path
-            while (u != endVertex) {
-                path.add(u);
-                u = floydWarshallNext[u][endVertex];
-            }
-            path.add(endVertex); // Add the end vertex to the path
-            logger.info("Optimal path found: " + path);
+    private BucketQueueSearch singleSource() {
+        CsrGraph g = graph();
+        if (singleSource == null || singleSource.graph() != g) {
+            singleSource = new BucketQueueSearch(g);
+        }
+        return singleSource;
+    }
+
+    /**
+     * Key-ignoring shortest path from startVertex to endVertex, reconstructed into
+     * a reusable buffer so repeated calls allocate nothing. The cost is the total
+     * weight of the path, and every room on it still holding a key is marked as
+     * a pickup.
+     * 
+     * Uses the Floyd-Warshall tables when they have been computed or loaded,
+     * otherwise a BucketQueueSearch from startVertex.
+     * 
+     * @param path Cleared and refilled.
+     * @return False, leaving path empty, if there is no path.
+     */
+    public boolean optimalPath(int startVertex, int endVertex, PathResult path) {
+        boolean found;
+        if (hasShortestPaths()) {
+            found = shortestPaths().path(startVertex, endVertex, path);
         } else {
-            logger.info("No path exists from " + startVertex + " to " + endVertex);
-            return null;
+            // No tables yet, and one linear search beats paying for all pairs
+            singleSource().run(startVertex, endVertex);
+            found = singleSource.path(endVertex, path);
+        }
+        if (!found) {
+            return false;
         }
 
-        return path;
+        for (int i = 0; i < path.length(); i++) {
+            if (keyLocations.hasKey(path.room(i))) {
+                path.addKeyPickup(i);
+            }
+        }
+        return true;
     }
 
-    // Example method to update distances after collecting a key affecting node `a`
-    public void updateDistancesForAffectedNodes(Set<Integer> affectedNodes) {
-        // Only iterate over affected nodes as intermediate nodes
-        for (int k : affectedNodes) {
-            for (int i = 0; i < size; i++) {
-                for (int j = 0; j < size; j++) {
-                    // Check if the current path i->j can be improved by going through k
-                    if (floydWarshallMap[i][k] != Integer.MAX_VALUE && floydWarshallMap[k][j] != Integer.MAX_VALUE) {
-                        if (floydWarshallMap[i][j] > floydWarshallMap[i][k] + floydWarshallMap[k][j]) {
-                            floydWarshallMap[i][j] = floydWarshallMap[i][k] + floydWarshallMap[k][j];
-                            floydWarshallNext[i][j] = floydWarshallNext[i][k];
-                            // Optionally, update affectedNodes if this change affects other nodes
-                        }
-                    }
+    /**
+     * Repairs the Floyd-Warshall tables after the weights of edges going into the
+     * given rooms were lowered, e.g. by grabKey. Every in-edge of an affected room
+     * is replayed through decreaseEdge.
+     * 
+     * @param affectedNodes Rooms whose incoming edges got cheaper.
+     * @return Number of (i, j) cells whose distance improved.
+     */
+    public int updateDistancesForAffectedNodes(Set<Integer> affectedNodes) {
+        CsrGraph g = graph();
+        int changed = 0;
+
+        for (int v : affectedNodes) {
+            for (int in = g.firstInEdge(v); in < g.endInEdge(v); in++) {
+                changed += decreaseEdge(g.inSource(in), v, g.weight(g.inEdge(in)));
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Incremental Floyd-Warshall update for a single edge whose weight dropped to
+     * weight. Any path that improves must use the new edge, so it is some
+     * shortest i -> from, then the edge, then some shortest to -> j. Neither of
+     * those halves can use the edge itself, so the from column and the to row stay
+     * valid while we sweep, and one O(n^2) pass is exact.
+     * 
+     * Off-heap tables that are up to date get the same pass.
+     * 
+     * @param from   Room the edge leaves.
+     * @param to     Room the edge enters.
+     * @param weight The edge's new, lower weight.
+     * @return Number of (i, j) cells whose distance improved.
+     */
+    public int decreaseEdge(int from, int to, int weight) {
+        int changed = 0;
+        if (offHeapPaths != null && !offHeapPaths.isStale() && offHeapPaths.graph() == graph) {
+            changed += offHeapPaths.decreaseEdge(from, to, weight);
+        }
+
+        if (floydWarshallMap == null || floydWarshallMap[from][to] <= weight) {
+            return changed; // nothing computed yet, or the edge wasn't on any shortest path
+        }
+
+        /*
+         * Only rows that can reach from and columns reachable from to can change.
+         */
+        int[] sources = new int[size];
+        int sourceCount = 0;
+        int[] sinks = new int[size];
+        int sinkCount = 0;
+        for (int r = 0; r < size; r++) {
+            if (floydWarshallMap[r][from] != Integer.MAX_VALUE) {
+                sources[sourceCount++] = r;
+            }
+            if (floydWarshallMap[to][r] != Integer.MAX_VALUE) {
+                sinks[sinkCount++] = r;
+            }
+        }
+
+        int[] toRow = floydWarshallMap[to].clone();
+
+        for (int s = 0; s < sourceCount; s++) {
+            int i = sources[s];
+            int viaEdge = floydWarshallMap[i][from] + weight;
+            int hop = i == from ? to : floydWarshallNext[i][from];
+            int[] distRow = floydWarshallMap[i];
+            int[] nextRow = floydWarshallNext[i];
+
+            for (int t = 0; t < sinkCount; t++) {
+                int j = sinks[t];
+                int candidate = viaEdge + toRow[j];
+                if (candidate < distRow[j] && i != j) {
+                    distRow[j] = candidate;
+                    nextRow[j] = hop;
+                    changed++;
                 }
             }
         }
+
+        return changed;
     }
 
     public void printFloydWarshallMap() {
+        // Whichever tables are in use, lazy, off-heap or loaded ones included
+        ShortestPathTable paths = shortestPaths();
         StringBuilder matrixString = new StringBuilder("Floyd-Warshall Matrix:\n");
         // Matrix logging logic (similar to printAdjacencyMatrix)...
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < size; j++) {
                 // Adjust logging to accommodate potentially large numbers (including MAX_VALUE)
-                if (floydWarshallMap[i][j] == Integer.MAX_VALUE) {
+                int distance = paths.distance(i, j);
+                if (distance == Integer.MAX_VALUE) {
                     matrixString.append(String.format("%7s", "+∞"));
                 } else {
-                    matrixString.append(String.format("%7d", floydWarshallMap[i][j]));
+                    matrixString.append(String.format("%7d", distance));
                 }
             }
             matrixString.append("\n");
@@ -676,6 +1661,7 @@ public class DungeonMap {
      * @param path The path to search through to see if any doors are locked.
      * @return The rooms which are locked, returned in order.
      */
+    @Deprecated
     public ArrayList<Integer> findLockedRoomsInPath(ArrayList<Integer> path) {
 
         ArrayList<Integer> lockedRooms = new ArrayList<Integer>();
@@ -683,14 +1669,15 @@ public class DungeonMap {
         logger.info("Checking for locked rooms in our current path of " + path.toString());
 
         for (int r = 1; r < path.size(); r++) {
+            int room = path.get(r);
 
-            logger.fine("Checking to see if " + path.get(r) + " is locked");
+            logger.fine(() -> "Checking to see if " + room + " is locked");
 
-            if (isRoomLocked(path.get(r - 1), path.get(r))) {
-                logger.fine(path.get(r) + " is locked!");
-                lockedRooms.add(path.get(r));
+            if (isRoomLocked(path.get(r - 1), room)) {
+                logger.fine(() -> room + " is locked!");
+                lockedRooms.add(room);
             } else {
-                logger.fine(path.get(r) + " is not locked, continuing...");
+                logger.fine(() -> room + " is not locked, continuing...");
             }
 
         }
@@ -698,7 +1685,7 @@ public class DungeonMap {
         if (lockedRooms.isEmpty()) {
             logger.warning("No locked rooms!");
         } else {
-            logger.fine("Found locked rooms: " + lockedRooms.toString() + " in path " + path.toString());
+            logger.fine(() -> "Found locked rooms: " + lockedRooms.toString() + " in path " + path.toString());
         }
 
         return lockedRooms;
@@ -709,6 +1696,7 @@ public class DungeonMap {
      * 
      * @return The array list with the optimal path in order..
      */
+    @Deprecated
     public ArrayList<Integer> findOptimalPathUsingBellmanFord() {
         int[] distances = new int[size];
         int[] predecessors = new int[size];
@@ -726,9 +1714,10 @@ public class DungeonMap {
         logger.info("Starting to relax edges...");
         for (int i = 1; i < size; i++) {
             for (int u = 0; u < size; u++) {
-                for (int v = 0; v < size; v++) {
-                    if (adjacencyMatrix[u][v] != Integer.MAX_VALUE && distances[u] != Integer.MAX_VALUE) {
-                        int newDistance = distances[u] + adjacencyMatrix[u][v];
+                for (int e = graph().firstEdge(u); e < graph().endEdge(u); e++) {
+                    int v = graph().target(e);
+                    if (distances[u] != Integer.MAX_VALUE) {
+                        int newDistance = distances[u] + graph().weight(e);
                         if (newDistance < distances[v]) {
                             distances[v] = newDistance;
                             predecessors[v] = u;
@@ -742,9 +1731,9 @@ public class DungeonMap {
         // Check for negative-weight cycles
         logger.info("Checking for negative-weight cycles...");
         for (int u = 0; u < size; u++) {
-            for (int v = 0; v < size; v++) {
-                if (adjacencyMatrix[u][v] != Integer.MAX_VALUE && distances[u] != Integer.MAX_VALUE
-                        && distances[u] + adjacencyMatrix[u][v] < distances[v]) {
+            for (int e = graph().firstEdge(u); e < graph().endEdge(u); e++) {
+                int v = graph().target(e);
+                if (distances[u] != Integer.MAX_VALUE && distances[u] + graph().weight(e) < distances[v]) {
                     logger.severe("Graph contains a negative-weight cycle. Cannot find an optimal path.");
                     return null; // Negative cycle detected, no solution
                 }
@@ -777,13 +1766,12 @@ public class DungeonMap {
      * @param room Room to find the key for.
      * @return Rooms that contain the key, or -1 if there is no room.
      */
+    @Deprecated
     public int findRoomWithKey(int room) {
 
-        for (int i = 0; i < size; i++) {
-            if (keyLocations[i][room] > 0) {
-                logger.info("FOUND: The key for room " + room + " is in room " + i);
-                return i;
-            }
+        for (int i : keyLocations.keyRoomsFor(room)) {
+            logger.info("FOUND: The key for room " + room + " is in room " + i);
+            return i;
         }
 
         logger.warning("This room does not have a key!");
@@ -0,0 +1,222 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and latency histograms for loads, Floyd-Warshall runs,
+ * solves and key pickups. The shared instance is registered with the platform
+ * MBean server the first time it is used, so jconsole or any JMX client can
+ * watch a running solver or DungeonServer.
+ * 
+ * Recording is a handful of atomic adds, cheap enough to leave on.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class DungeonMetrics implements DungeonMetricsMBean {
+
+    private static final Logger logger = Logger.getLogger(DungeonMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "src:type=DungeonMetrics";
+
+    private static final DungeonMetrics GLOBAL = register(new DungeonMetrics());
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder apspRuns = new LongAdder();
+    private final LongAdder solves = new LongAdder();
+    private final LongAdder unsolved = new LongAdder();
+    private final LongAdder keyPickups = new LongAdder();
+    private final LongAdder relaxations = new LongAdder();
+    private final LongAdder statesExpanded = new LongAdder();
+    private final LongAdder blockersHit = new LongAdder();
+
+    private final Histogram loadMicros = new Histogram();
+    private final Histogram apspMicros = new Histogram();
+    private final Histogram solveMicros = new Histogram();
+    private final Histogram pathLengths = new Histogram();
+
+    private DungeonMetrics() {
+    }
+
+    public static DungeonMetrics global() {
+        return GLOBAL;
+    }
+
+    private static DungeonMetrics register(DungeonMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            logger.warning("Could not register " + OBJECT_NAME + ", metrics are still recorded: " + e);
+        }
+        return metrics;
+    }
+
+    void recordLoad(long nanos) {
+        loads.increment();
+        loadMicros.record(nanos / 1000);
+    }
+
+    void recordApsp(long nanos, long relaxationsTried) {
+        apspRuns.increment();
+        relaxations.add(relaxationsTried);
+        apspMicros.record(nanos / 1000);
+    }
+
+    /**
+     * @param path Rooms walked, or null if there was no way through.
+     */
+    void recordSolve(long nanos, int[] path, long states, long relaxationsTried, int blockers) {
+        solves.increment();
+        if (path == null) {
+            unsolved.increment();
+        } else {
+            pathLengths.record(path.length);
+        }
+        statesExpanded.add(states);
+        relaxations.add(relaxationsTried);
+        blockersHit.add(blockers);
+        solveMicros.record(nanos / 1000);
+    }
+
+    void recordKeyPickup() {
+        keyPickups.increment();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getApspRuns() {
+        return apspRuns.sum();
+    }
+
+    @Override
+    public long getSolves() {
+        return solves.sum();
+    }
+
+    @Override
+    public long getUnsolved() {
+        return unsolved.sum();
+    }
+
+    @Override
+    public long getKeyPickups() {
+        return keyPickups.sum();
+    }
+
+    @Override
+    public long getRelaxations() {
+        return relaxations.sum();
+    }
+
+    @Override
+    public long getStatesExpanded() {
+        return statesExpanded.sum();
+    }
+
+    @Override
+    public long getBlockersHit() {
+        return blockersHit.sum();
+    }
+
+    @Override
+    public long[] getLoadMicros() {
+        return loadMicros.counts();
+    }
+
+    @Override
+    public long[] getApspMicros() {
+        return apspMicros.counts();
+    }
+
+    @Override
+    public long[] getSolveMicros() {
+        return solveMicros.counts();
+    }
+
+    @Override
+    public long[] getPathLengths() {
+        return pathLengths.counts();
+    }
+
+    @Override
+    public long getSolveMicrosP50() {
+        return solveMicros.percentile(0.50);
+    }
+
+    @Override
+    public long getSolveMicrosP99() {
+        return solveMicros.percentile(0.99);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : new LongAdder[] { loads, apspRuns, solves, unsolved, keyPickups, relaxations,
+                statesExpanded, blockersHit }) {
+            counter.reset();
+        }
+        for (Histogram histogram : new Histogram[] { loadMicros, apspMicros, solveMicros, pathLengths }) {
+            histogram.reset();
+        }
+    }
+
+    /*
+     * Power-of-two buckets: exact enough to tell 10us from 10ms, and recording is
+     * one numberOfLeadingZeros and one atomic add.
+     */
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long value) {
+            buckets.incrementAndGet(value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        long[] counts() {
+            int last = buckets.length() - 1;
+            while (last > 0 && buckets.get(last) == 0) {
+                last--;
+            }
+            long[] counts = new long[last + 1];
+            for (int b = 0; b <= last; b++) {
+                counts[b] = buckets.get(b);
+            }
+            return counts;
+        }
+
+        /**
+         * @return Upper bound of the bucket the percentile falls in, 0 if empty.
+         */
+        long percentile(double p) {
+            long[] counts = counts();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && seen > 0) {
+                    return b == 0 ? 0 : (1L << b) - 1;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int b = 0; b < buckets.length(); b++) {
+                buckets.set(b, 0);
+            }
+        }
+    }
+}
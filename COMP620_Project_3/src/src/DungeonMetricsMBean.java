@@ -0,0 +1,46 @@
+package src;
+
+/**
+ * JMX view of DungeonMetrics, registered as src:type=DungeonMetrics.
+ * 
+ * Histograms are arrays of counts where bucket b holds values in [2^(b-1),
+ * 2^b), with bucket 0 holding 0.
+ * 
+ * @author Evann Hall
+ *
+ */
+public interface DungeonMetricsMBean {
+
+    long getLoads();
+
+    long getApspRuns();
+
+    long getSolves();
+
+    long getUnsolved();
+
+    long getKeyPickups();
+
+    /** Relaxations tried, by Floyd-Warshall and by the key-state search. */
+    long getRelaxations();
+
+    long getStatesExpanded();
+
+    long getBlockersHit();
+
+    long[] getLoadMicros();
+
+    long[] getApspMicros();
+
+    long[] getSolveMicros();
+
+    long[] getPathLengths();
+
+    /** Upper bound of the bucket holding the median solve time. */
+    long getSolveMicrosP50();
+
+    /** Upper bound of the bucket holding the 99th percentile solve time. */
+    long getSolveMicrosP99();
+
+    void reset();
+}
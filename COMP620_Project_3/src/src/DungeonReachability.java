@@ -0,0 +1,483 @@
+package src;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Pre-pass that decides, before any search, whether the exit can be reached at
+ * all and which rooms a walk from start to exit could ever use.
+ *
+ * Keys only ever lower weights, so with every key collected the open edges are
+ * a superset of what any walk can use. One iterative Tarjan pass from the start
+ * over that graph gives its strongly connected components in reverse
+ * topological order; a room is relevant when its component is reachable from
+ * the start and can reach the exit's. Every room of a start-to-exit walk is
+ * relevant, so the rest can be dropped, keys included.
+ *
+ * Over the relevant rooms the verdict is:
+ *
+ * <ul>
+ * <li>UNSOLVABLE: even picking up every key the moment its room is reached,
+ * the exit stays locked. Linear in rooms plus edges, plus one in-edge scan of
+ * each key's target rooms.</li>
+ * <li>SOLVABLE: the exit is reached by collecting only keys in the start's
+ * component, returning to the start each time. Each round is one Tarjan pass
+ * under the keys collected so far, and rounds stop when no new key is
+ * added.</li>
+ * <li>UNKNOWN: some key is only reachable through a one-way move, so it takes
+ * a real search to tell.</li>
+ * </ul>
+ *
+ * The key layout is copied at construction, so an instance is immutable and
+ * analyze may be called from any number of threads.
+ *
+ * @author Evann Hall
+ *
+ */
+public class DungeonReachability {
+
+    public enum Verdict {
+        SOLVABLE, UNSOLVABLE, UNKNOWN
+    }
+
+    private final CsrGraph graph;
+    private final int size;
+
+    /*
+     * Keys in room order, the same numbering KeyRing uses. Key i sits in
+     * keyRoom[i] and lowers edges into keyTarget[t] by keyAmount[t] for t in
+     * keyFirst[i] .. keyFirst[i + 1] - 1. keyOfRoom[r] is -1 for rooms without.
+     */
+    private final int[] keyRoom;
+    private final int[] keyFirst;
+    private final int[] keyTarget;
+    private final int[] keyAmount;
+    private final int[] keyOfRoom;
+
+    /*
+     * What every key together takes off the edges into each room.
+     */
+    private final long[] allKeys;
+
+    private DungeonReachability(CsrGraph graph, int[] keyRoom, int[] keyFirst, int[] keyTarget, int[] keyAmount) {
+        this.graph = graph;
+        this.size = graph.size();
+        this.keyRoom = keyRoom;
+        this.keyFirst = keyFirst;
+        this.keyTarget = keyTarget;
+        this.keyAmount = keyAmount;
+
+        this.keyOfRoom = new int[size];
+        Arrays.fill(keyOfRoom, -1);
+        for (int k = 0; k < keyRoom.length; k++) {
+            keyOfRoom[keyRoom[k]] = k;
+        }
+
+        this.allKeys = new long[size];
+        for (int k = 0; k < keyRoom.length; k++) {
+            apply(k, allKeys);
+        }
+    }
+
+    /**
+     * Analyzer for the keys currently left in table.
+     */
+    public static DungeonReachability of(CsrGraph graph, KeyTable table) {
+        int count = 0;
+        int targets = 0;
+        for (int a = 0; a < table.size(); a++) {
+            if (table.hasKey(a)) {
+                count++;
+                targets += table.targetsOf(a).length;
+            }
+        }
+
+        int[] keyRoom = new int[count];
+        int[] keyFirst = new int[count + 1];
+        int[] keyTarget = new int[targets];
+        int[] keyAmount = new int[targets];
+        int k = 0;
+        int t = 0;
+        for (int a = 0; a < table.size(); a++) {
+            if (!table.hasKey(a)) {
+                continue;
+            }
+            int[] to = table.targetsOf(a);
+            int[] by = table.reductionsOf(a);
+            keyRoom[k] = a;
+            keyFirst[k] = t;
+            for (int i = 0; i < to.length; i++) {
+                keyTarget[t] = to[i];
+                keyAmount[t] = by[i];
+                t++;
+            }
+            k++;
+        }
+        keyFirst[count] = t;
+
+        return new DungeonReachability(graph, keyRoom, keyFirst, keyTarget, keyAmount);
+    }
+
+    /**
+     * Analyzer for a key ring; held key masks passed to analyze use its numbering.
+     */
+    public static DungeonReachability of(CsrGraph graph, KeyRing ring) {
+        int count = ring.keyCount();
+        int[] keyFirst = new int[count + 1];
+        for (int b = 0; b < ring.doorMask.length; b++) {
+            for (int mask = ring.doorMask[b]; mask != 0; mask &= mask - 1) {
+                keyFirst[Integer.numberOfTrailingZeros(mask) + 1]++;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            keyFirst[k + 1] += keyFirst[k];
+        }
+
+        int[] keyTarget = new int[keyFirst[count]];
+        int[] keyAmount = new int[keyTarget.length];
+        int[] fill = Arrays.copyOf(keyFirst, count);
+        for (int b = 0; b < ring.doorMask.length; b++) {
+            for (int mask = ring.doorMask[b]; mask != 0; mask &= mask - 1) {
+                int k = Integer.numberOfTrailingZeros(mask);
+                keyTarget[fill[k]] = b;
+                keyAmount[fill[k]] = ring.reductions[k];
+                fill[k]++;
+            }
+        }
+
+        return new DungeonReachability(graph, ring.keyRooms.clone(), keyFirst, keyTarget, keyAmount);
+    }
+
+    public int keyCount() {
+        return keyRoom.length;
+    }
+
+    /**
+     * Analysis with no keys held.
+     */
+    public Result analyze(int start, int end) {
+        return analyze(start, end, 0);
+    }
+
+    /**
+     * @param heldKeys Keys already held, bit i for key i. Only the first 31 keys
+     *                 can be held this way.
+     */
+    public Result analyze(int start, int end, int heldKeys) {
+        boolean[] held = new boolean[keyRoom.length];
+        for (int k = 0; k < Math.min(keyRoom.length, KeyRing.MAX_KEYS); k++) {
+            held[k] = (heldKeys & (1 << k)) != 0;
+        }
+        return analyze(start, end, held);
+    }
+
+    /**
+     * @param heldRooms Rooms whose keys are already held, any number of them.
+     */
+    public Result analyze(int start, int end, BitSet heldRooms) {
+        boolean[] held = new boolean[keyRoom.length];
+        for (int room = heldRooms.nextSetBit(0); room >= 0 && room < size; room = heldRooms.nextSetBit(room + 1)) {
+            if (keyOfRoom[room] != -1) {
+                held[keyOfRoom[room]] = true;
+            }
+        }
+        return analyze(start, end, held);
+    }
+
+    private Result analyze(int start, int end, boolean[] heldKeys) {
+        Scratch s = new Scratch(size);
+
+        /*
+         * Relevance: components of the graph with every key applied, reachable from
+         * start. Successors always get lower component numbers, so one ascending
+         * sweep finds every component that can reach the exit's.
+         */
+        int components = tarjan(s, start, allKeys, null);
+        BitSet relevant = new BitSet(size);
+        if (s.comp[end] != -1) {
+            boolean[] reachesEnd = new boolean[components];
+            int from = 0;
+            for (int c = 0; c < components; c++) {
+                int to = s.compEnd[c];
+                for (int i = from; i < to && !reachesEnd[c]; i++) {
+                    int u = s.order[i];
+                    if (u == end) {
+                        reachesEnd[c] = true;
+                        break;
+                    }
+                    for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                        int v = graph.target(e);
+                        if (s.comp[v] != -1 && s.comp[v] < c && reachesEnd[s.comp[v]]
+                                && isOpen(e, v, allKeys)) {
+                            reachesEnd[c] = true;
+                            break;
+                        }
+                    }
+                }
+                if (reachesEnd[c]) {
+                    for (int i = from; i < to; i++) {
+                        relevant.set(s.order[i]);
+                    }
+                }
+                from = to;
+            }
+        }
+
+        if (!relevant.get(start)) {
+            return new Result(Verdict.UNSOLVABLE, relevant, new BitSet(size), components, 0);
+        }
+
+        long[] held = new long[size];
+        for (int k = 0; k < keyRoom.length; k++) {
+            if (heldKeys[k]) {
+                apply(k, held);
+            }
+        }
+
+        BitSet reachable = collectEverything(start, held.clone(), heldKeys, relevant);
+        if (!reachable.get(end)) {
+            return new Result(Verdict.UNSOLVABLE, relevant, reachable, components, 0);
+        }
+
+        /*
+         * Only keys in the start's component count here: every room in it can be
+         * visited and left again, so a walk can pick them all up and come back.
+         */
+        boolean[] collected = heldKeys.clone();
+        int rounds = 0;
+        while (true) {
+            rounds++;
+            int startComponents = tarjan(s, start, held, relevant);
+            if (s.comp[end] != -1) {
+                return new Result(Verdict.SOLVABLE, relevant, reachable, components, rounds);
+            }
+
+            // The start's component finishes last
+            boolean added = false;
+            int first = startComponents == 1 ? 0 : s.compEnd[startComponents - 2];
+            for (int i = first; i < s.compEnd[startComponents - 1]; i++) {
+                int k = keyOfRoom[s.order[i]];
+                if (k != -1 && !collected[k]) {
+                    collected[k] = true;
+                    apply(k, held);
+                    added = true;
+                }
+            }
+            if (!added) {
+                return new Result(Verdict.UNKNOWN, relevant, reachable, components, rounds);
+            }
+        }
+    }
+
+    /*
+     * Every relevant room reachable from start when each key is picked up as soon
+     * as its room is reached. When a key lowers a room's doors, the in-edges of
+     * that room are rechecked against the rooms reached so far.
+     */
+    private BitSet collectEverything(int start, long[] reduced, boolean[] heldKeys, BitSet relevant) {
+        BitSet reached = new BitSet(size);
+        boolean[] collected = heldKeys.clone();
+
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        reached.set(start);
+
+        while (head < tail) {
+            int u = queue[head++];
+
+            int k = keyOfRoom[u];
+            if (k != -1 && !collected[k]) {
+                collected[k] = true;
+                for (int t = keyFirst[k]; t < keyFirst[k + 1]; t++) {
+                    int v = keyTarget[t];
+                    reduced[v] += keyAmount[t];
+                    if (reached.get(v) || !relevant.get(v)) {
+                        continue;
+                    }
+                    for (int in = graph.firstInEdge(v); in < graph.endInEdge(v); in++) {
+                        if (reached.get(graph.inSource(in)) && isOpen(graph.inEdge(in), v, reduced)) {
+                            reached.set(v);
+                            queue[tail++] = v;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                if (!reached.get(v) && relevant.get(v) && isOpen(e, v, reduced)) {
+                    reached.set(v);
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /*
+     * Iterative Tarjan from root over the edges open under reduced, skipping rooms
+     * outside allowed when it is given. Rooms are written to s.order one component
+     * at a time, component c ending at s.compEnd[c].
+     *
+     * @return Number of components found.
+     */
+    private int tarjan(Scratch s, int root, long[] reduced, BitSet allowed) {
+        Arrays.fill(s.index, -1);
+        Arrays.fill(s.comp, -1);
+        int counter = 0;
+        int components = 0;
+        int ordered = 0;
+        int sp = 0;
+        int cp = 0;
+
+        s.index[root] = s.low[root] = counter++;
+        s.stack[sp++] = root;
+        s.callRoom[cp] = root;
+        s.callEdge[cp++] = graph.firstEdge(root);
+
+        while (cp > 0) {
+            int u = s.callRoom[cp - 1];
+            int e = s.callEdge[cp - 1];
+
+            if (e < graph.endEdge(u)) {
+                s.callEdge[cp - 1]++;
+                int v = graph.target(e);
+                if ((allowed != null && !allowed.get(v)) || !isOpen(e, v, reduced)) {
+                    continue;
+                }
+                if (s.index[v] == -1) {
+                    s.index[v] = s.low[v] = counter++;
+                    s.stack[sp++] = v;
+                    s.callRoom[cp] = v;
+                    s.callEdge[cp++] = graph.firstEdge(v);
+                } else if (s.comp[v] == -1) {
+                    // Visited with no component yet means it is still on the stack
+                    s.low[u] = Math.min(s.low[u], s.index[v]);
+                }
+                continue;
+            }
+
+            cp--;
+            if (cp > 0) {
+                int parent = s.callRoom[cp - 1];
+                s.low[parent] = Math.min(s.low[parent], s.low[u]);
+            }
+            if (s.low[u] == s.index[u]) {
+                int x;
+                do {
+                    x = s.stack[--sp];
+                    s.comp[x] = components;
+                    s.order[ordered++] = x;
+                } while (x != u);
+                s.compEnd[components++] = ordered;
+            }
+        }
+        return components;
+    }
+
+    private boolean isOpen(int edge, int to, long[] reduced) {
+        return graph.weight(edge) <= reduced[to];
+    }
+
+    private void apply(int key, long[] reduced) {
+        for (int t = keyFirst[key]; t < keyFirst[key + 1]; t++) {
+            reduced[keyTarget[t]] += keyAmount[t];
+        }
+    }
+
+    private static final class Scratch {
+        final int[] index;
+        final int[] low;
+        final int[] comp;
+        final int[] stack;
+        final int[] callRoom;
+        final int[] callEdge;
+        final int[] order;
+        final int[] compEnd;
+
+        Scratch(int size) {
+            index = new int[size];
+            low = new int[size];
+            comp = new int[size];
+            stack = new int[size];
+            callRoom = new int[size];
+            callEdge = new int[size];
+            order = new int[size];
+            compEnd = new int[size];
+        }
+    }
+
+    /**
+     * What analyze found for one (start, end) pair.
+     */
+    public static final class Result {
+        private final Verdict verdict;
+        private final BitSet relevant;
+        private final BitSet reachable;
+        private final int components;
+        private final int rounds;
+
+        Result(Verdict verdict, BitSet relevant, BitSet reachable, int components, int rounds) {
+            this.verdict = verdict;
+            this.relevant = relevant;
+            this.reachable = reachable;
+            this.components = components;
+            this.rounds = rounds;
+        }
+
+        public Verdict verdict() {
+            return verdict;
+        }
+
+        /**
+         * @return Whether room lies on some start-to-exit route once every key is
+         *         applied.
+         */
+        public boolean isRelevant(int room) {
+            return relevant.get(room);
+        }
+
+        public int relevantRooms() {
+            return relevant.cardinality();
+        }
+
+        /**
+         * @return Whether room can be reached at all, picking up every key on the
+         *         way. Keys anywhere else can never be collected.
+         */
+        public boolean isReachable(int room) {
+            return reachable.get(room);
+        }
+
+        /**
+         * @return A copy of the rooms isReachable holds for.
+         */
+        public BitSet reachableRooms() {
+            return (BitSet) reachable.clone();
+        }
+
+        /**
+         * @return Strongly connected components reachable from the start with every
+         *         key applied.
+         */
+        public int components() {
+            return components;
+        }
+
+        /**
+         * @return Key collecting rounds the solvable check took, 0 if it didn't run.
+         */
+        public int rounds() {
+            return rounds;
+        }
+
+        @Override
+        public String toString() {
+            return verdict + " (" + relevant.cardinality() + " relevant rooms, " + reachable.cardinality()
+                    + " reachable, " + components + " components, " + rounds + " rounds)";
+        }
+    }
+}
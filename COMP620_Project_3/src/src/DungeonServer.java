@@ -0,0 +1,393 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Long-running solve server on a loopback socket. Each line a client sends is a
+ * JSON object naming a registered map and optionally the rooms to solve between:
+ * 
+ * <pre>
+ * {"map": "test1", "start": 0, "end": 7}
+ * </pre>
+ * 
+ * and each gets one JSON line back with the status, cost and path. Compiled maps
+ * are kept in a CompiledMapCache, so only the first request for a map pays for
+ * loading and Floyd-Warshall.
+ * 
+ * Connections run on virtual threads when the JVM has them, otherwise on a
+ * pool of at most MAX_PLATFORM_THREADS platform threads; connections past that
+ * wait for a thread. Closing the server closes every open connection too.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class DungeonServer implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(DungeonServer.class.getName());
+
+    /**
+     * Most connections served at once without virtual threads.
+     */
+    public static final int MAX_PLATFORM_THREADS = 64;
+
+    private final ServerSocket socket;
+    private final Map<String, Path[]> registry;
+    private final CompiledMapCache cache;
+    private final ExecutorService connections;
+
+    /*
+     * Accepted sockets not yet closed. A handler blocked in readLine only
+     * returns once its socket is closed, interrupting it does nothing.
+     */
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param port     Loopback port to listen on, 0 for any free port.
+     * @param registry Map id -> {graphFile, keyFile}.
+     * @param capacity Most compiled maps to keep in memory.
+     */
+    public DungeonServer(int port, Map<String, Path[]> registry, int capacity) throws IOException {
+        this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.registry = new HashMap<String, Path[]>(registry);
+        this.cache = new CompiledMapCache(capacity);
+        this.connections = newConnectionExecutor();
+
+        // Hash every map up front so requests only stat the files
+        for (Map.Entry<String, Path[]> map : this.registry.entrySet()) {
+            try {
+                cache.register(map.getValue()[0], map.getValue()[1]);
+            } catch (IOException e) {
+                logger.warning("Can't read map " + map.getKey() + " yet: " + e.getMessage());
+            }
+        }
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until close is called.
+     */
+    public void serve() throws IOException {
+        logger.info("Dungeon server listening on " + socket.getLocalSocketAddress() + " with maps "
+                + registry.keySet());
+
+        while (!socket.isClosed()) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (SocketException e) {
+                if (socket.isClosed()) {
+                    break; // close() was called
+                }
+                throw e;
+            }
+            clients.add(client);
+            if (socket.isClosed()) {
+                closeQuietly(client); // close() ran after accept, before the add
+                break;
+            }
+            try {
+                connections.execute(() -> handle(client));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(client);
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket c = client;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(
+                        new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                out.write(answer(line));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                logger.warning("Connection dropped: " + e.getMessage());
+            }
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.fine("Closing a connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param line One JSON request.
+     * @return The JSON response, without the trailing newline.
+     */
+    String answer(String line) {
+        Map<String, String> request;
+        try {
+            request = parseObject(line);
+        } catch (IllegalArgumentException e) {
+            return "{\"status\":\"FAILED\",\"error\":" + quote(e.getMessage()) + "}";
+        }
+
+        String id = request.get("map");
+        Path[] files = id == null ? null : registry.get(id);
+        if (files == null) {
+            return "{\"map\":" + quote(id) + ",\"status\":\"FAILED\",\"error\":\"unknown map\"}";
+        }
+
+        try {
+            FrozenDungeon dungeon = cache.get(files[0], files[1]);
+            int start = request.containsKey("start") ? Integer.parseInt(request.get("start"))
+                    : dungeon.getStartVertex();
+            int end = request.containsKey("end") ? Integer.parseInt(request.get("end")) : dungeon.getEndVertex();
+
+            QueryResult result = dungeon.solveAll(new int[][] { { start, end } }, Runnable::run)[0];
+            return toJson(id, result);
+        } catch (IOException | RuntimeException e) {
+            return "{\"map\":" + quote(id) + ",\"status\":\"FAILED\",\"error\":" + quote(String.valueOf(e.getMessage()))
+                    + "}";
+        }
+    }
+
+    private static String toJson(String id, QueryResult result) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"map\":").append(quote(id));
+        json.append(",\"start\":").append(result.getStart());
+        json.append(",\"end\":").append(result.getEnd());
+        json.append(",\"status\":\"").append(result.getStatus()).append('"');
+
+        if (result.getStatus() == QueryResult.Status.SOLVED) {
+            json.append(",\"cost\":").append(result.getCost()).append(",\"path\":[");
+            int[] path = result.getPath();
+            for (int i = 0; i < path.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(path[i]);
+            }
+            json.append(']');
+        } else if (result.getError() != null) {
+            json.append(",\"error\":").append(quote(result.getError()));
+        }
+
+        return json.append('}').toString();
+    }
+
+    /*
+     * Just enough JSON for our requests: one flat object of string or integer
+     * values. Values come back as their text.
+     */
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> fields = new HashMap<String, String>();
+        int[] at = { skipSpace(text, 0) };
+
+        expect(text, at, '{');
+        if (peek(text, at) == '}') {
+            at[0]++;
+            return fields;
+        }
+
+        while (true) {
+            String key = readString(text, at);
+            expect(text, at, ':');
+
+            String value;
+            if (peek(text, at) == '"') {
+                value = readString(text, at);
+            } else {
+                int from = at[0];
+                while (at[0] < text.length() && (text.charAt(at[0]) == '-' || Character.isDigit(text.charAt(at[0])))) {
+                    at[0]++;
+                }
+                if (from == at[0]) {
+                    throw new IllegalArgumentException("expected a string or integer for \"" + key + "\"");
+                }
+                value = text.substring(from, at[0]);
+                at[0] = skipSpace(text, at[0]);
+            }
+            fields.put(key, value);
+
+            char c = peek(text, at);
+            at[0]++;
+            if (c == '}') {
+                return fields;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("expected ',' or '}' at offset " + (at[0] - 1));
+            }
+        }
+    }
+
+    private static String readString(String text, int[] at) {
+        expect(text, at, '"');
+        StringBuilder value = new StringBuilder();
+        while (at[0] < text.length() && text.charAt(at[0]) != '"') {
+            char c = text.charAt(at[0]++);
+            if (c == '\\' && at[0] < text.length()) {
+                c = unescape(text, at);
+            }
+            value.append(c);
+        }
+        expect(text, at, '"');
+        return value.toString();
+    }
+
+    /*
+     * The character a backslash escape stands for, at[0] just past the
+     * backslash.
+     */
+    private static char unescape(String text, int[] at) {
+        char c = text.charAt(at[0]++);
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int escape = at[0] - 2;
+            int unicode = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = at[0] < text.length() ? Character.digit(text.charAt(at[0]++), 16) : -1;
+                if (digit == -1) {
+                    throw new IllegalArgumentException("bad unicode escape at offset " + escape);
+                }
+                unicode = unicode << 4 | digit;
+            }
+            return (char) unicode;
+        default:
+            throw new IllegalArgumentException("bad escape '\\" + c + "' at offset " + (at[0] - 2));
+        }
+    }
+
+    private static void expect(String text, int[] at, char c) {
+        if (peek(text, at) != c) {
+            throw new IllegalArgumentException("expected '" + c + "' at offset " + at[0]);
+        }
+        at[0] = skipSpace(text, at[0] + 1);
+    }
+
+    private static char peek(String text, int[] at) {
+        at[0] = skipSpace(text, at[0]);
+        return at[0] < text.length() ? text.charAt(at[0]) : '\0';
+    }
+
+    private static int skipSpace(String text, int at) {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+            at++;
+        }
+        return at;
+    }
+
+    static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                quoted.append("\\\"");
+                break;
+            case '\\':
+                quoted.append("\\\\");
+                break;
+            case '\n':
+                quoted.append("\\n");
+                break;
+            case '\r':
+                quoted.append("\\r");
+                break;
+            case '\t':
+                quoted.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    // Every other control character needs a unicode escape
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor only exists from Java 21, and the
+     * project still builds on 17, so look it up at runtime.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            logger.info("Handling connections on virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads not available, handling connections on up to " + MAX_PLATFORM_THREADS
+                    + " platform threads");
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread t = new Thread(r, "dungeon-connection");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true); // idle servers hold no threads
+            return pool;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Socket client : clients) {
+            closeQuietly(client);
+        }
+        connections.shutdownNow();
+    }
+}
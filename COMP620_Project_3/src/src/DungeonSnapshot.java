@@ -0,0 +1,359 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled binary form of a dungeon: the graph, the keys and the
+ * Floyd-Warshall tables, so a process can start serving paths without parsing
+ * text or rerunning the O(n^3) precompute.
+ * 
+ * Layout, all ints big-endian:
+ * 
+ * <pre>
+ * header   magic, version, sourceCrc (long), bodyCrc (long), tablesCrc (long),
+ *          n, start, end, edgeCount, keyEntryCount
+ * body     offsets[n + 1], targets[edgeCount], weights[edgeCount],
+ *          keyEntryCount x (room, reduction, target)
+ * tables   dist[n * n], next[n * n]
+ * </pre>
+ * 
+ * sourceCrc is the CRC32 of the graph file followed by the key file, so a
+ * snapshot compiled from last week's text is rejected when opened against this
+ * week's. bodyCrc is always checked on open; tablesCrc only by verifyTables,
+ * since reading every page of the tables is exactly what mapping avoids.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class DungeonSnapshot implements ShortestPathTable {
+
+    private static final Logger logger = Logger.getLogger(DungeonSnapshot.class.getName());
+
+    public static final int MAGIC = 0x44474E53; // "DGNS"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 5 * 4;
+
+    /*
+     * Tables are mapped in windows of whole rows of at most 1 GB.
+     */
+    private static final long WINDOW = 1L << 30;
+
+    private final int size;
+    private final int start;
+    private final int end;
+    private final long sourceCrc;
+    private final long tablesCrc;
+    private final CsrGraph graph;
+    private final KeyTable keys;
+
+    private final int rowsPerWindow;
+    private final MappedByteBuffer[] distWindows;
+    private final MappedByteBuffer[] nextWindows;
+
+    private DungeonSnapshot(int size, int start, int end, long sourceCrc, long tablesCrc, CsrGraph graph,
+            KeyTable keys, int rowsPerWindow, MappedByteBuffer[] distWindows, MappedByteBuffer[] nextWindows) {
+        this.size = size;
+        this.start = start;
+        this.end = end;
+        this.sourceCrc = sourceCrc;
+        this.tablesCrc = tablesCrc;
+        this.graph = graph;
+        this.keys = keys;
+        this.rowsPerWindow = rowsPerWindow;
+        this.distWindows = distWindows;
+        this.nextWindows = nextWindows;
+    }
+
+    /**
+     * Loads the text files, runs Floyd-Warshall and writes the snapshot.
+     * 
+     * @param graphFile Graph text file.
+     * @param keyFile   Key text file.
+     * @param out       Where to write the snapshot.
+     * @throws IOException If the text can't be read or the snapshot written.
+     */
+    public static void compile(Path graphFile, Path keyFile, Path out) throws IOException {
+        DungeonMap map = new DungeonMap(graphFile, keyFile, Level.INFO);
+        map.runFloydWarshall();
+
+        logger.info("Writing snapshot " + out);
+        write(map, sourceChecksum(graphFile, keyFile), out);
+    }
+
+    static void write(DungeonMap map, long sourceCrc, Path out) throws IOException {
+        CsrGraph graph = map.graph();
+        KeyTable keys = map.keyTable();
+        int n = map.size;
+
+        int keyEntries = 0;
+        for (int r = 0; r < n; r++) {
+            keyEntries += keys.targetsOf(r).length;
+        }
+
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            channel.position(HEADER_BYTES);
+
+            IntWriter body = new IntWriter(channel);
+            body.write(graph.offsets, 0, n + 1);
+            body.write(graph.targets, 0, graph.edgeCount());
+            body.write(graph.weights, 0, graph.edgeCount());
+            for (int r = 0; r < n; r++) {
+                int[] targets = keys.targetsOf(r);
+                int[] reductions = keys.reductionsOf(r);
+                for (int i = 0; i < targets.length; i++) {
+                    body.write(r);
+                    body.write(reductions[i]);
+                    body.write(targets[i]);
+                }
+            }
+            long bodyCrc = body.finish();
+
+            IntWriter tables = new IntWriter(channel);
+            for (int i = 0; i < n; i++) {
+                tables.write(map.floydWarshallMap[i], 0, n);
+            }
+            for (int i = 0; i < n; i++) {
+                tables.write(map.floydWarshallNext[i], 0, n);
+            }
+            long tablesCrc = tables.finish();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putLong(sourceCrc).putLong(bodyCrc).putLong(tablesCrc);
+            header.putInt(n).putInt(map.startVertex).putInt(map.endVertex);
+            header.putInt(graph.edgeCount()).putInt(keyEntries);
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Opens a snapshot, checking its header and the graph/key section.
+     * 
+     * @throws IOException If the file isn't a snapshot of this version or is
+     *                     corrupt.
+     */
+    public static DungeonSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException(file + " is too short to be a dungeon snapshot");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a dungeon snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is snapshot version " + version + ", expected " + VERSION);
+            }
+
+            long sourceCrc = header.getLong();
+            long bodyCrc = header.getLong();
+            long tablesCrc = header.getLong();
+            int n = header.getInt();
+            int start = header.getInt();
+            int end = header.getInt();
+            int edges = header.getInt();
+            int keyEntries = header.getInt();
+
+            long bodyBytes = 4L * ((n + 1L) + 2L * edges + 3L * keyEntries);
+            long tableBytes = 4L * n * n;
+            if (length != HEADER_BYTES + bodyBytes + 2 * tableBytes) {
+                throw new IOException(file + " is truncated or has trailing data");
+            }
+
+            ByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, bodyBytes);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if (crc.getValue() != bodyCrc) {
+                throw new IOException(file + " failed its checksum, the graph section is corrupt");
+            }
+
+            CsrGraph.Builder builder = new CsrGraph.Builder(n, edges);
+            int[] offsets = new int[n + 1];
+            body.asIntBuffer().get(offsets);
+            body.position(4 * (n + 1));
+            ByteBuffer weightsView = body.duplicate().position(4 * (n + 1 + edges));
+            for (int u = 0; u < n; u++) {
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    builder.addEdge(u, body.getInt(), weightsView.getInt());
+                }
+            }
+
+            KeyTable keys = new KeyTable(n);
+            body.position(4 * (n + 1 + 2 * edges));
+            for (int k = 0; k < keyEntries; k++) {
+                int room = body.getInt();
+                int reduction = body.getInt();
+                keys.placeKey(room, body.getInt(), reduction);
+            }
+
+            int rowsPerWindow = (int) Math.max(1, Math.min(n, WINDOW / Math.max(1, 4L * n)));
+            int windows = n == 0 ? 0 : (n + rowsPerWindow - 1) / rowsPerWindow;
+            MappedByteBuffer[] dist = new MappedByteBuffer[windows];
+            MappedByteBuffer[] next = new MappedByteBuffer[windows];
+            long tables = HEADER_BYTES + bodyBytes;
+            for (int w = 0; w < windows; w++) {
+                int rows = Math.min(rowsPerWindow, n - w * rowsPerWindow);
+                long offset = 4L * w * rowsPerWindow * n;
+                dist[w] = channel.map(FileChannel.MapMode.READ_ONLY, tables + offset, 4L * rows * n);
+                next[w] = channel.map(FileChannel.MapMode.READ_ONLY, tables + tableBytes + offset, 4L * rows * n);
+            }
+
+            logger.info("Opened snapshot " + file + " with " + n + " rooms and " + edges + " edges");
+
+            return new DungeonSnapshot(n, start, end, sourceCrc, tablesCrc, builder.build(), keys, rowsPerWindow,
+                    dist, next);
+        }
+    }
+
+    /**
+     * Opens a snapshot and rejects it if it wasn't compiled from exactly these
+     * text files.
+     */
+    public static DungeonSnapshot open(Path file, Path graphFile, Path keyFile) throws IOException {
+        DungeonSnapshot snapshot = open(file);
+        if (snapshot.sourceCrc != sourceChecksum(graphFile, keyFile)) {
+            throw new IOException(file + " is stale, " + graphFile + " or " + keyFile + " changed since it was compiled");
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return CRC32 over the graph file's bytes followed by the key file's.
+     */
+    public static long sourceChecksum(Path graphFile, Path keyFile) throws IOException {
+        CRC32 crc = new CRC32();
+        for (Path file : new Path[] { graphFile, keyFile }) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long length = channel.size();
+                for (long position = 0; position < length; position += WINDOW) {
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, length - position)));
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads every page of the distance and next tables and checks their CRC.
+     * 
+     * @throws IOException If the tables are corrupt.
+     */
+    public void verifyTables() throws IOException {
+        CRC32 crc = new CRC32();
+        for (MappedByteBuffer window : distWindows) {
+            crc.update(window.duplicate().rewind());
+        }
+        for (MappedByteBuffer window : nextWindows) {
+            crc.update(window.duplicate().rewind());
+        }
+        if (crc.getValue() != tablesCrc) {
+            throw new IOException("Snapshot Floyd-Warshall tables failed their checksum");
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getStartVertex() {
+        return start;
+    }
+
+    public int getEndVertex() {
+        return end;
+    }
+
+    /**
+     * @return A private copy of the graph, safe to lower weights on.
+     */
+    CsrGraph graph() {
+        return graph.copy();
+    }
+
+    /**
+     * @return A private copy of the keys.
+     */
+    KeyTable keys() {
+        KeyTable copy = new KeyTable(size);
+        for (int r = 0; r < size; r++) {
+            int[] targets = keys.targetsOf(r);
+            int[] reductions = keys.reductionsOf(r);
+            for (int i = 0; i < targets.length; i++) {
+                copy.placeKey(r, targets[i], reductions[i]);
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        return distWindows[from / rowsPerWindow].getInt(cell(from, to));
+    }
+
+    @Override
+    public int nextHop(int from, int to) {
+        return nextWindows[from / rowsPerWindow].getInt(cell(from, to));
+    }
+
+    private int cell(int from, int to) {
+        return 4 * ((from % rowsPerWindow) * size + to);
+    }
+
+    /**
+     * Buffers ints on their way to the channel and checksums them as they go.
+     */
+    static class IntWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private final CRC32 crc = new CRC32();
+
+        IntWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(int value) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void write(int[] values, int from, int count) throws IOException {
+            for (int i = from; i < from + count; i++) {
+                write(values[i]);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        long finish() throws IOException {
+            flush();
+            return crc.getValue();
+        }
+    }
+}
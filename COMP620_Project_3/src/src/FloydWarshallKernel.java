@@ -0,0 +1,268 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Floyd-Warshall over flat row-major tables, a long[] of distances and an int[]
+ * of next hops, processed in square tiles so that the three tiles touched for a
+ * given block of k stay in cache.
+ * 
+ * Each cell packs (distance << 32 | hops) into a long. Comparing packed values
+ * breaks distance ties on hop count, which matters here: most dungeon edges
+ * weigh 0, and with plain distances the tiled update order can leave next hops
+ * that chase each other around a zero-weight cycle. With hops in the key every
+ * next hop is strictly closer to its target, so reconstruction always ends.
+ * 
+ * "No path" is INF, a distance of Integer.MAX_VALUE / 2, so adding two cells
+ * never overflows and the inner loop needs no sentinel checks. initialize and
+ * copyOut convert to and from the Integer.MAX_VALUE convention at the edges.
+ * 
+ * The packed cells cost memory: the flat tables take 12 bytes a cell, and
+ * while copyOut fills the int[n][n] tables DungeonMap keeps, about 20n^2 bytes
+ * are live against 8n^2 for the plain loop. Maps where that is too much should
+ * use the lazy, off-heap or out-of-core tables instead. Flat indexes are ints,
+ * so cells refuses more than 46,340 rooms.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class FloydWarshallKernel {
+
+    public static final long INF = (long) (Integer.MAX_VALUE / 2) << 32;
+
+    /*
+     * A 64x64 tile is 32 KB of packed distances plus 16 KB of next hops, so the
+     * three tiles in play fit comfortably in L2.
+     */
+    public static final int DEFAULT_BLOCK = 64;
+
+    /*
+     * Below this many rooms the plain k-i-j loop is already cache resident.
+     */
+    public static final int BLOCKED_THRESHOLD = 256;
+
+    /*
+     * The SIMD row update needs jdk.incubator.vector, which is only resolved when
+     * the JVM is started with --add-modules jdk.incubator.vector. Without it we
+     * stay on the scalar loop.
+     */
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("dungeon.apsp.scalar");
+
+    private FloydWarshallKernel() {
+    }
+
+    /**
+     * @param n Number of rooms.
+     * @return Whether the blocked kernel is worth using over the textbook loop.
+     */
+    public static boolean shouldUseBlocked(int n) {
+        return n >= BLOCKED_THRESHOLD;
+    }
+
+    /**
+     * @return n * n, the length of the flat tables for n rooms.
+     * @throws IllegalArgumentException If that doesn't fit in an int.
+     */
+    public static int cells(int n) {
+        try {
+            return Math.multiplyExact(n, n);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(n + " rooms is too many for flat Floyd-Warshall tables; "
+                    + "use the lazy, off-heap or out-of-core shortest paths instead");
+        }
+    }
+
+    /**
+     * Fills the flat tables from the dungeon graph.
+     */
+    public static void initialize(CsrGraph weights, int n, long[] dist, int[] next) {
+        java.util.Arrays.fill(dist, INF);
+        java.util.Arrays.fill(next, -1);
+
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            dist[row + i] = 0;
+            for (int e = weights.firstEdge(i); e < weights.endEdge(i); e++) {
+                int j = weights.target(e);
+                if (i != j) {
+                    dist[row + j] = pack(weights.weight(e), 1);
+                    next[row + j] = j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocked Floyd-Warshall. For every block of k we first close the diagonal
+     * tile, then the tiles sharing its rows and columns, then everything else.
+     * 
+     * @param dist  Flat n*n packed distance table, updated in place.
+     * @param next  Flat n*n next hop table, updated in place.
+     * @param n     Number of rooms.
+     * @param block Tile edge length.
+     */
+    public static void runBlocked(long[] dist, int[] next, int n, int block) {
+        int blocks = (n + block - 1) / block;
+
+        for (int b = 0; b < blocks; b++) {
+            int k0 = b * block;
+            int k1 = Math.min(n, k0 + block);
+
+            // Phase 1: the diagonal tile depends only on itself
+            relaxTile(dist, next, n, k0, k1, k0, k1, k0, k1);
+
+            // Phase 2: tiles in the same block row and block column
+            for (int t = 0; t < blocks; t++) {
+                if (t == b) {
+                    continue;
+                }
+                int t0 = t * block;
+                int t1 = Math.min(n, t0 + block);
+                relaxTile(dist, next, n, k0, k1, t0, t1, k0, k1);
+                relaxTile(dist, next, n, t0, t1, k0, k1, k0, k1);
+            }
+
+            // Phase 3: every remaining tile, using the row and column tiles above
+            for (int ib = 0; ib < blocks; ib++) {
+                if (ib == b) {
+                    continue;
+                }
+                int i0 = ib * block;
+                int i1 = Math.min(n, i0 + block);
+
+                for (int jb = 0; jb < blocks; jb++) {
+                    if (jb == b) {
+                        continue;
+                    }
+                    int j0 = jb * block;
+                    int j1 = Math.min(n, j0 + block);
+                    relaxTile(dist, next, n, i0, i1, j0, j1, k0, k1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as runBlocked, but the tiles of phase 2 and phase 3 are handed to a
+     * fork/join pool. Within a phase no tile reads another tile of the same
+     * phase, so they can all be relaxed at once; only the phases themselves are
+     * ordered.
+     * 
+     * @param dist  Flat n*n packed distance table, updated in place.
+     * @param next  Flat n*n next hop table, updated in place.
+     * @param n     Number of rooms.
+     * @param block Tile edge length.
+     * @param pool  Pool to run the tiles on.
+     */
+    public static void runBlockedParallel(long[] dist, int[] next, int n, int block, ForkJoinPool pool) {
+        int blocks = (n + block - 1) / block;
+
+        for (int b = 0; b < blocks; b++) {
+            int k0 = b * block;
+            int k1 = Math.min(n, k0 + block);
+
+            // Phase 1: the diagonal tile depends only on itself
+            relaxTile(dist, next, n, k0, k1, k0, k1, k0, k1);
+
+            // Phase 2: tiles in the same block row and block column
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(2 * blocks);
+            for (int t = 0; t < blocks; t++) {
+                if (t == b) {
+                    continue;
+                }
+                int t0 = t * block;
+                int t1 = Math.min(n, t0 + block);
+                tasks.add(ForkJoinTask.adapt(() -> relaxTile(dist, next, n, k0, k1, t0, t1, k0, k1)));
+                tasks.add(ForkJoinTask.adapt(() -> relaxTile(dist, next, n, t0, t1, k0, k1, k0, k1)));
+            }
+            runAll(pool, tasks);
+
+            // Phase 3: every remaining tile, one task per block row
+            tasks.clear();
+            for (int ib = 0; ib < blocks; ib++) {
+                if (ib == b) {
+                    continue;
+                }
+                int i0 = ib * block;
+                int i1 = Math.min(n, i0 + block);
+                int skip = b;
+
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    for (int jb = 0; jb < blocks; jb++) {
+                        if (jb == skip) {
+                            continue;
+                        }
+                        int j0 = jb * block;
+                        int j1 = Math.min(n, j0 + block);
+                        relaxTile(dist, next, n, i0, i1, j0, j1, k0, k1);
+                    }
+                }));
+            }
+            runAll(pool, tasks);
+        }
+    }
+
+    private static void runAll(ForkJoinPool pool, List<ForkJoinTask<?>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * Relaxes rows [i0, i1) x columns [j0, j1) through every k in [k0, k1).
+     */
+    static void relaxTile(long[] dist, int[] next, int n, int i0, int i1, int j0, int j1, int k0, int k1) {
+        for (int k = k0; k < k1; k++) {
+            int kRow = k * n;
+            for (int i = i0; i < i1; i++) {
+                int iRow = i * n;
+                long dik = dist[iRow + k];
+                if (dik == INF) {
+                    continue;
+                }
+                int nik = next[iRow + k];
+                if (VECTORIZED) {
+                    VectorMinPlus.relaxRow(dist, next, iRow, kRow, j0, j1, dik, nik);
+                    continue;
+                }
+                for (int j = j0; j < j1; j++) {
+                    long candidate = dik + dist[kRow + j];
+                    if (candidate < dist[iRow + j]) {
+                        dist[iRow + j] = candidate;
+                        next[iRow + j] = nik;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the flat tables back into the int[][] layout the rest of DungeonMap
+     * reads, turning INF back into Integer.MAX_VALUE.
+     */
+    public static void copyOut(long[] dist, int[] next, int n, int[][] distOut, int[][] nextOut) {
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            for (int j = 0; j < n; j++) {
+                distOut[i][j] = distance(dist[row + j]);
+            }
+            System.arraycopy(next, row, nextOut[i], 0, n);
+        }
+    }
+
+    static long pack(int distance, int hops) {
+        return ((long) distance << 32) | hops;
+    }
+
+    /**
+     * @return The distance held in a packed cell, Integer.MAX_VALUE for no path.
+     */
+    static int distance(long packed) {
+        return packed >= INF ? Integer.MAX_VALUE : (int) (packed >>> 32);
+    }
+}
@@ -0,0 +1,258 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Immutable, shareable view of a loaded dungeon: the graph, its keys and the
+ * shortest path tables. Nothing in here changes after construction, so any
+ * number of threads can solve against one instance at the same time; whatever
+ * a solve picks up lives in its own KeyOverlay.
+ *
+ * Any number of keys may be placed. Each exact solve numbers only the keys it
+ * can reach, and only fails if those are more than a KeyRing holds.
+ * 
+ * Get one from DungeonMap.freeze().
+ * 
+ * @author Evann Hall
+ *
+ */
+public class FrozenDungeon {
+
+    private final int size;
+    private final int startVertex;
+    private final int endVertex;
+    private final CsrGraph graph;
+    private final KeyTable keys;
+    private final ShortestPathTable paths;
+
+    /*
+     * Move counts with every key applied, for A*. May be null.
+     */
+    private final int[][] unlocked;
+
+    /*
+     * Rules out unsolvable queries before the key-state search would explore
+     * every state trying.
+     */
+    private final DungeonReachability reachability;
+
+    /*
+     * Key states the solves on this dungeon may have allocated at once. Each
+     * KeyStateSolver holds two ints per state, so however many threads solveAll
+     * is given, together they stay within what one maximal solve takes (about
+     * 1 GB). Fair, so a big solve isn't starved by a stream of small ones.
+     */
+    private final Semaphore stateBudget = new Semaphore((int) KeyStateSolver.MAX_STATES, true);
+
+    FrozenDungeon(int startVertex, int endVertex, CsrGraph graph, KeyTable keys, ShortestPathTable paths,
+            int[][] unlocked) {
+        this.size = graph.size();
+        this.startVertex = startVertex;
+        this.endVertex = endVertex;
+        this.graph = graph;
+        this.keys = keys;
+        this.paths = paths;
+        this.unlocked = unlocked;
+        this.reachability = DungeonReachability.of(graph, keys);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStartVertex() {
+        return startVertex;
+    }
+
+    public int getEndVertex() {
+        return endVertex;
+    }
+
+    KeyTable keys() {
+        return keys;
+    }
+
+    /**
+     * @return The reachability pre-pass for start to end holding the overlay's
+     *         keys.
+     */
+    public DungeonReachability.Result analyze(int start, int end, KeyOverlay overlay) {
+        return reachability.analyze(start, end, overlay.collectedRooms());
+    }
+
+    CsrGraph graph() {
+        return graph;
+    }
+
+    public ShortestPathTable shortestPaths() {
+        return paths;
+    }
+
+    /**
+     * @return A fresh overlay with no keys picked up.
+     */
+    public KeyOverlay newOverlay() {
+        return new KeyOverlay(keys);
+    }
+
+    /**
+     * Exact solve with no keys held at the start.
+     * 
+     * @return The rooms walked through in order, or null if there is no way out.
+     */
+    public int[] solve(int start, int end) {
+        return solve(start, end, newOverlay());
+    }
+
+    /**
+     * Exact solve starting with the keys already in overlay. Uses A* when the
+     * unlocked distances were computed before freezing, and returns at once when
+     * the reachability pre-pass proves there is no way out. On success every key
+     * along the returned path is added to the overlay.
+     * 
+     * @return The rooms walked through in order, or null if there is no way out.
+     * @throws IllegalStateException If more than KeyRing.MAX_KEYS keys can be
+     *                               picked up on the way, or the key states
+     *                               exceed KeyStateSolver.MAX_STATES.
+     */
+    public int[] solve(int start, int end, KeyOverlay overlay) {
+        int[] heuristic = null;
+        if (unlocked != null) {
+            heuristic = new int[size];
+            for (int r = 0; r < size; r++) {
+                heuristic[r] = unlocked[r][end];
+            }
+        }
+
+        DungeonEvents.Solve event = new DungeonEvents.Solve();
+        event.begin();
+        long started = System.nanoTime();
+
+        int[] path = null;
+        KeyStateSolver solver = null;
+        DungeonReachability.Result reach = analyze(start, end, overlay);
+        if (reach.verdict() != DungeonReachability.Verdict.UNSOLVABLE) {
+            // Like DungeonMap's exact solves, number only the keys this walk can reach
+            BitSet rooms = reach.reachableRooms();
+            rooms.or(overlay.collectedRooms());
+            KeyRing ring = KeyRing.fromKeyTable(keys, rooms);
+            solver = new KeyStateSolver(graph, ring);
+
+            // Past MAX_STATES the solver refuses before allocating anything
+            int permits = (int) Math.min(KeyStateSolver.MAX_STATES, (long) size << ring.keyCount());
+            stateBudget.acquireUninterruptibly(permits);
+            try {
+                path = solver.solve(start, end, heuristic, overlay.mask(ring));
+            } finally {
+                stateBudget.release(permits);
+            }
+        }
+        int states = solver == null ? 0 : solver.getStatesExpanded();
+        long relaxations = solver == null ? 0 : solver.getRelaxations();
+
+        DungeonMetrics.global().recordSolve(System.nanoTime() - started, path, states, relaxations, 0);
+        DungeonMap.recordSolve(event, "frozen", start, end, path, states, relaxations, 0);
+
+        if (path != null) {
+            for (int room : path) {
+                overlay.collect(room);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Solves a batch of queries in parallel. Identical (start, end) pairs in the
+     * batch are solved once and share a result. Solves wait for each other when
+     * their key state tables together would pass KeyStateSolver.MAX_STATES.
+     * 
+     * @param queries  queries[q] = {start, end}.
+     * @param executor Where to run the solves.
+     * @return One result per query, in the same order as queries.
+     */
+    public QueryResult[] solveAll(int[][] queries, Executor executor) {
+        Map<Long, CompletableFuture<QueryResult>> unique = new HashMap<Long, CompletableFuture<QueryResult>>();
+        List<CompletableFuture<QueryResult>> pending = new ArrayList<CompletableFuture<QueryResult>>(queries.length);
+
+        for (int q = 0; q < queries.length; q++) {
+            int[] query = queries[q];
+            if (query == null || query.length != 2 || !isRoom(query[0]) || !isRoom(query[1])) {
+                int start = query != null && query.length > 0 ? query[0] : -1;
+                int end = query != null && query.length > 1 ? query[1] : -1;
+                pending.add(CompletableFuture.completedFuture(
+                        QueryResult.failed(start, end, "query must be two rooms between 0 and " + (size - 1))));
+                continue;
+            }
+
+            int start = query[0];
+            int end = query[1];
+            long key = ((long) start << 32) | end;
+            pending.add(unique.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return QueryResult.of(start, end, solve(start, end));
+                } catch (RuntimeException e) {
+                    return QueryResult.failed(start, end, e.getMessage());
+                }
+            }, executor)));
+        }
+
+        QueryResult[] results = new QueryResult[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            results[q] = pending.get(q).join();
+        }
+        return results;
+    }
+
+    private boolean isRoom(int room) {
+        return room >= 0 && room < size;
+    }
+
+    /**
+     * Key-ignoring shortest path, like DungeonMap.memoizedOptimalPath.
+     * 
+     * @return The path, or null if there is none.
+     */
+    public ArrayList<Integer> memoizedOptimalPath(int start, int end) {
+        PathResult path = new PathResult();
+        return optimalPath(start, end, path) ? path.toList() : null;
+    }
+
+    /**
+     * memoizedOptimalPath into a caller-owned buffer, one per thread. The cost is
+     * the total weight of the path, and every room on it holding a key is marked
+     * as a pickup.
+     * 
+     * Reads the frozen tables, or runs a BucketQueueSearch of its own when the
+     * dungeon was frozen before any were computed.
+     * 
+     * @return False, leaving path empty, if there is none.
+     */
+    public boolean optimalPath(int start, int end, PathResult path) {
+        boolean found;
+        if (paths != null) {
+            found = paths.path(start, end, path);
+        } else {
+            // A search per call, so concurrent callers share nothing
+            BucketQueueSearch search = new BucketQueueSearch(graph);
+            search.run(start, end);
+            found = search.path(end, path);
+        }
+        if (!found) {
+            return false;
+        }
+
+        for (int i = 0; i < path.length(); i++) {
+            if (keys.hasKey(path.room(i))) {
+                path.addKeyPickup(i);
+            }
+        }
+        return true;
+    }
+}
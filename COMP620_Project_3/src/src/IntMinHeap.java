@@ -0,0 +1,100 @@
+package src;
+
+/**
+ * Binary min-heap of int values ordered by int priorities, stored in two
+ * parallel primitive arrays so that pushes never box.
+ * 
+ * There is no decrease-key; callers push a value again with its better priority
+ * and skip stale entries when they pop them.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class IntMinHeap {
+
+    private int[] priorities;
+    private int[] values;
+    private int size;
+
+    public IntMinHeap(int initialCapacity) {
+        priorities = new int[Math.max(1, initialCapacity)];
+        values = new int[priorities.length];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void push(int priority, int value) {
+        if (size == priorities.length) {
+            int capacity = priorities.length * 2;
+            priorities = java.util.Arrays.copyOf(priorities, capacity);
+            values = java.util.Arrays.copyOf(values, capacity);
+        }
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            priorities[i] = priorities[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        priorities[i] = priority;
+        values[i] = value;
+    }
+
+    /**
+     * @return The priority at the top of the heap. The heap must not be empty.
+     */
+    public int peekPriority() {
+        return priorities[0];
+    }
+
+    /**
+     * @return The value at the top of the heap. The heap must not be empty.
+     */
+    public int peekValue() {
+        return values[0];
+    }
+
+    /**
+     * Removes the top entry. Read it first with peekPriority/peekValue.
+     */
+    public void pop() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+
+        int priority = priorities[size];
+        int value = values[size];
+        int i = 0;
+        int half = size >>> 1;
+
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                child++;
+            }
+            if (priorities[child] >= priority) {
+                break;
+            }
+            priorities[i] = priorities[child];
+            values[i] = values[child];
+            i = child;
+        }
+        priorities[i] = priority;
+        values[i] = value;
+    }
+}
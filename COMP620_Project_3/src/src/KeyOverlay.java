@@ -0,0 +1,86 @@
+package src;
+
+import java.util.BitSet;
+
+/**
+ * The keys one solve has picked up, layered over a shared, read-only dungeon.
+ * This is what grabKey/removeRoomKey do to DungeonMap's own arrays, except the
+ * graph is never touched: weights are reduced on the fly from the rooms whose
+ * keys were collected, so every solve can have its own overlay over the same
+ * FrozenDungeon.
+ *
+ * Keys are tracked by room rather than as a KeyRing mask, so an overlay works
+ * however many keys the dungeon holds; mask(ring) numbers them for whichever
+ * ring a solve ends up building.
+ *
+ * Not thread-safe; an overlay belongs to a single solve.
+ *
+ * @author Evann Hall
+ *
+ */
+public class KeyOverlay {
+
+    private final KeyTable keys;
+    private final BitSet collected;
+
+    public KeyOverlay(KeyTable keys) {
+        this.keys = keys;
+        this.collected = new BitSet(keys.size());
+    }
+
+    /**
+     * Picks up the key in this room, if there is one that hasn't been taken.
+     *
+     * @return Whether a new key was collected.
+     */
+    public boolean collect(int room) {
+        if (!keys.hasKey(room) || collected.get(room)) {
+            return false;
+        }
+        collected.set(room);
+        return true;
+    }
+
+    public boolean hasKeyFrom(int room) {
+        return collected.get(room);
+    }
+
+    /**
+     * @return A copy of the rooms whose keys were collected.
+     */
+    public BitSet collectedRooms() {
+        return (BitSet) collected.clone();
+    }
+
+    /**
+     * @return The collected keys that ring numbers, as a mask of that ring.
+     */
+    public int mask(KeyRing ring) {
+        int mask = 0;
+        for (int room = collected.nextSetBit(0); room >= 0; room = collected.nextSetBit(room + 1)) {
+            mask |= ring.keyBit(room);
+        }
+        return mask;
+    }
+
+    /**
+     * @param weight Weight of the edge in the shared graph.
+     * @param to     Room the edge goes into.
+     * @return The weight after the keys this solve holds.
+     */
+    public int effectiveWeight(int weight, int to) {
+        for (int room : keys.keyRoomsFor(to)) {
+            if (weight <= 0) {
+                break;
+            }
+            if (collected.get(room)) {
+                weight -= keys.getReduction(room, to);
+            }
+        }
+        return Math.max(0, weight);
+    }
+
+    public boolean isOpen(int weight, int to) {
+        return weight == 0 || effectiveWeight(weight, to) == 0;
+    }
+}
@@ -0,0 +1,155 @@
+package src;
+
+import java.util.BitSet;
+
+/**
+ * Compact view of the keys in a dungeon, numbered 0..k-1 so that a set of
+ * collected keys fits in a single int bitmask.
+ * 
+ * A move from room a to room b is open when the weight of that edge, reduced by
+ * every collected key that targets b, reaches 0.
+ * 
+ * A ring is never modified after it is built, so one instance can be shared by
+ * any number of concurrent solves.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class KeyRing {
+
+    /*
+     * An int mask leaves us 31 usable bits.
+     */
+    public static final int MAX_KEYS = 31;
+
+    /*
+     * For key i, keyRooms[i] is the room it sits in and reductions[i] is how much
+     * it lowers the weight of every edge into its target rooms.
+     */
+    final int[] keyRooms;
+    final int[] reductions;
+
+    /*
+     * keyOfRoom[r] is the index of the key in room r, or -1.
+     */
+    final int[] keyOfRoom;
+
+    /*
+     * doorMask[r] is the mask of every key that lowers edges going into room r.
+     */
+    final int[] doorMask;
+
+    private KeyRing(int[] keyRooms, int[] reductions, int[] keyOfRoom, int[] doorMask) {
+        this.keyRooms = keyRooms;
+        this.reductions = reductions;
+        this.keyOfRoom = keyOfRoom;
+        this.doorMask = doorMask;
+    }
+
+    /**
+     * Numbers the keys of a key table in room order.
+     * 
+     * @param table The keys placed in the dungeon.
+     * @return The numbered keys.
+     */
+    public static KeyRing fromKeyTable(KeyTable table) {
+        return fromKeyTable(table, null);
+    }
+
+    /**
+     * Numbers only the keys in the given rooms, e.g. the ones
+     * DungeonReachability found can be picked up at all. Every key left out is a
+     * bit less in each mask, halving the states an exact solve can reach.
+     * 
+     * @param table The keys placed in the dungeon.
+     * @param keep  Rooms whose keys to keep, null for all.
+     * @return The numbered keys.
+     */
+    public static KeyRing fromKeyTable(KeyTable table, BitSet keep) {
+        int size = table.size();
+        int[] keyOfRoom = new int[size];
+        int[] doorMask = new int[size];
+        int[] rooms = new int[Math.min(size, MAX_KEYS)];
+        int[] reductions = new int[rooms.length];
+        int count = 0;
+
+        for (int a = 0; a < size; a++) {
+            keyOfRoom[a] = -1;
+
+            if (!table.hasKey(a) || (keep != null && !keep.get(a))) {
+                continue;
+            }
+            if (count == MAX_KEYS) {
+                throw new IllegalStateException("More than " + MAX_KEYS + " keys in play, too many for one key mask");
+            }
+
+            keyOfRoom[a] = count;
+            rooms[count] = a;
+            reductions[count] = table.reductionsOf(a)[0];
+
+            for (int b : table.targetsOf(a)) {
+                doorMask[b] |= 1 << count;
+            }
+            count++;
+        }
+
+        int[] keyRooms = new int[count];
+        int[] keyReductions = new int[count];
+        System.arraycopy(rooms, 0, keyRooms, 0, count);
+        System.arraycopy(reductions, 0, keyReductions, 0, count);
+
+        return new KeyRing(keyRooms, keyReductions, keyOfRoom, doorMask);
+    }
+
+    /**
+     * @return The room holding key number key.
+     */
+    public int keyRoom(int key) {
+        return keyRooms[key];
+    }
+
+    public int keyCount() {
+        return keyRooms.length;
+    }
+
+    /**
+     * @param room The room to check.
+     * @return The single bit of the key in this room, or 0 if it holds none.
+     */
+    public int keyBit(int room) {
+        return keyOfRoom[room] == -1 ? 0 : 1 << keyOfRoom[room];
+    }
+
+    /**
+     * @return The mask with every key collected.
+     */
+    public int allKeys() {
+        return keyRooms.length == 0 ? 0 : -1 >>> (32 - keyRooms.length);
+    }
+
+    /**
+     * @param weight Weight of the edge as read from the graph file.
+     * @param to     The room the edge goes into.
+     * @param mask   The keys collected so far.
+     * @return The weight left on the edge after applying the collected keys.
+     */
+    public int residual(int weight, int to, int mask) {
+        int applicable = doorMask[to] & mask;
+
+        while (applicable != 0 && weight > 0) {
+            int key = Integer.numberOfTrailingZeros(applicable);
+            weight -= reductions[key];
+            applicable &= applicable - 1;
+        }
+
+        return Math.max(0, weight);
+    }
+
+    /**
+     * @return Whether the edge of this weight into room to can be walked through
+     *         holding the keys in mask.
+     */
+    public boolean isOpen(int weight, int to, int mask) {
+        return weight == 0 || residual(weight, to, mask) == 0;
+    }
+}
@@ -0,0 +1,160 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Exact solver for the dungeon. Instead of planning on the key-ignoring path and
+ * fixing blockers afterwards, this searches the product graph of (room, keys
+ * collected) with Dijkstra (or A* given a heuristic), so the first time the
+ * exit is settled we have the shortest walk that respects every lock.
+ * 
+ * Every move costs one; keys are picked up automatically on entering their room.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class KeyStateSolver {
+
+    /*
+     * Upper bound on rooms * 2^keys, keeps the dist/parent tables around 1 GB.
+     */
+    public static final long MAX_STATES = 1L << 27;
+
+    private final int size;
+    private final CsrGraph graph;
+    private final KeyRing keys;
+
+    /*
+     * Number of states settled and open edges tried by the last call to solve,
+     * for diagnostics.
+     */
+    private int statesExpanded;
+    private long relaxations;
+
+    public KeyStateSolver(CsrGraph graph, KeyRing keys) {
+        this.size = graph.size();
+        this.graph = graph;
+        this.keys = keys;
+    }
+
+    public int getStatesExpanded() {
+        return statesExpanded;
+    }
+
+    public long getRelaxations() {
+        return relaxations;
+    }
+
+    /**
+     * Finds the cheapest walk from startVertex to endVertex, picking up whatever
+     * keys are needed along the way.
+     * 
+     * @param startVertex Room we start in.
+     * @param endVertex   Room we want to reach.
+     * @return The rooms walked through in order, or null if the exit can't be
+     *         reached with the keys in this dungeon.
+     */
+    public int[] solve(int startVertex, int endVertex) {
+        return solve(startVertex, endVertex, null);
+    }
+
+    /**
+     * A* variant of solve. The heuristic must never overestimate the number of
+     * moves left, e.g. shortest distances in the dungeon with every door open.
+     * 
+     * @param startVertex Room we start in.
+     * @param endVertex   Room we want to reach.
+     * @param heuristic   heuristic[r] is a lower bound on moves from r to
+     *                    endVertex, Integer.MAX_VALUE if r can never reach it.
+     *                    Null runs plain Dijkstra.
+     * @return The rooms walked through in order, or null if the exit can't be
+     *         reached with the keys in this dungeon.
+     */
+    public int[] solve(int startVertex, int endVertex, int[] heuristic) {
+        return solve(startVertex, endVertex, heuristic, 0);
+    }
+
+    /**
+     * Searches from startVertex already holding the keys in heldKeys, e.g. keys a
+     * KeyOverlay picked up earlier in the same solve.
+     */
+    public int[] solve(int startVertex, int endVertex, int[] heuristic, int heldKeys) {
+        long stateCount = (long) size << keys.keyCount();
+        if (stateCount > MAX_STATES) {
+            throw new IllegalStateException(
+                    "Key state space of " + stateCount + " states exceeds the limit of " + MAX_STATES);
+        }
+
+        int states = (int) stateCount;
+        int[] dist = new int[states];
+        int[] parent = new int[states];
+        long[] settled = new long[(states + 63) >>> 6];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+
+        IntMinHeap queue = new IntMinHeap(size);
+        int startState = (heldKeys | keys.keyBit(startVertex)) * size + startVertex;
+        dist[startState] = 0;
+        parent[startState] = -1;
+        statesExpanded = 0;
+        relaxations = 0;
+
+        if (heuristic != null && heuristic[startVertex] == Integer.MAX_VALUE) {
+            return null; // even with every door open there is no way through
+        }
+        queue.push(estimate(heuristic, startVertex), startState);
+
+        while (!queue.isEmpty()) {
+            int state = queue.peekValue();
+            queue.pop();
+
+            if ((settled[state >>> 6] & (1L << state)) != 0) {
+                continue; // stale entry, we already found a cheaper way here
+            }
+            settled[state >>> 6] |= 1L << state;
+            statesExpanded++;
+
+            int mask = state / size;
+            int room = state - mask * size;
+            int d = dist[state];
+
+            if (room == endVertex) {
+                return reconstruct(parent, state);
+            }
+
+            for (int e = graph.firstEdge(room); e < graph.endEdge(room); e++) {
+                int to = graph.target(e);
+                if (!keys.isOpen(graph.weight(e), to, mask)
+                        || (heuristic != null && heuristic[to] == Integer.MAX_VALUE)) {
+                    continue;
+                }
+                relaxations++;
+
+                int nextState = (mask | keys.keyBit(to)) * size + to;
+                if (d + 1 < dist[nextState]) {
+                    dist[nextState] = d + 1;
+                    parent[nextState] = state;
+                    queue.push(d + 1 + estimate(heuristic, to), nextState);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static int estimate(int[] heuristic, int room) {
+        return heuristic == null ? 0 : heuristic[room];
+    }
+
+    private int[] reconstruct(int[] parent, int goalState) {
+        int length = 0;
+        for (int s = goalState; s != -1; s = parent[s]) {
+            length++;
+        }
+
+        int[] path = new int[length];
+        for (int s = goalState; s != -1; s = parent[s]) {
+            path[--length] = s % size;
+        }
+        return path;
+    }
+}
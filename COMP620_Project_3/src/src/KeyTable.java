@@ -0,0 +1,181 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Sparse replacement for the n*n key matrix. Each room holds at most one key, so
+ * we only store, per room, the rooms its key affects and the reduction it
+ * applies to each of them.
+ * 
+ * It also keeps the inverse, door -> rooms holding a key for it, so asking where
+ * the keys for a door are is a lookup instead of a scan over every room.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class KeyTable {
+
+    private final int size;
+
+    /*
+     * targets[a] are the rooms whose incoming edges the key in room a lowers,
+     * by reductions[a][i] for targets[a][i]. Null when room a has no key.
+     */
+    private final int[][] targets;
+    private final int[][] reductions;
+
+    /*
+     * keyRooms[b] are the rooms holding a key that lowers edges into b. Null when
+     * no key affects b.
+     */
+    private final int[][] keyRooms;
+
+    public KeyTable(int size) {
+        this.size = size;
+        this.targets = new int[size][];
+        this.reductions = new int[size][];
+        this.keyRooms = new int[size][];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A table with the same keys that later changes to this one don't
+     *         reach.
+     */
+    public KeyTable copy() {
+        KeyTable copy = new KeyTable(size);
+        for (int room = 0; room < size; room++) {
+            copy.targets[room] = targets[room] == null ? null : targets[room].clone();
+            copy.reductions[room] = reductions[room] == null ? null : reductions[room].clone();
+            copy.keyRooms[room] = keyRooms[room] == null ? null : keyRooms[room].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Places (or replaces) the reduction the key in room src applies to edges
+     * going into dest. A weight of 0 removes that target.
+     */
+    public void placeKey(int src, int dest, int weight) {
+        int index = indexOf(src, dest);
+
+        if (weight == 0) {
+            if (index != -1) {
+                int last = targets[src].length - 1;
+                targets[src][index] = targets[src][last];
+                reductions[src][index] = reductions[src][last];
+                targets[src] = last == 0 ? null : Arrays.copyOf(targets[src], last);
+                reductions[src] = last == 0 ? null : Arrays.copyOf(reductions[src], last);
+                keyRooms[dest] = without(keyRooms[dest], src);
+            }
+            return;
+        }
+
+        if (index != -1) {
+            reductions[src][index] = weight;
+            return;
+        }
+
+        if (targets[src] == null) {
+            targets[src] = new int[] { dest };
+            reductions[src] = new int[] { weight };
+        } else {
+            int length = targets[src].length;
+            targets[src] = Arrays.copyOf(targets[src], length + 1);
+            reductions[src] = Arrays.copyOf(reductions[src], length + 1);
+            targets[src][length] = dest;
+            reductions[src][length] = weight;
+        }
+        keyRooms[dest] = with(keyRooms[dest], src);
+    }
+
+    /**
+     * @return Reduction the key in room src applies to edges into dest, or 0.
+     */
+    public int getReduction(int src, int dest) {
+        int index = indexOf(src, dest);
+        return index == -1 ? 0 : reductions[src][index];
+    }
+
+    public boolean hasKey(int room) {
+        return targets[room] != null;
+    }
+
+    /**
+     * @return The rooms the key in this room affects. Empty if there is no key.
+     *         Do not modify.
+     */
+    public int[] targetsOf(int room) {
+        return targets[room] == null ? new int[0] : targets[room];
+    }
+
+    /**
+     * @return The reductions matching targetsOf(room). Do not modify.
+     */
+    public int[] reductionsOf(int room) {
+        return reductions[room] == null ? new int[0] : reductions[room];
+    }
+
+    /**
+     * @return The rooms holding a key that lowers edges into this room. Empty if
+     *         none does. Do not modify.
+     */
+    public int[] keyRoomsFor(int room) {
+        return keyRooms[room] == null ? new int[0] : keyRooms[room];
+    }
+
+    public void removeKey(int room) {
+        if (targets[room] == null) {
+            return;
+        }
+        for (int dest : targets[room]) {
+            keyRooms[dest] = without(keyRooms[dest], room);
+        }
+        targets[room] = null;
+        reductions[room] = null;
+    }
+
+    private static int[] with(int[] rooms, int room) {
+        if (rooms == null) {
+            return new int[] { room };
+        }
+        int[] grown = Arrays.copyOf(rooms, rooms.length + 1);
+        grown[rooms.length] = room;
+        return grown;
+    }
+
+    private static int[] without(int[] rooms, int room) {
+        if (rooms == null) {
+            return null;
+        }
+        for (int i = 0; i < rooms.length; i++) {
+            if (rooms[i] == room) {
+                if (rooms.length == 1) {
+                    return null;
+                }
+                int[] shrunk = Arrays.copyOf(rooms, rooms.length - 1);
+                if (i < shrunk.length) {
+                    shrunk[i] = rooms[rooms.length - 1];
+                }
+                return shrunk;
+            }
+        }
+        return rooms;
+    }
+
+    private int indexOf(int src, int dest) {
+        int[] roomTargets = targets[src];
+        if (roomTargets == null) {
+            return -1;
+        }
+        for (int i = 0; i < roomTargets.length; i++) {
+            if (roomTargets[i] == dest) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
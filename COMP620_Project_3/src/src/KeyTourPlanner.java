@@ -0,0 +1,369 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chooses which key rooms to visit, and in what order, before walking from the
+ * start to the exit, instead of fetching keys in the order blockers turn up.
+ *
+ * Every leg between two stops (the start, a key room or the exit) is the
+ * key-ignoring shortest path from the tables, costing its number of moves. A
+ * leg can be walked when each door on it is opened by the keys held plus any
+ * picked up earlier on the same leg. A Held-Karp style dynamic program over
+ * (keys held, last stop) then finds the fewest moves to the exit. Any subset of
+ * key rooms may be visited, so when several keys open the same door only the
+ * cheapest copy gets fetched.
+ *
+ * Each leg adds at least the key of the room it ends in, so states only move
+ * to larger key sets. Sets with the same number of keys form a layer that is
+ * final once every smaller layer is done. The sets within a layer are split
+ * across the pool when one is given; they push into larger layers with an
+ * atomic minimum.
+ *
+ * The plan is always walkable, but legs are fixed to the key-ignoring paths, so
+ * KeyStateSolver can still beat it.
+ *
+ * @author Evann Hall
+ *
+ */
+public class KeyTourPlanner {
+
+    /*
+     * 2^18 key sets by 19 stops keeps the table around 40 MB.
+     */
+    public static final int MAX_TOUR_KEYS = 18;
+
+    /*
+     * Sets per task when a layer is split across the pool.
+     */
+    private static final int CHUNK = 1 << 10;
+
+    /*
+     * Table cells pack moves in the high half and how we got there in the low
+     * half, so the smallest cell is the best.
+     */
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    private final CsrGraph graph;
+    private final ShortestPathTable legs;
+
+    /*
+     * The key rooms worth visiting, and the ring numbering their keys the same
+     * way: the key in keyRooms[i] is bit i.
+     */
+    private final int[] keyRooms;
+    private final KeyRing ring;
+
+    private int moves = -1;
+    private long statesExpanded;
+
+    /**
+     * @param graph      Current weights, for the doors along each leg.
+     * @param keys       Keys still in the dungeon.
+     * @param legs       Key-ignoring shortest paths between rooms.
+     * @param candidates Rooms whose keys may be fetched, null for all. Keys that
+     *                   lower no locked edge are dropped either way.
+     * @throws IllegalStateException If more than MAX_TOUR_KEYS keys are left.
+     */
+    public KeyTourPlanner(CsrGraph graph, KeyTable keys, ShortestPathTable legs, BitSet candidates) {
+        this.graph = graph;
+        this.legs = legs;
+
+        BitSet useful = new BitSet(graph.size());
+        for (int a = 0; a < keys.size(); a++) {
+            if (keys.hasKey(a) && (candidates == null || candidates.get(a)) && opensAnything(keys.targetsOf(a))) {
+                useful.set(a);
+            }
+        }
+        if (useful.cardinality() > MAX_TOUR_KEYS) {
+            throw new IllegalStateException(
+                    useful.cardinality() + " keys is more than the " + MAX_TOUR_KEYS + " a tour can be planned over");
+        }
+
+        this.keyRooms = useful.stream().toArray();
+        this.ring = KeyRing.fromKeyTable(keys, useful);
+    }
+
+    private boolean opensAnything(int[] targets) {
+        for (int to : targets) {
+            for (int in = graph.firstInEdge(to); in < graph.endInEdge(to); in++) {
+                if (graph.weight(graph.inEdge(in)) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Key rooms the planner may visit, in room order.
+     */
+    public int[] keyRooms() {
+        return keyRooms.clone();
+    }
+
+    /**
+     * @return Moves in the last tour planned, -1 if none was found.
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return (keys held, last stop) states expanded by the last plan.
+     */
+    public long getStatesExpanded() {
+        return statesExpanded;
+    }
+
+    public int[] plan(int start, int end) {
+        return plan(start, end, null);
+    }
+
+    /**
+     * Plans the cheapest tour from start to end.
+     *
+     * @param pool Where to split each layer of the program, null to stay on the
+     *             calling thread.
+     * @return The key rooms to visit, in order and not counting start, or null if
+     *         no tour the planner can see reaches the exit.
+     */
+    public int[] plan(int start, int end, ForkJoinPool pool) {
+        int k = keyRooms.length;
+        Leg[][] leg = planLegs(start, end);
+
+        // Stop k is the start, k + 1 the exit. A key in the start room is held from the beginning
+        int held = ring.keyBit(start);
+        int free = ring.allKeys() & ~held;
+        int stride = k + 1;
+
+        AtomicLongArray table = new AtomicLongArray((1 << k) * stride);
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, UNREACHED);
+        }
+        table.set(held * stride + k, pack(0, held, k));
+
+        int[][] layers = layers(free);
+        statesExpanded = 0;
+        for (int[] layer : layers) {
+            if (pool == null || layer.length < 2 * CHUNK) {
+                statesExpanded += expand(layer, 0, layer.length, held, leg, table);
+                continue;
+            }
+
+            List<ForkJoinTask<Long>> tasks = new ArrayList<ForkJoinTask<Long>>();
+            for (int from = 0; from < layer.length; from += CHUNK) {
+                int lo = from;
+                int hi = Math.min(layer.length, from + CHUNK);
+                tasks.add(ForkJoinTask.adapt(() -> expand(layer, lo, hi, held, leg, table)));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+            for (ForkJoinTask<Long> task : tasks) {
+                statesExpanded += task.join();
+            }
+        }
+
+        // Finish with the leg from wherever we are to the exit
+        long best = UNREACHED;
+        int bestMask = -1;
+        int bestLast = -1;
+        for (int[] layer : layers) {
+            for (int sub : layer) {
+                int mask = sub | held;
+                for (int last = 0; last <= k; last++) {
+                    long cell = table.get(mask * stride + last);
+                    if (cell == UNREACHED || !leg[last][k + 1].opensWith(ring, mask)) {
+                        continue;
+                    }
+                    long total = (cell >>> 32) + leg[last][k + 1].moves;
+                    if (total < best) {
+                        best = total;
+                        bestMask = mask;
+                        bestLast = last;
+                    }
+                }
+            }
+        }
+
+        if (best == UNREACHED) {
+            moves = -1;
+            return null;
+        }
+        moves = (int) best;
+
+        int[] stops = new int[k];
+        int count = 0;
+        for (int mask = bestMask, last = bestLast; last != k;) {
+            stops[count++] = keyRooms[last];
+            int from = (int) table.get(mask * stride + last);
+            mask = from >>> 5;
+            last = from & 31;
+        }
+
+        int[] tour = new int[count];
+        for (int i = 0; i < count; i++) {
+            tour[i] = stops[count - 1 - i];
+        }
+        return tour;
+    }
+
+    /*
+     * Pushes every reached state with a key set in layer[lo .. hi) along each leg
+     * to a key room not yet held. Legs only add keys, so all writes land in later
+     * layers.
+     */
+    private long expand(int[] layer, int lo, int hi, int held, Leg[][] leg, AtomicLongArray table) {
+        int k = keyRooms.length;
+        int stride = k + 1;
+        long states = 0;
+
+        for (int s = lo; s < hi; s++) {
+            int mask = layer[s] | held;
+            for (int last = 0; last <= k; last++) {
+                long cell = table.get(mask * stride + last);
+                if (cell == UNREACHED) {
+                    continue;
+                }
+                states++;
+                long d = cell >>> 32;
+
+                for (int missing = ring.allKeys() & ~mask; missing != 0; missing &= missing - 1) {
+                    int next = Integer.numberOfTrailingZeros(missing);
+                    Leg step = leg[last][next];
+                    if (!step.opensWith(ring, mask)) {
+                        continue;
+                    }
+                    int after = mask | step.pickups | (1 << next);
+                    lower(table, after * stride + next, pack(d + step.moves, mask, last));
+                }
+            }
+        }
+        return states;
+    }
+
+    private static long pack(long moves, int mask, int last) {
+        return moves << 32 | ((long) mask << 5 | last);
+    }
+
+    private static void lower(AtomicLongArray table, int i, long value) {
+        long current = table.get(i);
+        while (value < current && !table.compareAndSet(i, current, value)) {
+            current = table.get(i);
+        }
+    }
+
+    /*
+     * Every subset of free, grouped by how many keys it holds.
+     */
+    private static int[][] layers(int free) {
+        int bits = Integer.bitCount(free);
+        int[] count = new int[bits + 1];
+        for (int sub = free;; sub = (sub - 1) & free) {
+            count[Integer.bitCount(sub)]++;
+            if (sub == 0) {
+                break;
+            }
+        }
+
+        int[][] layers = new int[bits + 1][];
+        for (int p = 0; p <= bits; p++) {
+            layers[p] = new int[count[p]];
+            count[p] = 0;
+        }
+        for (int sub = free;; sub = (sub - 1) & free) {
+            int p = Integer.bitCount(sub);
+            layers[p][count[p]++] = sub;
+            if (sub == 0) {
+                break;
+            }
+        }
+        return layers;
+    }
+
+    /*
+     * Leg between every pair of stops: key rooms, then start, then end.
+     */
+    private Leg[][] planLegs(int start, int end) {
+        int k = keyRooms.length;
+        int[] stops = Arrays.copyOf(keyRooms, k + 2);
+        stops[k] = start;
+        stops[k + 1] = end;
+
+        Leg[][] leg = new Leg[k + 2][k + 2];
+        PathResult path = new PathResult();
+        for (int a = 0; a < k + 2; a++) {
+            for (int b = 0; b < k + 2; b++) {
+                if (stops[a] == stops[b]) {
+                    path.clear();
+                    path.add(stops[a]);
+                    leg[a][b] = Leg.along(graph, ring, path);
+                } else if (!legs.path(stops[a], stops[b], path)) {
+                    leg[a][b] = Leg.NONE;
+                } else {
+                    leg[a][b] = Leg.along(graph, ring, path);
+                }
+            }
+        }
+        return leg;
+    }
+
+    /*
+     * Moves along one leg, the locked doors on it with the keys picked up on the
+     * leg before reaching each, and every key picked up on it.
+     */
+    private static final class Leg {
+        static final Leg NONE = new Leg(-1, new int[0], new int[0], new int[0], 0);
+
+        final int moves;
+        final int[] doorRoom;
+        final int[] doorWeight;
+        final int[] doorPickups;
+        final int pickups;
+
+        Leg(int moves, int[] doorRoom, int[] doorWeight, int[] doorPickups, int pickups) {
+            this.moves = moves;
+            this.doorRoom = doorRoom;
+            this.doorWeight = doorWeight;
+            this.doorPickups = doorPickups;
+            this.pickups = pickups;
+        }
+
+        static Leg along(CsrGraph graph, KeyRing ring, PathResult path) {
+            int doors = 0;
+            int[] room = new int[path.length()];
+            int[] weight = new int[path.length()];
+            int[] before = new int[path.length()];
+            int pickups = 0;
+            for (int i = 0; i + 1 < path.length(); i++) {
+                pickups |= ring.keyBit(path.room(i));
+                int w = graph.getWeight(path.room(i), path.room(i + 1));
+                if (w > 0) {
+                    room[doors] = path.room(i + 1);
+                    weight[doors] = w;
+                    before[doors++] = pickups;
+                }
+            }
+            pickups |= ring.keyBit(path.last());
+            return new Leg(path.length() - 1, Arrays.copyOf(room, doors), Arrays.copyOf(weight, doors),
+                    Arrays.copyOf(before, doors), pickups);
+        }
+
+        boolean opensWith(KeyRing ring, int mask) {
+            if (moves == -1) {
+                return false;
+            }
+            for (int d = 0; d < doorRoom.length; d++) {
+                if (!ring.isOpen(doorWeight[d], doorRoom[d], mask | doorPickups[d])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
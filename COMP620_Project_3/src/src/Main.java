@@ -1,11 +1,18 @@
 package src;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Main {
+
+    private Main() {
+    }
         
     /* key reduces the weight of all edges going to a node by a cost.
     // graph.txt is 4 lines, first is n of vertices (from 0 to n-1)
@@ -49,7 +56,81 @@ public class Main {
      * should construct graph, display path
      */
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("compile")) {
+            // compile <graphFile> <keyFile> <snapshotFile>
+            DungeonSnapshot.compile(Path.of(args[1]), Path.of(args[2]), Path.of(args[3]));
+            return;
+        }
+        
+        if (args.length == 4 && args[0].equals("contract")) {
+            // contract <graphFile> <keyFile> <hierarchyFile>
+            ContractionHierarchy.compile(Path.of(args[1]), Path.of(args[2]), Path.of(args[3]));
+            return;
+        }
+        
+        if (args.length >= 3 && args[0].equals("serve")) {
+            // serve <port> <mapId>=<graphFile>,<keyFile> ...
+            Map<String, Path[]> maps = new HashMap<String, Path[]>();
+            for (int i = 2; i < args.length; i++) {
+                String[] idAndFiles = args[i].split("=", 2);
+                String[] files = idAndFiles.length == 2 ? idAndFiles[1].split(",", 2) : new String[0];
+                if (idAndFiles[0].isEmpty() || files.length != 2 || files[0].isEmpty() || files[1].isEmpty()) {
+                    System.err.println("Bad map " + args[i]);
+                    System.err.println("usage: serve <port> <mapId>=<graphFile>,<keyFile> ...");
+                    return;
+                }
+                maps.put(idAndFiles[0], new Path[] { Path.of(files[0]), Path.of(files[1]) });
+            }
+            
+            try (DungeonServer server = new DungeonServer(Integer.parseInt(args[1]), maps, 8)) {
+                server.serve();
+            }
+            return;
+        }
+        
+        if (args.length >= 3 && args[0].equals("generate")) {
+            // generate <graphFile> <keyFile> [rooms=N] [keys=K] [keysPerDoor=k] [degree=uniform:4]
+            //          [weights=1-10] [seed=S] [unsolvable]
+            DungeonGenerator generator = new DungeonGenerator();
+            int keys = 4;
+            int keysPerDoor = 1;
+            for (int i = 3; i < args.length; i++) {
+                String[] option = args[i].split("=", 2);
+                String value = option.length > 1 ? option[1] : "";
+                switch (option[0]) {
+                case "rooms":
+                    generator.rooms(Integer.parseInt(value));
+                    break;
+                case "keys":
+                    keys = Integer.parseInt(value);
+                    break;
+                case "keysPerDoor":
+                    keysPerDoor = Integer.parseInt(value);
+                    break;
+                case "degree":
+                    String[] degree = value.split(":", 2);
+                    generator.degree(DungeonGenerator.Degree.valueOf(degree[0].toUpperCase()),
+                            Integer.parseInt(degree[1]));
+                    break;
+                case "weights":
+                    String[] range = value.split("-", 2);
+                    generator.weights(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+                    break;
+                case "seed":
+                    generator.seed(Long.parseLong(value));
+                    break;
+                case "unsolvable":
+                    generator.solvable(false);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown generate option " + args[i]);
+                }
+            }
+            generator.keys(keys, keysPerDoor).write(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+        
         Logger rootLogger = Logger.getLogger("");
         rootLogger.setLevel(Level.FINE);
         Handler[] handlers = rootLogger.getHandlers();
@@ -72,6 +153,13 @@ public class Main {
         
         dM.printFloydWarshallMap();
         
+        dM.solveDungeonExact(dM.startVertex, dM.endVertex);
+        
+        dM.solveDungeonAStar(dM.startVertex, dM.endVertex);
+        
+        dM.solveDungeonBidirectional(dM.startVertex, dM.endVertex);
+        
+        // picks up keys as it goes, so run it last
         dM.solveDungeon(dM.startVertex, dM.endVertex);
         
         
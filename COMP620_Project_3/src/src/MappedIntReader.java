@@ -0,0 +1,164 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads comma separated ASCII integers a line at a time straight out of a
+ * memory-mapped file. Nothing is allocated per line or per number; the values of
+ * the current line land in a reused int[].
+ * 
+ * Files bigger than one mapping are walked through in windows.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class MappedIntReader implements Closeable {
+
+    /*
+     * A single MappedByteBuffer can't exceed 2 GB, map 1 GB at a time.
+     */
+    private static final long WINDOW = 1L << 30;
+
+    private final String name;
+    private final FileChannel channel;
+    private final long length;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private int[] values = new int[8];
+    private int count;
+    private int line;
+
+    public MappedIntReader(Path file) throws IOException {
+        this.name = file.toString();
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.length = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, length - start));
+    }
+
+    private long position() {
+        return windowStart + window.position();
+    }
+
+    /*
+     * Returns -1 at end of file.
+     */
+    private int read() throws IOException {
+        if (!window.hasRemaining()) {
+            if (position() >= length) {
+                return -1;
+            }
+            map(position());
+        }
+        return window.get() & 0xFF;
+    }
+
+    /**
+     * Parses the next non-blank line.
+     * 
+     * @return false at end of file, true if values()/count() now hold the line.
+     * @throws DungeonFormatException If the line holds something other than
+     *                                comma separated integers.
+     */
+    public boolean nextLine() throws IOException {
+        int c = read();
+
+        // Skip blank lines
+        while (c == '\n' || c == '\r') {
+            if (c == '\n') {
+                line++;
+            }
+            c = read();
+        }
+        if (c == -1) {
+            return false;
+        }
+
+        line++;
+        count = 0;
+
+        while (true) {
+            while (c == ' ' || c == '\t') {
+                c = read();
+            }
+
+            boolean negative = c == '-';
+            if (negative) {
+                c = read();
+            }
+            if (c < '0' || c > '9') {
+                throw malformed(c);
+            }
+
+            long value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw new DungeonFormatException(name, line, "number does not fit in an int");
+                }
+                c = read();
+            }
+
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = (int) (negative ? -value : value);
+
+            while (c == ' ' || c == '\t' || c == '\r') {
+                c = read();
+            }
+            if (c == ',') {
+                c = read();
+            } else if (c == '\n' || c == -1) {
+                return true;
+            } else {
+                throw malformed(c);
+            }
+        }
+    }
+
+    private DungeonFormatException malformed(int c) {
+        String found = c == -1 ? "end of file" : c == '\n' ? "end of line" : "'" + (char) c + "'";
+        return new DungeonFormatException(name, line, "expected a number but found " + found);
+    }
+
+    /**
+     * @return The numbers on the current line. Only the first count() are valid,
+     *         and the array is reused by the next call to nextLine.
+     */
+    public int[] values() {
+        return values;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return 1-based number of the current line.
+     */
+    public int line() {
+        return line;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
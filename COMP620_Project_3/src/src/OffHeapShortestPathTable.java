@@ -0,0 +1,312 @@
+package src;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * All-pairs distance and next hop tables kept outside the Java heap, in native
+ * memory or a mapped file, for maps where two int[n][n] arrays would blow the
+ * heap limit or leave the GC copying gigabytes on every full collection.
+ *
+ * Distances take 4 bytes a cell. Next hops take 2 bytes while n < 65536, with
+ * 0xFFFF meaning no hop, and 4 bytes beyond that.
+ *
+ * Each row is filled by a BucketQueueSearch from its room, the next hops read
+ * back off the search tree, so filling costs n searches rather than n^3 and
+ * ties break on fewer moves like everywhere else. Rows don't depend on each
+ * other and are split across the pool when one is given; each is built in a
+ * heap buffer and copied into its slice of the segment in one go.
+ *
+ * Only DungeonMap touches this class, and only after checking the incubator
+ * module is present, so the JVM never tries to link it when running without
+ * --add-modules jdk.incubator.foreign. Reads are safe from any thread; fill,
+ * decreaseEdge and close are not.
+ *
+ * @author Evann Hall
+ *
+ */
+public class OffHeapShortestPathTable implements ShortestPathTable, AutoCloseable {
+
+    /*
+     * Most rooms whose next hops fit in an unsigned short, 0xFFFF being -1.
+     */
+    public static final int MAX_SHORT_ROOMS = 0xFFFF;
+
+    private static final int NO_HOP = 0xFFFF;
+
+    /*
+     * Rows per task when filling across a pool.
+     */
+    private static final int ROWS_PER_TASK = 64;
+
+    /*
+     * Frees the segments of tables dropped without being closed.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int size;
+    private final boolean shortHops;
+    private final ResourceScope scope;
+    private final MemorySegment dist;
+    private final MemorySegment next;
+
+    private CsrGraph filledFrom;
+    private volatile boolean stale = true;
+
+    private OffHeapShortestPathTable(int size, ResourceScope scope, MemorySegment dist, MemorySegment next) {
+        this.size = size;
+        this.shortHops = size <= MAX_SHORT_ROOMS;
+        this.scope = scope;
+        this.dist = dist;
+        this.next = next;
+    }
+
+    /**
+     * @return An empty table for size rooms in native memory.
+     */
+    public static OffHeapShortestPathTable allocate(int size) {
+        ResourceScope scope = ResourceScope.newSharedScope(CLEANER);
+        return new OffHeapShortestPathTable(size, scope, MemorySegment.allocateNative(distBytes(size), scope),
+                MemorySegment.allocateNative(nextBytes(size), scope));
+    }
+
+    /**
+     * @return An empty table for size rooms mapped onto file, which is created
+     *         or overwritten. The page cache holds the tables instead of the heap
+     *         and they can outgrow physical memory.
+     * @throws IOException If the file can't be created or mapped.
+     */
+    public static OffHeapShortestPathTable map(Path file, int size) throws IOException {
+        // Start from an empty file; mapping read-write grows it to fit
+        FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING).close();
+
+        ResourceScope scope = ResourceScope.newSharedScope(CLEANER);
+        try {
+            MemorySegment dist = MemorySegment.mapFile(file, 0, distBytes(size), FileChannel.MapMode.READ_WRITE,
+                    scope);
+            MemorySegment next = MemorySegment.mapFile(file, distBytes(size), nextBytes(size),
+                    FileChannel.MapMode.READ_WRITE, scope);
+            return new OffHeapShortestPathTable(size, scope, dist, next);
+        } catch (IOException | RuntimeException e) {
+            scope.close();
+            throw e;
+        }
+    }
+
+    private static long distBytes(int size) {
+        return 4L * size * size;
+    }
+
+    private static long nextBytes(int size) {
+        return (size <= MAX_SHORT_ROOMS ? 2L : 4L) * size * size;
+    }
+
+    /**
+     * Computes every row for graph's current weights.
+     *
+     * @param pool Where to split the rows, null to stay on the calling thread.
+     */
+    public void fill(CsrGraph graph, ForkJoinPool pool) {
+        if (graph.size() != size) {
+            throw new IllegalArgumentException("Table holds " + size + " rooms, graph has " + graph.size());
+        }
+
+        if (pool == null) {
+            fillRows(graph, 0, size);
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            for (int from = 0; from < size; from += ROWS_PER_TASK) {
+                int lo = from;
+                int hi = Math.min(size, from + ROWS_PER_TASK);
+                tasks.add(ForkJoinTask.adapt(() -> fillRows(graph, lo, hi)));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+
+        filledFrom = graph;
+        stale = false;
+    }
+
+    private void fillRows(CsrGraph graph, int lo, int hi) {
+        BucketQueueSearch search = new BucketQueueSearch(graph);
+        int[] hops = new int[size];
+        int[] chain = new int[size];
+        short[] narrow = shortHops ? new short[size] : null;
+
+        for (int source = lo; source < hi; source++) {
+            search.run(source);
+            firstHops(source, search.distances(), search.predecessors(), hops, chain);
+
+            long row = (long) source * size;
+            dist.asSlice(4 * row, 4L * size).copyFrom(MemorySegment.ofArray(search.distances()));
+            if (shortHops) {
+                for (int to = 0; to < size; to++) {
+                    narrow[to] = (short) (hops[to] == -1 ? NO_HOP : hops[to]);
+                }
+                next.asSlice(2 * row, 2L * size).copyFrom(MemorySegment.ofArray(narrow));
+            } else {
+                next.asSlice(4 * row, 4L * size).copyFrom(MemorySegment.ofArray(hops));
+            }
+        }
+    }
+
+    /*
+     * The first room after source on the tree path to each room: the room itself
+     * when its predecessor is source, else its predecessor's. Chains are walked
+     * up to the first room already known and filled on the way back down.
+     */
+    private static void firstHops(int source, int[] dist, int[] pred, int[] hops, int[] chain) {
+        int unknown = -2;
+        Arrays.fill(hops, unknown);
+        hops[source] = -1;
+
+        for (int to = 0; to < hops.length; to++) {
+            int length = 0;
+            int at = to;
+            while (hops[at] == unknown) {
+                if (dist[at] == Integer.MAX_VALUE) {
+                    hops[at] = -1;
+                } else if (pred[at] == source) {
+                    hops[at] = at;
+                } else {
+                    chain[length++] = at;
+                    at = pred[at];
+                }
+            }
+            while (length > 0) {
+                hops[chain[--length]] = hops[at];
+            }
+        }
+    }
+
+    /**
+     * Repairs the tables after the edge from -> to was lowered to weight, the
+     * same single pass as DungeonMap.decreaseEdge over the heap tables: a pair
+     * that improves goes i -> from, over the edge, then to -> j, so only rows
+     * that reach from and columns reached from to are swept. Row to can't
+     * change, and is read into the heap once.
+     *
+     * @return Number of (i, j) cells whose distance improved.
+     */
+    public int decreaseEdge(int from, int to, int weight) {
+        if (distance(from, to) <= weight) {
+            return 0; // the edge wasn't on any shortest path
+        }
+
+        int[] toRow = new int[size];
+        MemorySegment.ofArray(toRow).copyFrom(dist.asSlice(4L * to * size, 4L * size));
+
+        int[] sinks = new int[size];
+        int sinkCount = 0;
+        for (int j = 0; j < size; j++) {
+            if (toRow[j] != Integer.MAX_VALUE) {
+                sinks[sinkCount++] = j;
+            }
+        }
+
+        int changed = 0;
+        for (int i = 0; i < size; i++) {
+            int toFrom = distance(i, from);
+            if (toFrom == Integer.MAX_VALUE) {
+                continue;
+            }
+            int viaEdge = toFrom + weight;
+            int hop = i == from ? to : nextHop(i, from);
+            long row = (long) i * size;
+
+            for (int t = 0; t < sinkCount; t++) {
+                int j = sinks[t];
+                int candidate = viaEdge + toRow[j];
+                if (i != j && candidate < MemoryAccess.getIntAtIndex(dist, row + j)) {
+                    MemoryAccess.setIntAtIndex(dist, row + j, candidate);
+                    setNextHop(row + j, hop);
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void setNextHop(long cell, int hop) {
+        if (shortHops) {
+            MemoryAccess.setShortAtIndex(next, cell, (short) (hop == -1 ? NO_HOP : hop));
+        } else {
+            MemoryAccess.setIntAtIndex(next, cell, hop);
+        }
+    }
+
+    /**
+     * Marks the rows out of date, e.g. after paths were added. They are kept
+     * until the next fill.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @return True before the first fill and after invalidate.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    CsrGraph graph() {
+        return filledFrom;
+    }
+
+    /**
+     * @return Whether next hops are stored as unsigned shorts.
+     */
+    public boolean hasShortNextHops() {
+        return shortHops;
+    }
+
+    /**
+     * @return Bytes held outside the heap by both tables.
+     */
+    public long byteSize() {
+        return dist.byteSize() + next.byteSize();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        return MemoryAccess.getIntAtIndex(dist, (long) from * size + to);
+    }
+
+    @Override
+    public int nextHop(int from, int to) {
+        long cell = (long) from * size + to;
+        if (shortHops) {
+            int hop = MemoryAccess.getShortAtIndex(next, cell) & 0xFFFF;
+            return hop == NO_HOP ? -1 : hop;
+        }
+        return MemoryAccess.getIntAtIndex(next, cell);
+    }
+
+    /**
+     * Frees the native memory or unmaps the file. The table can't be read
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        scope.close();
+    }
+}
@@ -0,0 +1,482 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Blocked Floyd-Warshall for dungeons whose tables don't fit in memory. The
+ * tables are cut into square tiles stored one after another in a file, and the
+ * three phases of FloydWarshallKernel.runBlocked stream tiles through a pool
+ * holding at most a fixed budget of them in memory. The result is read straight
+ * from the file, so it serves paths like a snapshot's tables.
+ *
+ * Layout, all big-endian:
+ *
+ * <pre>
+ * header   magic, version, n, block, padded to HEADER_BYTES
+ * tiles    for each tile row, for each tile column:
+ *          dist[block * block] (packed longs), next[block * block] (ints)
+ * </pre>
+ *
+ * Cells are packed like FloydWarshallKernel's and relaxed in the same order,
+ * so the tables come out the same as the in-memory kernel with this block
+ * size. Rooms are padded up to a whole number of tiles; the padding has no
+ * edges and is never read back.
+ *
+ * Each tile is a contiguous run of the file, mapped in windows of whole tiles,
+ * and phase 3 walks tile rows in file order, so tiles are read and written
+ * sequentially. The pivot tile row stays in the pool and every other tile is
+ * written back as soon as a phase is done with it, which takes a tile per tile
+ * column plus three; blockFor picks the largest tile that allows it within a
+ * memory budget.
+ *
+ * Computing is single threaded. Reading the finished tables is safe from any
+ * thread.
+ *
+ * @author Evann Hall
+ *
+ */
+public class OutOfCoreFloydWarshall implements ShortestPathTable {
+
+    private static final Logger logger = Logger.getLogger(OutOfCoreFloydWarshall.class.getName());
+
+    public static final int MAGIC = 0x44474657; // "DGFW"
+    public static final int VERSION = 1;
+
+    /*
+     * One page, so tiles start page aligned.
+     */
+    private static final int HEADER_BYTES = 4096;
+
+    public static final int MIN_BLOCK = 16;
+    public static final int MAX_BLOCK = 512;
+
+    /*
+     * Windows hold whole tiles and are at most 1 GB.
+     */
+    private static final long WINDOW = 1L << 30;
+
+    private static final long INF = FloydWarshallKernel.INF;
+
+    private final int size;
+    private final int block;
+    private final int blocks;
+    private final int cells;
+    private final long tileBytes;
+    private final int tilesPerWindow;
+    private final MappedByteBuffer[] windows;
+
+    private TilePool pool;
+
+    private OutOfCoreFloydWarshall(int size, int block, MappedByteBuffer[] windows) {
+        this.size = size;
+        this.block = block;
+        this.blocks = (size + block - 1) / block;
+        this.cells = block * block;
+        this.tileBytes = tileBytes(block);
+        this.tilesPerWindow = tilesPerWindow(block);
+        this.windows = windows;
+    }
+
+    private static long tileBytes(int block) {
+        return 12L * block * block;
+    }
+
+    private static int tilesPerWindow(int block) {
+        return (int) Math.max(1, WINDOW / tileBytes(block));
+    }
+
+    /**
+     * @return The largest power of two tile edge, between MIN_BLOCK and
+     *         MAX_BLOCK, whose pivot tile row plus three tiles fit in
+     *         memoryBudget bytes.
+     */
+    public static int blockFor(int size, long memoryBudget) {
+        int block = MAX_BLOCK;
+        while (block > MIN_BLOCK && poolBytes(size, block) > memoryBudget) {
+            block /= 2;
+        }
+        return block;
+    }
+
+    private static long poolBytes(int size, int block) {
+        return ((size + block - 1) / block + 3L) * tileBytes(block);
+    }
+
+    /**
+     * Runs Floyd-Warshall on graph's current weights with the tables in file,
+     * which is created or overwritten.
+     *
+     * @param memoryBudget Bytes of tiles to keep in memory, at least three tiles
+     *                     are always kept.
+     * @throws IOException If the file can't be written.
+     */
+    public static OutOfCoreFloydWarshall run(CsrGraph graph, Path file, long memoryBudget) throws IOException {
+        int n = graph.size();
+        int block = blockFor(n, memoryBudget);
+        int blocks = (n + block - 1) / block;
+        int poolTiles = (int) Math.max(3, Math.min(Integer.MAX_VALUE, memoryBudget / tileBytes(block)));
+
+        OutOfCoreFloydWarshall tables;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(block);
+            header.clear();
+            channel.write(header, 0);
+
+            tables = new OutOfCoreFloydWarshall(n, block,
+                    mapWindows(channel, FileChannel.MapMode.READ_WRITE, (long) blocks * blocks, block));
+        }
+
+        logger.info("Starting out-of-core Floyd-Warshall for " + n + " rooms in " + blocks + "x" + blocks
+                + " tiles of " + block + ", " + poolTiles + " tiles in memory");
+        tables.pool = tables.new TilePool(poolTiles);
+        try {
+            tables.initialize(graph);
+            tables.runBlocked();
+            tables.pool.flush();
+            logger.info("Out-of-core Floyd-Warshall read " + tables.pool.reads + " tiles and wrote "
+                    + tables.pool.writes);
+        } finally {
+            tables.pool = null;
+        }
+
+        for (MappedByteBuffer window : tables.windows) {
+            window.force();
+        }
+        return tables;
+    }
+
+    /**
+     * Opens tables written by run, for reading.
+     *
+     * @throws IOException If the file isn't out-of-core tables of this version or
+     *                     is truncated.
+     */
+    public static OutOfCoreFloydWarshall open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is too short to hold out-of-core Floyd-Warshall tables");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not out-of-core Floyd-Warshall tables");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is tables version " + version + ", expected " + VERSION);
+            }
+            int n = header.getInt();
+            int block = header.getInt();
+            if (n < 0 || block < MIN_BLOCK || block > MAX_BLOCK) {
+                throw new IOException(file + " has a corrupt header");
+            }
+
+            long tiles = (long) ((n + block - 1) / block) * ((n + block - 1) / block);
+            if (channel.size() != HEADER_BYTES + tiles * tileBytes(block)) {
+                throw new IOException(file + " is truncated or has trailing data");
+            }
+            return new OutOfCoreFloydWarshall(n, block,
+                    mapWindows(channel, FileChannel.MapMode.READ_ONLY, tiles, block));
+        }
+    }
+
+    private static MappedByteBuffer[] mapWindows(FileChannel channel, FileChannel.MapMode mode, long tiles,
+            int block) throws IOException {
+        int perWindow = tilesPerWindow(block);
+        int count = (int) ((tiles + perWindow - 1) / perWindow);
+        MappedByteBuffer[] windows = new MappedByteBuffer[count];
+        for (int w = 0; w < count; w++) {
+            long first = (long) w * perWindow;
+            long length = Math.min(perWindow, tiles - first) * tileBytes(block);
+            windows[w] = channel.map(mode, HEADER_BYTES + first * tileBytes(block), length);
+        }
+        return windows;
+    }
+
+    /*
+     * Writes every tile in file order: INF everywhere, 0 on the diagonal and the
+     * edges of the rows in the tile. Targets are sorted within a row, so each
+     * row's edges are taken tile by tile from a cursor.
+     */
+    private void initialize(CsrGraph graph) {
+        int[] cursor = new int[block];
+        for (int bi = 0; bi < blocks; bi++) {
+            int i0 = bi * block;
+            for (int r = 0; r < block; r++) {
+                cursor[r] = i0 + r < size ? graph.firstEdge(i0 + r) : 0;
+            }
+
+            for (int bj = 0; bj < blocks; bj++) {
+                int j0 = bj * block;
+                Tile tile = pool.create((long) bi * blocks + bj);
+                Arrays.fill(tile.dist, INF);
+                Arrays.fill(tile.next, -1);
+
+                for (int r = 0; r < block && i0 + r < size; r++) {
+                    int i = i0 + r;
+                    if (bi == bj) {
+                        tile.dist[r * block + r] = 0;
+                    }
+                    for (; cursor[r] < graph.endEdge(i) && graph.target(cursor[r]) < j0 + block; cursor[r]++) {
+                        int j = graph.target(cursor[r]);
+                        if (i != j) {
+                            tile.dist[r * block + j - j0] = FloydWarshallKernel.pack(graph.weight(cursor[r]), 1);
+                            tile.next[r * block + j - j0] = j;
+                        }
+                    }
+                }
+                tile.dirty = true;
+            }
+        }
+    }
+
+    /*
+     * FloydWarshallKernel.runBlocked, a tile at a time through the pool. The
+     * pivot tile row stays resident for phase 3; every other tile is written
+     * back as soon as the phase is done with it, so plain LRU never gets the
+     * chance to evict the pivot row in favour of tiles that won't be read again.
+     */
+    private void runBlocked() {
+        for (int b = 0; b < blocks; b++) {
+            // Phase 1: the diagonal tile depends only on itself
+            relax(b, b, b, b, b, b, true);
+
+            // Phase 2: tiles in the same block row and block column
+            for (int t = 0; t < blocks; t++) {
+                if (t == b) {
+                    continue;
+                }
+                relax(b, t, b, b, b, t, true);
+                relax(t, b, t, b, b, b, false);
+            }
+
+            // Phase 3: every remaining tile, using the row and column tiles above
+            for (int ib = 0; ib < blocks; ib++) {
+                if (ib == b) {
+                    continue;
+                }
+                for (int jb = 0; jb < blocks; jb++) {
+                    if (jb != b) {
+                        relax(ib, jb, ib, b, b, jb, false);
+                    }
+                }
+                pool.evict((long) ib * blocks + b);
+            }
+        }
+    }
+
+    /*
+     * Relaxes tile (ci, cj) through the pivots k of the current block, reading
+     * dist[i][k] from tile (ai, ak) and dist[k][j] from tile (bk, bj).
+     */
+    private void relax(int ci, int cj, int ai, int ak, int bk, int bj, boolean keep) {
+        long index = (long) ci * blocks + cj;
+        Tile c = pool.pin(index);
+        Tile a = pool.pin((long) ai * blocks + ak);
+        Tile b = pool.pin((long) bk * blocks + bj);
+        try {
+            relaxTile(c, a, b, block);
+            c.dirty = true;
+        } finally {
+            c.pins--;
+            a.pins--;
+            b.pins--;
+        }
+        if (!keep) {
+            pool.evict(index);
+        }
+    }
+
+    private static void relaxTile(Tile c, Tile a, Tile b, int block) {
+        for (int k = 0; k < block; k++) {
+            int kRow = k * block;
+            for (int i = 0; i < block; i++) {
+                int iRow = i * block;
+                long dik = a.dist[iRow + k];
+                if (dik == INF) {
+                    continue;
+                }
+                int nik = a.next[iRow + k];
+                if (FloydWarshallKernel.VECTORIZED) {
+                    VectorMinPlus.relaxRow(c.dist, c.next, iRow, b.dist, kRow, 0, block, dik, nik);
+                    continue;
+                }
+                for (int j = 0; j < block; j++) {
+                    long candidate = dik + b.dist[kRow + j];
+                    if (candidate < c.dist[iRow + j]) {
+                        c.dist[iRow + j] = candidate;
+                        c.next[iRow + j] = nik;
+                    }
+                }
+            }
+        }
+    }
+
+    private long tileOf(int from, int to) {
+        return (long) (from / block) * blocks + to / block;
+    }
+
+    private int cellOf(int from, int to) {
+        return (from % block) * block + to % block;
+    }
+
+    private int tileStart(long tile) {
+        return (int) ((tile % tilesPerWindow) * tileBytes);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Tile edge length the tables were computed with.
+     */
+    public int block() {
+        return block;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        long tile = tileOf(from, to);
+        return FloydWarshallKernel.distance(
+                windows[(int) (tile / tilesPerWindow)].getLong(tileStart(tile) + 8 * cellOf(from, to)));
+    }
+
+    @Override
+    public int nextHop(int from, int to) {
+        // A tile's next table follows its dist table
+        long tile = tileOf(from, to);
+        return windows[(int) (tile / tilesPerWindow)].getInt(tileStart(tile) + 8 * cells + 4 * cellOf(from, to));
+    }
+
+    private static final class Tile {
+        final long[] dist;
+        final int[] next;
+        long index = -1;
+        int pins;
+        boolean dirty;
+
+        Tile(int cells) {
+            dist = new long[cells];
+            next = new int[cells];
+        }
+    }
+
+    /*
+     * Least recently used tiles, at most capacity of them. Pinned tiles are in
+     * use by the current relax and are never evicted; dirty ones are written
+     * back on eviction.
+     */
+    private final class TilePool {
+        final int capacity;
+        final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true);
+        long reads;
+        long writes;
+
+        /*
+         * Buffers of the last tile evicted by hand, reused by the next take.
+         */
+        Tile spare;
+
+        TilePool(int capacity) {
+            this.capacity = capacity;
+        }
+
+        Tile pin(long index) {
+            Tile tile = tiles.get(index);
+            if (tile == null) {
+                tile = take(index);
+                load(tile);
+            }
+            tile.pins++;
+            return tile;
+        }
+
+        /*
+         * A tile for index whose contents are about to be written in full.
+         */
+        Tile create(long index) {
+            return take(index);
+        }
+
+        /*
+         * Writes a tile back now if it is resident and not in use.
+         */
+        void evict(long index) {
+            Tile tile = tiles.get(index);
+            if (tile != null && tile.pins == 0) {
+                tiles.remove(index);
+                store(tile);
+                spare = tile;
+            }
+        }
+
+        private Tile take(long index) {
+            Tile tile = spare;
+            spare = null;
+            if (tile == null && tiles.size() >= capacity) {
+                Iterator<Tile> lru = tiles.values().iterator();
+                while (lru.hasNext()) {
+                    Tile candidate = lru.next();
+                    if (candidate.pins == 0) {
+                        lru.remove();
+                        store(candidate);
+                        tile = candidate;
+                        break;
+                    }
+                }
+            }
+            if (tile == null) {
+                tile = new Tile(cells);
+            }
+            tile.index = index;
+            tile.dirty = false;
+            tiles.put(index, tile);
+            return tile;
+        }
+
+        private void load(Tile tile) {
+            ByteBuffer bytes = slice(tile.index);
+            bytes.asLongBuffer().get(tile.dist);
+            bytes.position(8 * cells);
+            bytes.asIntBuffer().get(tile.next);
+            reads++;
+        }
+
+        private void store(Tile tile) {
+            if (!tile.dirty) {
+                return;
+            }
+            ByteBuffer bytes = slice(tile.index);
+            bytes.asLongBuffer().put(tile.dist);
+            bytes.position(8 * cells);
+            bytes.asIntBuffer().put(tile.next);
+            tile.dirty = false;
+            writes++;
+        }
+
+        private ByteBuffer slice(long index) {
+            int start = tileStart(index);
+            return windows[(int) (index / tilesPerWindow)].duplicate().position(start).limit(start + (int) tileBytes)
+                    .slice();
+        }
+
+        void flush() {
+            for (Tile tile : tiles.values()) {
+                store(tile);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A path through the dungeon kept as a primitive int[] of rooms, with its cost
+ * and the positions along it where keys get picked up.
+ * 
+ * The arrays only grow, so a PathResult that is cleared and refilled for every
+ * query stops allocating once it has seen the longest path. Cost means whatever
+ * the producer minimised: total edge weight for the key-ignoring Floyd-Warshall
+ * paths, number of moves for solves.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class PathResult {
+
+    private int[] rooms;
+    private int length;
+    private int cost;
+
+    /*
+     * Indices into rooms, in walking order.
+     */
+    private int[] keyPickups = new int[4];
+    private int keyPickupCount;
+
+    public PathResult() {
+        this(16);
+    }
+
+    public PathResult(int capacity) {
+        this.rooms = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * @return A result holding a copy of path, with moves as the cost.
+     */
+    public static PathResult of(int[] path) {
+        PathResult result = new PathResult(path.length);
+        for (int room : path) {
+            result.add(room);
+        }
+        result.setCost(path.length - 1);
+        return result;
+    }
+
+    public void clear() {
+        length = 0;
+        cost = 0;
+        keyPickupCount = 0;
+    }
+
+    public void add(int room) {
+        if (length == rooms.length) {
+            rooms = Arrays.copyOf(rooms, rooms.length * 2);
+        }
+        rooms[length++] = room;
+    }
+
+    /**
+     * Reverses the rooms in place, for paths built by walking predecessors back
+     * from the target. Call before recording key pickups.
+     */
+    public void reverse() {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int room = rooms[i];
+            rooms[i] = rooms[j];
+            rooms[j] = room;
+        }
+    }
+
+    /**
+     * Notes that the key in the room at index is picked up there.
+     */
+    public void addKeyPickup(int index) {
+        if (keyPickupCount == keyPickups.length) {
+            keyPickups = Arrays.copyOf(keyPickups, keyPickups.length * 2);
+        }
+        keyPickups[keyPickupCount++] = index;
+    }
+
+    public void setCost(int cost) {
+        this.cost = cost;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public int room(int index) {
+        return rooms[index];
+    }
+
+    public int first() {
+        return rooms[0];
+    }
+
+    public int last() {
+        return rooms[length - 1];
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    public int keyPickupCount() {
+        return keyPickupCount;
+    }
+
+    /**
+     * @return Index into the path of the i-th key picked up.
+     */
+    public int keyPickup(int i) {
+        return keyPickups[i];
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(rooms, length);
+    }
+
+    /**
+     * @return The rooms boxed, for the older ArrayList based methods.
+     */
+    public ArrayList<Integer> toList() {
+        ArrayList<Integer> list = new ArrayList<Integer>(length);
+        for (int i = 0; i < length; i++) {
+            list.add(rooms[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Same format as ArrayList.toString, so log lines don't change.
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(length * 4 + 2).append('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append(rooms[i]);
+        }
+        return s.append(']').toString();
+    }
+}
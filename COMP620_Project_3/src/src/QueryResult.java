@@ -0,0 +1,84 @@
+package src;
+
+/**
+ * Outcome of one (start, end) query in a batch.
+ * 
+ * @author Evann Hall
+ *
+ */
+public class QueryResult {
+
+    public enum Status {
+        /* A path was found; see getPath and getCost */
+        SOLVED,
+        /* The exit can't be reached with the keys in this dungeon */
+        UNSOLVABLE,
+        /* The query itself was bad or the solve threw; see getError */
+        FAILED
+    }
+
+    private final int start;
+    private final int end;
+    private final Status status;
+    private final int[] path;
+    private final String error;
+
+    private QueryResult(int start, int end, Status status, int[] path, String error) {
+        this.start = start;
+        this.end = end;
+        this.status = status;
+        this.path = path;
+        this.error = error;
+    }
+
+    static QueryResult of(int start, int end, int[] path) {
+        return new QueryResult(start, end, path == null ? Status.UNSOLVABLE : Status.SOLVED, path, null);
+    }
+
+    static QueryResult failed(int start, int end, String error) {
+        return new QueryResult(start, end, Status.FAILED, null, error);
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Rooms walked through in order, or null unless SOLVED. Shared
+     *         between duplicate queries of a batch, do not modify.
+     */
+    public int[] getPath() {
+        return path;
+    }
+
+    /**
+     * @return Number of moves, or -1 unless SOLVED.
+     */
+    public int getCost() {
+        return path == null ? -1 : path.length - 1;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        switch (status) {
+        case SOLVED:
+            return start + " -> " + end + ": cost " + getCost();
+        case UNSOLVABLE:
+            return start + " -> " + end + ": unsolvable";
+        default:
+            return start + " -> " + end + ": failed, " + error;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ShortestPathTable that computes rows on demand instead of all n^2 cells up
+ * front. The first query from a room runs a BucketQueueSearch from it and keeps
+ * the distances and predecessors; the least recently used rows are dropped
+ * beyond maxRows, so memory stays at maxRows * n * 8 bytes however big the
+ * dungeon gets.
+ *
+ * A solve only ever asks from the start room and the key rooms it visits, so a
+ * few rows usually cover it.
+ *
+ * Rows are for the weights the graph had when they were computed; call
+ * invalidate after changing any. Safe to share between threads, misses are
+ * computed one at a time.
+ *
+ * @author Evann Hall
+ *
+ */
+public class ShortestPathRowCache implements ShortestPathTable {
+
+    private final CsrGraph graph;
+    private final int maxRows;
+    private final BucketQueueSearch search;
+    private final Map<Integer, Row> rows;
+
+    private long hits;
+    private long misses;
+
+    private static final class Row {
+        final int[] dist;
+        final int[] pred;
+
+        Row(int[] dist, int[] pred) {
+            this.dist = dist;
+            this.pred = pred;
+        }
+    }
+
+    /**
+     * @param maxRows Most source rows to keep, at least 1.
+     */
+    public ShortestPathRowCache(CsrGraph graph, int maxRows) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("Row cache must hold at least 1 row, got " + maxRows);
+        }
+        this.graph = graph;
+        this.maxRows = maxRows;
+        this.search = new BucketQueueSearch(graph);
+        this.rows = new LinkedHashMap<Integer, Row>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+                return size() > ShortestPathRowCache.this.maxRows;
+            }
+        };
+    }
+
+    /**
+     * @return How many rows of n rooms fit in budgetBytes, at least 1.
+     */
+    public static int rowsForBudget(int size, long budgetBytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / (8L * Math.max(1, size))));
+    }
+
+    private synchronized Row row(int source) {
+        Row row = rows.get(source);
+        if (row != null) {
+            hits++;
+            return row;
+        }
+
+        // Rows are never written once cached, so readers can use them outside the lock
+        misses++;
+        search.run(source);
+        row = new Row(search.distances().clone(), search.predecessors().clone());
+
+        rows.put(source, row);
+        return row;
+    }
+
+    @Override
+    public int size() {
+        return graph.size();
+    }
+
+    CsrGraph graph() {
+        return graph;
+    }
+
+    public int maxRows() {
+        return maxRows;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        return row(from).dist[to];
+    }
+
+    /**
+     * Rows hold predecessors, so this walks back from to and costs the length of
+     * the path. path() reconstructs a whole path in that same time.
+     */
+    @Override
+    public int nextHop(int from, int to) {
+        Row row = row(from);
+        if (from == to || row.dist[to] == Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        int at = to;
+        while (row.pred[at] != from) {
+            at = row.pred[at];
+        }
+        return at;
+    }
+
+    @Override
+    public boolean path(int from, int to, PathResult path) {
+        path.clear();
+        Row row = row(from);
+        if (row.dist[to] == Integer.MAX_VALUE) {
+            return false;
+        }
+
+        for (int at = to; at != -1; at = row.pred[at]) {
+            path.add(at);
+        }
+        path.reverse();
+        path.setCost(row.dist[to]);
+        return true;
+    }
+
+    /**
+     * Drops every row, e.g. after a key pickup lowered some weights.
+     */
+    public synchronized void invalidate() {
+        rows.clear();
+    }
+
+    public synchronized int cachedRows() {
+        return rows.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
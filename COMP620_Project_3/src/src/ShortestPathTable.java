@@ -0,0 +1,45 @@
+package src;
+
+/**
+ * Read side of an all-pairs shortest path result: the distance between two rooms
+ * and the first room to step into on a shortest path between them. This is what
+ * memoizedOptimalPath reconstructs paths from, whatever the tables are stored in.
+ * 
+ * @author Evann Hall
+ *
+ */
+public interface ShortestPathTable {
+
+    int size();
+
+    /**
+     * @return Shortest distance from -> to, or Integer.MAX_VALUE if there is none.
+     */
+    int distance(int from, int to);
+
+    /**
+     * @return The room after from on a shortest path to to, or -1 if there is no
+     *         path (or from == to).
+     */
+    int nextHop(int from, int to);
+
+    /**
+     * Reconstructs the shortest path from -> to into path, replacing what it
+     * held. Its cost is set to the distance.
+     * 
+     * @return False, leaving path empty, if to can't be reached from from.
+     */
+    default boolean path(int from, int to, PathResult path) {
+        path.clear();
+        if (from != to && nextHop(from, to) == -1) {
+            return false;
+        }
+
+        for (int u = from; u != to; u = nextHop(u, to)) {
+            path.add(u);
+        }
+        path.add(to);
+        path.setCost(distance(from, to));
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+package src;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of the Floyd-Warshall row update. Only FloydWarshallKernel
+ * touches this class, and only after checking the incubator module is present,
+ * so the JVM never tries to link it when running without
+ * --add-modules jdk.incubator.vector.
+ * 
+ * @author Evann Hall
+ *
+ */
+class VectorMinPlus {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /*
+     * The next table is int, so it needs the int species with as many lanes as
+     * the long one for the masks to line up.
+     */
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class,
+            VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+    private VectorMinPlus() {
+    }
+
+    /**
+     * For every j in [j0, j1): if dik + dist[k][j] beats dist[i][j], take it and
+     * route the next hop through nik. Packed cells never overflow when added, so
+     * there are no sentinel branches, just a compare and two masked blends.
+     */
+    static void relaxRow(long[] dist, int[] next, int iRow, int kRow, int j0, int j1, long dik, int nik) {
+        relaxRow(dist, next, iRow, dist, kRow, j0, j1, dik, nik);
+    }
+
+    /**
+     * Same, with row k read from a separate table, e.g. another tile.
+     */
+    static void relaxRow(long[] dist, int[] next, int iRow, long[] kDist, int kRow, int j0, int j1, long dik,
+            int nik) {
+        LongVector throughK = LongVector.broadcast(LONGS, dik);
+        IntVector hop = IntVector.broadcast(INTS, nik);
+
+        int j = j0;
+        int bound = j0 + LONGS.loopBound(j1 - j0);
+        for (; j < bound; j += LONGS.length()) {
+            LongVector candidate = LongVector.fromArray(LONGS, kDist, kRow + j).add(throughK);
+            LongVector current = LongVector.fromArray(LONGS, dist, iRow + j);
+            VectorMask<Long> better = candidate.compare(VectorOperators.LT, current);
+
+            if (better.anyTrue()) {
+                current.blend(candidate, better).intoArray(dist, iRow + j);
+                IntVector.fromArray(INTS, next, iRow + j).blend(hop, better.cast(INTS)).intoArray(next, iRow + j);
+            }
+        }
+
+        for (; j < j1; j++) {
+            long candidate = dik + kDist[kRow + j];
+            if (candidate < dist[iRow + j]) {
+                dist[iRow + j] = candidate;
+                next[iRow + j] = nik;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Snapshots and contraction hierarchies written to disk and read back, and the
+ * checksums that reject them once a byte or their source files change.
+ *
+ * @author Evann Hall
+ *
+ */
+class CompiledFormatTest {
+
+    @TempDir
+    Path dir;
+
+    private Path graphFile;
+    private Path keyFile;
+    private DungeonMap map;
+    private int[][] expected;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        graphFile = dir.resolve("graph.txt");
+        keyFile = dir.resolve("keys.txt");
+        new DungeonGenerator().rooms(120).keys(4, 2).seed(13).write(graphFile, keyFile);
+        map = new DungeonMap(graphFile, keyFile, Level.OFF);
+        expected = TestDungeons.floydWarshall(map.graph());
+    }
+
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        Path file = dir.resolve("dungeon.snap");
+        DungeonSnapshot.compile(graphFile, keyFile, file);
+
+        DungeonSnapshot snapshot = DungeonSnapshot.open(file, graphFile, keyFile);
+        snapshot.verifyTables();
+        assertEquals(map.startVertex, snapshot.getStartVertex());
+        assertEquals(map.endVertex, snapshot.getEndVertex());
+        TestDungeons.assertMatches(expected, map.graph(), snapshot);
+
+        CsrGraph graph = snapshot.graph();
+        KeyTable keys = snapshot.keys();
+        for (int room = 0; room < map.size; room++) {
+            for (int to = 0; to < map.size; to++) {
+                assertEquals(map.graph().getWeight(room, to), graph.getWeight(room, to), "edge " + room + " -> " + to);
+                assertEquals(map.keyTable().getReduction(room, to), keys.getReduction(room, to),
+                        "key " + room + " -> " + to);
+            }
+        }
+    }
+
+    @Test
+    void snapshotRejectsCorruptGraph() throws IOException {
+        Path file = dir.resolve("dungeon.snap");
+        DungeonSnapshot.compile(graphFile, keyFile, file);
+
+        flipByte(file, 64); // just past the header, in the room offsets
+        IOException error = assertThrows(IOException.class, () -> DungeonSnapshot.open(file));
+        assertTrue(error.getMessage().contains("checksum"), error.getMessage());
+    }
+
+    @Test
+    void snapshotRejectsCorruptTables() throws IOException {
+        Path file = dir.resolve("dungeon.snap");
+        DungeonSnapshot.compile(graphFile, keyFile, file);
+
+        flipByte(file, Files.size(file) - 1); // last next hop
+        DungeonSnapshot snapshot = DungeonSnapshot.open(file);
+        assertThrows(IOException.class, snapshot::verifyTables);
+    }
+
+    @Test
+    void snapshotRejectsChangedSource() throws IOException {
+        Path file = dir.resolve("dungeon.snap");
+        DungeonSnapshot.compile(graphFile, keyFile, file);
+
+        Files.writeString(keyFile, "\n", StandardOpenOption.APPEND);
+        assertThrows(IOException.class, () -> DungeonSnapshot.open(file, graphFile, keyFile));
+    }
+
+    @Test
+    void hierarchyRoundTrip() throws IOException {
+        ContractionHierarchy built = ContractionHierarchy.build(map.graph());
+        Path written = dir.resolve("written.ch");
+        built.write(written);
+
+        ContractionHierarchy read = ContractionHierarchy.open(written);
+        assertTrue(read.matches(map.graph()));
+        assertEquals(built.edgeCount(), read.edgeCount());
+        TestDungeons.assertMatches(expected, map.graph(), read);
+
+        Path compiled = dir.resolve("compiled.ch");
+        ContractionHierarchy.compile(graphFile, keyFile, compiled);
+        TestDungeons.assertMatches(expected, map.graph(), ContractionHierarchy.open(compiled, graphFile, keyFile));
+    }
+
+    @Test
+    void hierarchyRejectsCorruptBody() throws IOException {
+        Path file = dir.resolve("dungeon.ch");
+        ContractionHierarchy.build(map.graph()).write(file);
+
+        flipByte(file, Files.size(file) - 1); // last edge's second half
+        IOException error = assertThrows(IOException.class, () -> ContractionHierarchy.open(file));
+        assertTrue(error.getMessage().contains("checksum"), error.getMessage());
+    }
+
+    @Test
+    void hierarchyRejectsChangedSource() throws IOException {
+        Path file = dir.resolve("dungeon.ch");
+        ContractionHierarchy.compile(graphFile, keyFile, file);
+
+        Files.writeString(graphFile, "\n", StandardOpenOption.APPEND);
+        assertThrows(IOException.class, () -> ContractionHierarchy.open(file, graphFile, keyFile));
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) position] ^= 0x5A;
+        Files.write(file, bytes);
+    }
+}
@@ -0,0 +1,108 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Hits, misses, eviction and change detection in CompiledMapCache.
+ *
+ * @author Evann Hall
+ *
+ */
+class CompiledMapCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hitsShareOneCompiledMap() throws IOException {
+        Path[] files = generate("a", 1);
+        CompiledMapCache cache = new CompiledMapCache(2);
+
+        FrozenDungeon first = cache.get(files[0], files[1]);
+        assertSame(first, cache.get(files[0], files[1]));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void identicalContentSharesAnEntry() throws IOException {
+        Path[] original = generate("a", 1);
+        Path[] copy = { dir.resolve("copy-graph.txt"), dir.resolve("copy-keys.txt") };
+        Files.copy(original[0], copy[0]);
+        Files.copy(original[1], copy[1]);
+
+        CompiledMapCache cache = new CompiledMapCache(2);
+        assertSame(cache.get(original[0], original[1]), cache.get(copy[0], copy[1]));
+    }
+
+    @Test
+    void editedFilesAreRecompiled() throws IOException {
+        Path[] files = generate("a", 1);
+        CompiledMapCache cache = new CompiledMapCache(2);
+        String before = cache.register(files[0], files[1]);
+        FrozenDungeon first = cache.get(files[0], files[1]);
+
+        // Same size and timestamp as before: still trusted without rehashing
+        FileTime modified = Files.getLastModifiedTime(files[1]);
+        byte[] keys = Files.readAllBytes(files[1]);
+        keys[0] = (byte) (keys[0] == '1' ? '2' : '1');
+        Files.write(files[1], keys);
+        Files.setLastModifiedTime(files[1], modified);
+        assertEquals(before, cache.register(files[0], files[1]));
+
+        Files.writeString(files[1], "\n", StandardOpenOption.APPEND);
+        assertNotEquals(before, cache.register(files[0], files[1]));
+        assertNotSame(first, cache.get(files[0], files[1]));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        Path[] a = generate("a", 1);
+        Path[] b = generate("b", 2);
+        Path[] c = generate("c", 3);
+        CompiledMapCache cache = new CompiledMapCache(2);
+
+        FrozenDungeon first = cache.get(a[0], a[1]);
+        cache.get(b[0], b[1]);
+        cache.get(a[0], a[1]); // b is now the eldest
+        cache.get(c[0], c[1]);
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get(a[0], a[1]));
+    }
+
+    @Test
+    void hashSeparatesTheTwoFiles() throws IOException {
+        Path ab = Files.writeString(dir.resolve("ab"), "ab");
+        Path c = Files.writeString(dir.resolve("c"), "c");
+        Path a = Files.writeString(dir.resolve("a"), "a");
+        Path bc = Files.writeString(dir.resolve("bc"), "bc");
+        assertNotEquals(CompiledMapCache.contentHash(ab, c), CompiledMapCache.contentHash(a, bc));
+        assertEquals(CompiledMapCache.contentHash(ab, c), CompiledMapCache.contentHash(ab, c));
+    }
+
+    @Test
+    void missingFilesThrow() throws IOException {
+        Path[] files = generate("a", 1);
+        CompiledMapCache cache = new CompiledMapCache(1);
+        assertThrows(IOException.class, () -> cache.get(files[0], dir.resolve("missing.txt")));
+        assertThrows(IllegalArgumentException.class, () -> new CompiledMapCache(0));
+    }
+
+    private Path[] generate(String name, long seed) throws IOException {
+        Path[] files = { dir.resolve(name + "-graph.txt"), dir.resolve(name + "-keys.txt") };
+        new DungeonGenerator().rooms(30).keys(2, 1).seed(seed).write(files[0], files[1]);
+        return files;
+    }
+}
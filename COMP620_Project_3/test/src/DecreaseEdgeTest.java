@@ -0,0 +1,87 @@
+package src;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The incremental repair after a key pickup or a lowered edge against
+ * Floyd-Warshall recomputed from scratch on the new weights, for the heap
+ * tables and the off-heap ones.
+ *
+ * @author Evann Hall
+ *
+ */
+class DecreaseEdgeTest {
+
+    @TempDir
+    Path dir;
+
+    private DungeonGenerator generator() {
+        return new DungeonGenerator().rooms(80).degree(DungeonGenerator.Degree.UNIFORM, 3).keys(6, 2).seed(24);
+    }
+
+    @Test
+    void keyPickupsMatchRecompute() throws IOException {
+        DungeonMap repaired = TestDungeons.generate(dir, generator(), "repaired");
+        DungeonMap recomputed = TestDungeons.generate(dir, generator(), "recomputed");
+        repaired.runFloydWarshall();
+
+        for (int room = 0; room < repaired.size; room++) {
+            if (!repaired.keyTable().hasKey(room)) {
+                continue;
+            }
+            repaired.grabKey(room);
+            recomputed.grabKey(room);
+            recomputed.runFloydWarshall();
+
+            TestDungeons.assertMatches(recomputed.floydWarshallMap, repaired.graph(),
+                    new ArrayShortestPathTable(repaired.floydWarshallMap, repaired.floydWarshallNext));
+        }
+    }
+
+    @Test
+    void loweredEdgesMatchRecompute() throws IOException {
+        DungeonMap repaired = TestDungeons.generate(dir, generator(), "repaired");
+        repaired.runFloydWarshall();
+        CsrGraph graph = repaired.graph();
+        Random random = new Random(620);
+
+        for (int step = 0; step < 30; step++) {
+            int from = random.nextInt(graph.size());
+            if (graph.firstEdge(from) == graph.endEdge(from)) {
+                continue;
+            }
+            int edge = graph.firstEdge(from) + random.nextInt(graph.endEdge(from) - graph.firstEdge(from));
+            int weight = graph.weight(edge) / 2;
+            graph.setWeight(edge, weight);
+            repaired.decreaseEdge(from, graph.target(edge), weight);
+
+            TestDungeons.assertMatches(TestDungeons.floydWarshall(graph), graph,
+                    new ArrayShortestPathTable(repaired.floydWarshallMap, repaired.floydWarshallNext));
+        }
+    }
+
+    @Test
+    void offHeapKeyPickupsMatchRecompute() throws IOException {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent(),
+                "needs --add-modules jdk.incubator.foreign");
+
+        DungeonMap repaired = TestDungeons.generate(dir, generator(), "repaired");
+        repaired.useOffHeapShortestPaths(dir.resolve("tables.bin"));
+
+        for (int room = 0; room < repaired.size; room++) {
+            if (!repaired.keyTable().hasKey(room)) {
+                continue;
+            }
+            repaired.grabKey(room);
+            TestDungeons.assertMatches(TestDungeons.floydWarshall(repaired.graph()), repaired.graph(),
+                    repaired.shortestPaths());
+        }
+    }
+}
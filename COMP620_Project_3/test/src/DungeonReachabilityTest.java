@@ -0,0 +1,124 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Reachability verdicts against the brute-force BFS: UNSOLVABLE and SOLVABLE
+ * must never contradict it, and every room of an exact path must be relevant.
+ *
+ * @author Evann Hall
+ *
+ */
+class DungeonReachabilityTest {
+
+    private static final int RANDOM_QUERIES = 40;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @CsvSource({ "40, 2, 4, 1, true, 1", "60, 3, 6, 2, true, 2", "60, 4, 6, 1, false, 3", "40, 2, 4, 1, false, 4",
+            "30, 2, 0, 1, true, 5" })
+    void verdictsMatchBruteForce(int rooms, int degree, int keys, int keysPerDoor, boolean solvable, long seed)
+            throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(rooms)
+                .degree(DungeonGenerator.Degree.FIXED, degree).keys(keys, keysPerDoor).solvable(solvable).seed(seed),
+                "dungeon");
+
+        DungeonReachability.Verdict verdict = check(map, map.startVertex, map.endVertex);
+        if (solvable) {
+            assertNotEquals(DungeonReachability.Verdict.UNSOLVABLE, verdict);
+        } else {
+            assertEquals(DungeonReachability.Verdict.UNSOLVABLE, verdict);
+        }
+
+        Random random = new Random(seed);
+        for (int q = 0; q < RANDOM_QUERIES; q++) {
+            check(map, random.nextInt(rooms), random.nextInt(rooms));
+        }
+    }
+
+    private static DungeonReachability.Verdict check(DungeonMap map, int start, int end) {
+        String query = start + " -> " + end;
+        DungeonReachability.Result result = map.analyze(start, end);
+        int expected = TestDungeons.bruteForceMoves(map.graph(), map.keyTable(), start, end);
+
+        switch (result.verdict()) {
+        case UNSOLVABLE:
+            assertEquals(-1, expected, "unsolvable " + query + " has a way out");
+            return result.verdict();
+        case SOLVABLE:
+            assertNotEquals(-1, expected, "solvable " + query + " has no way out");
+            break;
+        default:
+            break;
+        }
+
+        if (expected != -1) {
+            ArrayList<Integer> path = map.solveDungeonExact(start, end);
+            for (int room : path) {
+                assertTrue(result.isRelevant(room), "room " + room + " on " + query + " not relevant");
+                assertTrue(result.isReachable(room), "room " + room + " on " + query + " not reachable");
+            }
+        }
+        return result.verdict();
+    }
+
+    @Test
+    void keysPastOneWayMovesNeedASearch() throws IOException {
+        // 0 -> 1 is one way, and the key in 1 opens 1 -> 2
+        DungeonMap map = load("3\n0\n2\n0,1,0\n1,2,5\n", "1,5,2\n");
+        DungeonReachability.Result result = map.analyze(0, 2);
+        assertEquals(DungeonReachability.Verdict.UNKNOWN, result.verdict());
+        assertEquals(3, result.relevantRooms());
+        assertEquals(2, TestDungeons.bruteForceMoves(map.graph(), map.keyTable(), 0, 2));
+    }
+
+    @Test
+    void keysInTheStartComponentAreSolvable() throws IOException {
+        // 0 and 1 lead both ways, and the key in 1 opens 0 -> 2
+        DungeonMap map = load("3\n0\n2\n0,1,0\n1,0,0\n0,2,5\n", "1,5,2\n");
+        DungeonReachability.Result result = map.analyze(0, 2);
+        assertEquals(DungeonReachability.Verdict.SOLVABLE, result.verdict());
+        assertTrue(result.rounds() > 0);
+    }
+
+    @Test
+    void keyBehindItsOwnDoorIsUnsolvable() throws IOException {
+        // The key for 0 -> 1 lies in 2, which is only reached through 1
+        DungeonMap map = load("3\n0\n2\n0,1,5\n1,2,0\n", "2,5,1\n");
+        DungeonReachability.Result result = map.analyze(0, 2);
+        assertEquals(DungeonReachability.Verdict.UNSOLVABLE, result.verdict());
+        assertFalse(result.isReachable(2));
+        assertTrue(result.isReachable(0));
+
+        // Holding that key already opens the door
+        BitSet held = new BitSet();
+        held.set(2);
+        DungeonReachability reach = DungeonReachability.of(map.graph(), map.keyTable());
+        assertNotEquals(DungeonReachability.Verdict.UNSOLVABLE, reach.analyze(0, 2, held).verdict());
+        assertNotEquals(DungeonReachability.Verdict.UNSOLVABLE, reach.analyze(0, 2, 1).verdict());
+    }
+
+    private DungeonMap load(String graph, String keys) throws IOException {
+        Path graphFile = Files.writeString(dir.resolve("graph.txt"), graph);
+        Path keyFile = Files.writeString(dir.resolve("keys.txt"), keys);
+        return new DungeonMap(graphFile, keyFile, Level.OFF);
+    }
+}
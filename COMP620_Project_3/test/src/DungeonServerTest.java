@@ -0,0 +1,127 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The server's request parsing and quoting, its answers, and closing it with
+ * clients still connected.
+ *
+ * @author Evann Hall
+ *
+ */
+class DungeonServerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesFlatObjects() {
+        Map<String, String> request = DungeonServer.parseObject(" { \"map\" : \"test1\", \"start\":0,\"end\": -7 } ");
+        assertEquals(Map.of("map", "test1", "start", "0", "end", "-7"), request);
+        assertEquals(Map.of(), DungeonServer.parseObject("{}"));
+    }
+
+    @Test
+    void unescapesStrings() {
+        Map<String, String> request = DungeonServer
+                .parseObject("{\"map\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u0041\"}");
+        assertEquals("a\"b\\c/d\b\f\n\r\t\u00e9A", request.get("map"));
+    }
+
+    @Test
+    void rejectsMalformedRequests() {
+        for (String bad : new String[] { "", "[]", "{\"map\"}", "{\"map\":}", "{\"map\":\"a\" \"b\":1}",
+                "{\"map\":\"a\"", "{\"map\":\"\\x\"}", "{\"map\":\"\\u12\"}", "{\"map\":\"\\u12g4\"}",
+                "{\"map\":true}" }) {
+            assertThrows(IllegalArgumentException.class, () -> DungeonServer.parseObject(bad), bad);
+        }
+    }
+
+    @Test
+    void quoteRoundTrips() {
+        String text = "quote \" backslash \\ newline \n return \r tab \t bell \u0007 nul \u0000 end";
+        String quoted = DungeonServer.quote(text);
+        for (int i = 0; i < quoted.length(); i++) {
+            assertTrue(quoted.charAt(i) >= 0x20, "raw control character in " + quoted);
+        }
+        assertEquals(text, DungeonServer.parseObject("{\"s\":" + quoted + "}").get("s"));
+        assertEquals("null", DungeonServer.quote(null));
+    }
+
+    @Test
+    void answersRequests() throws IOException {
+        try (DungeonServer server = newServer()) {
+            String solved = server.answer("{\"map\":\"generated\"}");
+            assertTrue(solved.contains("\"status\":\"SOLVED\""), solved);
+            assertTrue(solved.contains("\"path\":["), solved);
+
+            String unknown = server.answer("{\"map\":\"missing\"}");
+            assertEquals("{\"map\":\"missing\",\"status\":\"FAILED\",\"error\":\"unknown map\"}", unknown);
+
+            String badRoom = server.answer("{\"map\":\"generated\",\"start\":-1}");
+            assertTrue(badRoom.contains("\"status\":\"FAILED\""), badRoom);
+
+            String badJson = server.answer("{\"map\":");
+            assertTrue(badJson.startsWith("{\"status\":\"FAILED\",\"error\":"), badJson);
+        }
+    }
+
+    @Test
+    void closeDropsOpenConnections() throws Exception {
+        DungeonServer server = newServer();
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        serving.start();
+
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)) {
+            client.setSoTimeout(10_000);
+            out.write("{\"map\":\"generated\"}\n");
+            out.flush();
+            assertTrue(in.readLine().contains("SOLVED"));
+
+            server.close();
+            serving.join(10_000);
+            assertTrue(!serving.isAlive(), "serve() still running after close()");
+
+            // A closed connection reads end of stream or is reset, a live one would time out
+            try {
+                assertNull(in.readLine());
+            } catch (SocketException e) {
+                // reset by the server closing its end
+            }
+        }
+    }
+
+    private DungeonServer newServer() throws IOException {
+        Path graphFile = dir.resolve("graph.txt");
+        Path keyFile = dir.resolve("keys.txt");
+        new DungeonGenerator().rooms(40).keys(2, 1).seed(13).write(graphFile, keyFile);
+        return new DungeonServer(0, Map.of("generated", new Path[] { graphFile, keyFile }), 2);
+    }
+}
@@ -0,0 +1,79 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The blocked kernel on one thread and on a ForkJoinPool, against textbook
+ * Floyd-Warshall. Room counts aren't multiples of the tile size, so the ragged
+ * last tiles are covered too.
+ *
+ * @author Evann Hall
+ *
+ */
+class FloydWarshallKernelTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parallelMatchesSingleThreaded() throws IOException {
+        CsrGraph graph = TestDungeons.generate(dir, new DungeonGenerator().rooms(300)
+                .degree(DungeonGenerator.Degree.UNIFORM, 3).keys(6, 2).seed(44), "dungeon").graph();
+        int n = graph.size();
+        int[][] expected = TestDungeons.floydWarshall(graph);
+
+        for (int block : new int[] { 16, FloydWarshallKernel.DEFAULT_BLOCK, 512 }) {
+            long[] dist = new long[n * n];
+            int[] next = new int[n * n];
+            FloydWarshallKernel.initialize(graph, n, dist, next);
+            FloydWarshallKernel.runBlocked(dist, next, n, block);
+            assertTables(expected, graph, dist, next);
+
+            long[] parallelDist = new long[n * n];
+            int[] parallelNext = new int[n * n];
+            FloydWarshallKernel.initialize(graph, n, parallelDist, parallelNext);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                FloydWarshallKernel.runBlockedParallel(parallelDist, parallelNext, n, block, pool);
+            } finally {
+                pool.shutdown();
+            }
+            assertTables(expected, graph, parallelDist, parallelNext);
+            // Packed cells order ties on hops as well, so the distances agree exactly
+            assertArrayEquals(dist, parallelDist, "block " + block);
+        }
+    }
+
+    @Test
+    void dungeonMapRunsInParallel() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator()
+                .rooms(FloydWarshallKernel.BLOCKED_THRESHOLD + 90).keys(4, 1).seed(45), "dungeon");
+        map.setApspParallelism(4);
+        map.runFloydWarshall();
+        TestDungeons.assertMatches(TestDungeons.floydWarshall(map.graph()), map.graph(),
+                new ArrayShortestPathTable(map.floydWarshallMap, map.floydWarshallNext));
+
+        map.runFloydWarshallUnlocked();
+        map.setApspParallelism(1);
+        int[][] parallelUnlocked = map.floydWarshallUnlockedMap;
+        map.runFloydWarshallUnlocked();
+        for (int i = 0; i < map.size; i++) {
+            assertArrayEquals(map.floydWarshallUnlockedMap[i], parallelUnlocked[i], "row " + i);
+        }
+    }
+
+    private static void assertTables(int[][] expected, CsrGraph graph, long[] dist, int[] next) {
+        int n = graph.size();
+        int[][] distOut = new int[n][n];
+        int[][] nextOut = new int[n][n];
+        FloydWarshallKernel.copyOut(dist, next, n, distOut, nextOut);
+        TestDungeons.assertMatches(expected, graph, new ArrayShortestPathTable(distOut, nextOut));
+    }
+}
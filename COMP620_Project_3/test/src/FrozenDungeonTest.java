@@ -0,0 +1,74 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Paths read from a FrozenDungeon, whether or not it was frozen with tables.
+ *
+ * @author Evann Hall
+ *
+ */
+class FrozenDungeonTest {
+
+    @TempDir
+    Path dir;
+
+    private DungeonMap map;
+    private int[][] expected;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        map = TestDungeons.generate(dir, new DungeonGenerator().rooms(60).keys(4, 1).seed(17), "dungeon");
+        expected = TestDungeons.floydWarshall(map.graph());
+    }
+
+    @Test
+    void optimalPathWithoutTables() {
+        assertPaths(map.freeze());
+    }
+
+    @Test
+    void optimalPathFromTables() {
+        map.runFloydWarshall();
+        assertPaths(map.freeze());
+    }
+
+    private void assertPaths(FrozenDungeon frozen) {
+        KeyTable keys = map.keyTable();
+        PathResult path = new PathResult();
+        for (int from = 0; from < frozen.size(); from++) {
+            for (int to = 0; to < frozen.size(); to++) {
+                String query = from + " -> " + to;
+                if (expected[from][to] == Integer.MAX_VALUE) {
+                    assertNull(frozen.memoizedOptimalPath(from, to), query);
+                    continue;
+                }
+
+                ArrayList<Integer> rooms = frozen.memoizedOptimalPath(from, to);
+                assertEquals(from, rooms.get(0), query);
+                assertEquals(to, rooms.get(rooms.size() - 1), query);
+
+                frozen.optimalPath(from, to, path);
+                assertEquals(expected[from][to], path.cost(), query);
+                assertEquals(expected[from][to], TestDungeons.cost(map.graph(), path), query);
+
+                int pickup = 0;
+                for (int i = 0; i < path.length(); i++) {
+                    if (keys.hasKey(path.room(i))) {
+                        assertEquals(i, path.keyPickup(pickup++), "pickup on " + query);
+                    }
+                }
+                assertEquals(pickup, path.keyPickupCount(), "pickups on " + query);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The greedy solve checked against an untouched copy of its dungeon: the walk
+ * must be one the original keys allow and no shorter than the brute-force BFS,
+ * and the keys it picked up must be gone from the map afterwards.
+ *
+ * @author Evann Hall
+ *
+ */
+class GreedySolveTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @CsvSource({ "40, 2, 4, 1, false, 1", "60, 3, 6, 2, false, 2", "80, 4, 8, 1, true, 3", "60, 3, 6, 3, true, 4",
+            "30, 2, 0, 1, false, 5" })
+    void walksTheOriginalDungeon(int rooms, int degree, int keys, int keysPerDoor, boolean tables, long seed)
+            throws IOException {
+        DungeonGenerator generator = new DungeonGenerator().rooms(rooms).degree(DungeonGenerator.Degree.FIXED, degree)
+                .keys(keys, keysPerDoor).seed(seed);
+        DungeonMap original = TestDungeons.generate(dir, generator, "original");
+        DungeonMap map = TestDungeons.generate(dir, generator, "solved");
+        if (tables) {
+            map.runFloydWarshall();
+        }
+        int start = map.startVertex;
+        int end = map.endVertex;
+
+        PathResult path = map.solveDungeonPath(start, end);
+        int[] walked = path.toArray();
+        TestDungeons.assertWalkable(original.graph(), original.keyTable(), start, end, walked);
+        assertEquals(walked.length - 1, path.cost());
+        assertTrue(path.cost() >= TestDungeons.bruteForceMoves(original.graph(), original.keyTable(), start, end),
+                "greedy beat the exact solve");
+
+        int pickup = 0;
+        for (int i = 0; i < path.keyPickupCount(); i++) {
+            assertTrue(path.keyPickup(i) >= pickup, "pickups out of order");
+            pickup = path.keyPickup(i);
+            assertTrue(original.keyTable().hasKey(path.room(pickup)), "no key in room " + path.room(pickup));
+        }
+        for (int room : walked) {
+            assertFalse(map.keyTable().hasKey(room), "key in room " + room + " left behind");
+        }
+
+        // A fresh copy walks the same way through the boxed entry point
+        DungeonMap boxed = TestDungeons.generate(dir, generator, "boxed");
+        if (tables) {
+            boxed.runFloydWarshall();
+        }
+        ArrayList<Integer> list = boxed.solveDungeon(start, end);
+        assertEquals(path.toList(), list);
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "40, 4, 1, 6", "60, 6, 2, 7" })
+    void unsolvableReturnsNull(int rooms, int keys, int keysPerDoor, long seed) throws IOException {
+        DungeonMap map = TestDungeons.generate(dir,
+                new DungeonGenerator().rooms(rooms).keys(keys, keysPerDoor).solvable(false).seed(seed), "dungeon");
+        assertNull(map.solveDungeon(map.startVertex, map.endVertex));
+        assertNull(map.solveDungeonPath(map.startVertex, map.endVertex));
+    }
+}
@@ -0,0 +1,74 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The exact, A*, bidirectional and frozen solves against a brute-force BFS over
+ * (room, keys collected), on the generated dungeon's own start and exit and on
+ * random pairs of rooms.
+ *
+ * @author Evann Hall
+ *
+ */
+class KeyStateSolverTest {
+
+    private static final int RANDOM_QUERIES = 40;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @CsvSource({ "40, 2, 4, 1, true, 1", "40, 3, 4, 2, true, 2", "60, 4, 6, 1, true, 3", "40, 2, 4, 1, false, 4",
+            "60, 3, 6, 2, false, 5", "30, 2, 0, 1, true, 6" })
+    void solversMatchBruteForce(int rooms, int degree, int keys, int keysPerDoor, boolean solvable, long seed)
+            throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(rooms)
+                .degree(DungeonGenerator.Degree.FIXED, degree).keys(keys, keysPerDoor).solvable(solvable).seed(seed),
+                "dungeon");
+        CsrGraph graph = map.graph();
+        KeyTable keyTable = map.keyTable();
+        FrozenDungeon frozen = map.freeze();
+
+        check(map, frozen, graph, keyTable, map.startVertex, map.endVertex);
+        Random random = new Random(seed);
+        for (int q = 0; q < RANDOM_QUERIES; q++) {
+            check(map, frozen, graph, keyTable, random.nextInt(rooms), random.nextInt(rooms));
+        }
+    }
+
+    private static void check(DungeonMap map, FrozenDungeon frozen, CsrGraph graph, KeyTable keys, int start,
+            int end) {
+        int expected = TestDungeons.bruteForceMoves(graph, keys, start, end);
+        String query = start + " -> " + end;
+
+        check("exact " + query, expected, graph, keys, start, end, toArray(map.solveDungeonExact(start, end)));
+        check("astar " + query, expected, graph, keys, start, end, toArray(map.solveDungeonAStar(start, end)));
+        check("bidirectional " + query, expected, graph, keys, start, end,
+                toArray(map.solveDungeonBidirectional(start, end)));
+        check("frozen " + query, expected, graph, keys, start, end, frozen.solve(start, end));
+    }
+
+    private static void check(String solver, int expected, CsrGraph graph, KeyTable keys, int start, int end,
+            int[] path) {
+        if (expected == -1) {
+            assertNull(path, solver + " found a way out the brute force didn't");
+            return;
+        }
+        assertEquals(expected, path == null ? -1 : path.length - 1, solver + " moves");
+        TestDungeons.assertWalkable(graph, keys, start, end, path);
+    }
+
+    private static int[] toArray(ArrayList<Integer> path) {
+        return path == null ? null : path.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,182 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Key tours against every ordering of the key rooms walked along the same
+ * key-ignoring legs, the layers split across a pool against the same program
+ * on one thread, and the tours DungeonMap plans either way.
+ *
+ * @author Evann Hall
+ *
+ */
+class KeyTourPlannerTest {
+
+    private static final int RANDOM_QUERIES = 25;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @CsvSource({ "40, 2, 4, 1, true, 1", "50, 3, 6, 2, true, 2", "60, 4, 6, 1, true, 3", "40, 2, 4, 1, false, 4" })
+    void toursMatchEnumeration(int rooms, int degree, int keys, int keysPerDoor, boolean solvable, long seed)
+            throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(rooms)
+                .degree(DungeonGenerator.Degree.FIXED, degree).keys(keys, keysPerDoor).solvable(solvable).seed(seed),
+                "dungeon");
+        CsrGraph graph = map.graph();
+        ShortestPathTable legs = new ShortestPathRowCache(graph, rooms);
+        KeyTourPlanner planner = new KeyTourPlanner(graph, map.keyTable(), legs, null);
+
+        check(map, legs, planner, map.startVertex, map.endVertex);
+        Random random = new Random(seed);
+        for (int q = 0; q < RANDOM_QUERIES; q++) {
+            check(map, legs, planner, random.nextInt(rooms), random.nextInt(rooms));
+        }
+    }
+
+    private static void check(DungeonMap map, ShortestPathTable legs, KeyTourPlanner planner, int start, int end) {
+        String query = start + " -> " + end;
+        int[] tour = planner.plan(start, end);
+        int expected = enumerate(map.keyTable(), map.graph(), legs, planner.keyRooms(), start, end, new int[0]);
+        assertEquals(expected, planner.getMoves(), query);
+
+        if (tour == null) {
+            assertEquals(-1, expected, query);
+            return;
+        }
+        int[] walk = walk(map.keyTable(), map.graph(), legs, start, tour, end);
+        assertNotNull(walk, "tour for " + query + " can't be walked");
+        assertEquals(planner.getMoves(), walk.length - 1, query);
+        TestDungeons.assertWalkable(map.graph(), map.keyTable(), start, end, walk);
+        assertTrue(walk.length - 1 >= TestDungeons.bruteForceMoves(map.graph(), map.keyTable(), start, end),
+                "tour for " + query + " beats the exact solve");
+    }
+
+    @Test
+    void parallelLayersMatchOneThread() throws IOException {
+        // C(16, 8) key sets in the widest layer, past the two chunks that split it
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(120).keys(16, 1).seed(22), "dungeon");
+        CsrGraph graph = map.graph();
+        ShortestPathTable legs = new ShortestPathRowCache(graph, graph.size());
+        KeyTourPlanner sequential = new KeyTourPlanner(graph, map.keyTable(), legs, null);
+        KeyTourPlanner parallel = new KeyTourPlanner(graph, map.keyTable(), legs, null);
+        assertEquals(16, parallel.keyRooms().length);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(22);
+            for (int q = 0; q < 6; q++) {
+                int start = q == 0 ? map.startVertex : random.nextInt(graph.size());
+                int end = q == 0 ? map.endVertex : random.nextInt(graph.size());
+                String query = start + " -> " + end;
+
+                int[] expected = sequential.plan(start, end);
+                int[] actual = parallel.plan(start, end, pool);
+                assertArrayEquals(expected, actual, query);
+                assertEquals(sequential.getMoves(), parallel.getMoves(), query);
+                assertEquals(sequential.getStatesExpanded(), parallel.getStatesExpanded(), query);
+                if (actual != null) {
+                    TestDungeons.assertWalkable(graph, map.keyTable(), start, end,
+                            walk(map.keyTable(), graph, legs, start, actual, end));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void dungeonPlansTheSameTourInParallel() throws IOException {
+        DungeonGenerator generator = new DungeonGenerator().rooms(120).keys(16, 1).seed(23);
+        DungeonMap sequential = TestDungeons.generate(dir, generator, "sequential");
+        DungeonMap parallel = TestDungeons.generate(dir, generator, "parallel");
+        parallel.setApspParallelism(4);
+
+        ArrayList<Integer> tour = parallel.planKeyTour(parallel.startVertex, parallel.endVertex);
+        assertNotNull(tour);
+        assertEquals(sequential.planKeyTour(sequential.startVertex, sequential.endVertex), tour);
+
+        // And again over the tables, once they exist
+        parallel.runFloydWarshall();
+        assertEquals(tour.size(), parallel.planKeyTour(parallel.startVertex, parallel.endVertex).size());
+    }
+
+    @Test
+    void tooManyKeysPlansNothing() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir,
+                new DungeonGenerator().rooms(120).keys(KeyTourPlanner.MAX_TOUR_KEYS + 2, 1).seed(24), "dungeon");
+        assertNull(map.planKeyTour(map.startVertex, map.endVertex));
+    }
+
+    /*
+     * Fewest moves over every order of every subset of key rooms, each stop a key
+     * not yet held, or -1 if none reaches the exit.
+     */
+    private static int enumerate(KeyTable keys, CsrGraph graph, ShortestPathTable legs, int[] keyRooms, int start,
+            int end, int[] stops) {
+        int[] walk = walk(keys, graph, legs, start, stops, end);
+        int best = walk == null ? -1 : walk.length - 1;
+
+        for (int room : keyRooms) {
+            int[] longer = Arrays.copyOf(stops, stops.length + 1);
+            longer[stops.length] = room;
+            if (walk(keys, graph, legs, start, longer, -1) == null) {
+                continue;
+            }
+            int moves = enumerate(keys, graph, legs, keyRooms, start, end, longer);
+            if (moves != -1 && (best == -1 || moves < best)) {
+                best = moves;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Rooms walked along the legs' paths from start through stops to end, or null
+     * if a door on the way stays locked or a stop's key is already held. An end
+     * of -1 stops at the last stop.
+     */
+    private static int[] walk(KeyTable keys, CsrGraph graph, ShortestPathTable legs, int start, int[] stops,
+            int end) {
+        KeyOverlay held = new KeyOverlay(keys);
+        held.collect(start);
+        PathResult leg = new PathResult();
+        ArrayList<Integer> rooms = new ArrayList<Integer>();
+        rooms.add(start);
+
+        int at = start;
+        for (int i = 0; i < stops.length || i == stops.length && end != -1; i++) {
+            int to = i < stops.length ? stops[i] : end;
+            if (i < stops.length && held.hasKeyFrom(to) || !legs.path(at, to, leg)) {
+                return null;
+            }
+            for (int r = 1; r < leg.length(); r++) {
+                int edge = graph.findEdge(leg.room(r - 1), leg.room(r));
+                if (!held.isOpen(graph.weight(edge), leg.room(r))) {
+                    return null;
+                }
+                held.collect(leg.room(r));
+                rooms.add(leg.room(r));
+            }
+            at = to;
+        }
+        return rooms.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,136 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Lines read by MappedIntReader, and the DungeonFormatException that names the
+ * file and line when one of them, or a dungeon built from them, is malformed.
+ *
+ * @author Evann Hall
+ *
+ */
+class MappedIntReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsLinesSkippingBlanks() throws IOException {
+        Path file = write("numbers.txt", "3\n\n\r\n1, -2 ,3\r\n\n\t4,5\n2147483647");
+
+        try (MappedIntReader reader = new MappedIntReader(file)) {
+            assertLine(reader, 1, 3);
+            assertLine(reader, 4, 1, -2, 3);
+            assertLine(reader, 6, 4, 5);
+            assertLine(reader, 7, Integer.MAX_VALUE);
+            assertFalse(reader.nextLine());
+        }
+    }
+
+    @Test
+    void readsEmptyFile() throws IOException {
+        try (MappedIntReader reader = new MappedIntReader(write("empty.txt", ""))) {
+            assertFalse(reader.nextLine());
+        }
+    }
+
+    @Test
+    void rejectsLetters() throws IOException {
+        DungeonFormatException error = assertMalformed("1,2,3\n4,x,6\n", 2);
+        assertTrue(error.getMessage().contains("'x'"), error.getMessage());
+    }
+
+    @Test
+    void rejectsTrailingComma() throws IOException {
+        DungeonFormatException error = assertMalformed("\n\n1,2,\n", 3);
+        assertTrue(error.getMessage().contains("end of line"), error.getMessage());
+    }
+
+    @Test
+    void rejectsMissingNumberAtEndOfFile() throws IOException {
+        DungeonFormatException error = assertMalformed("1,2\n3,", 2);
+        assertTrue(error.getMessage().contains("end of file"), error.getMessage());
+    }
+
+    @Test
+    void rejectsOverflow() throws IOException {
+        DungeonFormatException error = assertMalformed("1\n2147483648\n", 2);
+        assertTrue(error.getMessage().contains("int"), error.getMessage());
+    }
+
+    @Test
+    void missingFileIsAnIOException() {
+        assertThrows(NoSuchFileException.class, () -> new MappedIntReader(dir.resolve("missing.txt")));
+    }
+
+    @Test
+    void dungeonRejectsBadHeader() throws IOException {
+        assertBadDungeon("3\n0\n", "1,2,3\n", 2);
+        assertBadDungeon("3\n0,1\n2\n", "", 2);
+        assertBadDungeon("3\n0\n3\n", "", 3);
+        assertBadDungeon("0\n0\n0\n", "", 3);
+    }
+
+    @Test
+    void dungeonRejectsBadEdges() throws IOException {
+        assertBadDungeon("3\n0\n2\n0,1,5\n1,2\n", "", 5);
+        assertBadDungeon("3\n0\n2\n0,1,5\n\n1,3,5\n", "", 6);
+    }
+
+    @Test
+    void dungeonRejectsBadKeys() throws IOException {
+        String graph = "3\n0\n2\n0,1,5\n1,2,5\n";
+        DungeonFormatException error = assertBadDungeon(graph, "1,5\n", 1);
+        assertTrue(error.getFile().endsWith("keys.txt"), error.getFile());
+        assertBadDungeon(graph, "1,5,2\n\n4,5,2\n", 3);
+        assertBadDungeon(graph, "1,5,-1\n", 1);
+    }
+
+    private DungeonFormatException assertMalformed(String content, int line) throws IOException {
+        Path file = write("malformed.txt", content);
+        try (MappedIntReader reader = new MappedIntReader(file)) {
+            DungeonFormatException error = assertThrows(DungeonFormatException.class, () -> {
+                while (reader.nextLine()) {
+                }
+            });
+            assertEquals(file.toString(), error.getFile());
+            assertEquals(line, error.getLine(), error.getMessage());
+            assertTrue(error.getMessage().startsWith(file + ":" + line + ": "), error.getMessage());
+            return error;
+        }
+    }
+
+    private DungeonFormatException assertBadDungeon(String graph, String keys, int line) throws IOException {
+        Path graphFile = write("graph.txt", graph);
+        Path keyFile = write("keys.txt", keys);
+        DungeonFormatException error = assertThrows(DungeonFormatException.class,
+                () -> new DungeonMap(graphFile, keyFile, Level.OFF));
+        assertEquals(line, error.getLine(), error.getMessage());
+        return error;
+    }
+
+    private static void assertLine(MappedIntReader reader, int line, int... expected) throws IOException {
+        assertTrue(reader.nextLine());
+        assertEquals(line, reader.line());
+        assertEquals(expected.length, reader.count());
+        assertArrayEquals(expected, Arrays.copyOf(reader.values(), reader.count()));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+}
@@ -0,0 +1,122 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Every way of answering shortest path queries against textbook Floyd-Warshall
+ * on the same weights. The map is past FloydWarshallKernel.BLOCKED_THRESHOLD so
+ * runFloydWarshall takes the blocked kernel.
+ *
+ * @author Evann Hall
+ *
+ */
+class ShortestPathTableTest {
+
+    @TempDir
+    Path dir;
+
+    private DungeonMap map;
+    private CsrGraph graph;
+    private int[][] expected;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        map = TestDungeons.generate(dir, new DungeonGenerator().rooms(FloydWarshallKernel.BLOCKED_THRESHOLD + 44)
+                .degree(DungeonGenerator.Degree.POWER_LAW, 3).keys(4, 1).seed(3), "dungeon");
+        graph = map.graph();
+        expected = TestDungeons.floydWarshall(graph);
+    }
+
+    @Test
+    void floydWarshall() {
+        map.runFloydWarshall();
+        TestDungeons.assertMatches(expected, graph,
+                new ArrayShortestPathTable(map.floydWarshallMap, map.floydWarshallNext));
+    }
+
+    @Test
+    void bucketQueueSearch() {
+        assertSearchMatches(graph, expected, BucketQueueSearch.Strategy.DIAL);
+    }
+
+    @Test
+    void bucketQueueSearchWithUnitDoors() throws IOException {
+        CsrGraph unit = TestDungeons.generate(dir, new DungeonGenerator().rooms(200).weights(1, 1).keys(4, 1).seed(4),
+                "unit").graph();
+        assertSearchMatches(unit, TestDungeons.floydWarshall(unit), BucketQueueSearch.Strategy.ZERO_ONE_BFS);
+    }
+
+    @Test
+    void bucketQueueSearchWithHeavyDoors() throws IOException {
+        CsrGraph heavy = TestDungeons.generate(dir,
+                new DungeonGenerator().rooms(200).weights(600, 700).keys(4, 2).seed(5), "heavy").graph();
+        assertSearchMatches(heavy, TestDungeons.floydWarshall(heavy), BucketQueueSearch.Strategy.HEAP);
+    }
+
+    private static void assertSearchMatches(CsrGraph graph, int[][] expected, BucketQueueSearch.Strategy strategy) {
+        BucketQueueSearch search = new BucketQueueSearch(graph);
+        PathResult path = new PathResult();
+        for (int from = 0; from < graph.size(); from++) {
+            search.run(from);
+            assertEquals(strategy, search.strategy());
+            for (int to = 0; to < graph.size(); to++) {
+                assertEquals(expected[from][to], search.distance(to), "distance " + from + " -> " + to);
+                if (search.path(to, path)) {
+                    assertEquals(expected[from][to], TestDungeons.cost(graph, path), "path cost " + from + " -> " + to);
+                }
+            }
+        }
+    }
+
+    @Test
+    void bucketQueueSearchStoppingAtTarget() {
+        BucketQueueSearch search = new BucketQueueSearch(graph);
+        for (int from = 0; from < graph.size(); from += 7) {
+            for (int to = 0; to < graph.size(); to += 5) {
+                search.run(from, to);
+                assertEquals(expected[from][to], search.distance(to), "distance " + from + " -> " + to);
+            }
+        }
+    }
+
+    @Test
+    void rowCache() {
+        // Fewer rows than rooms, so rows are evicted and recomputed along the way
+        TestDungeons.assertMatches(expected, graph, new ShortestPathRowCache(graph, 8));
+    }
+
+    @Test
+    void contractionHierarchy() {
+        TestDungeons.assertMatches(expected, graph, ContractionHierarchy.build(graph));
+    }
+
+    @Test
+    void offHeap() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent(),
+                "needs --add-modules jdk.incubator.foreign");
+
+        try (OffHeapShortestPathTable table = OffHeapShortestPathTable.allocate(graph.size())) {
+            table.fill(graph, null);
+            TestDungeons.assertMatches(expected, graph, table);
+        }
+    }
+
+    @Test
+    void outOfCore() throws IOException {
+        Path file = dir.resolve("tables.bin");
+        // No budget gets the smallest tiles and a pool of three, so tiles keep streaming
+        OutOfCoreFloydWarshall tables = OutOfCoreFloydWarshall.run(graph, file, 0);
+        assertEquals(OutOfCoreFloydWarshall.MIN_BLOCK, tables.block());
+        TestDungeons.assertMatches(expected, graph, tables);
+
+        TestDungeons.assertMatches(expected, graph, OutOfCoreFloydWarshall.open(file));
+    }
+}
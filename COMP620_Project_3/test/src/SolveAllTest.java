@@ -0,0 +1,141 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Batches run through FrozenDungeon.solveAll: answers against the brute-force
+ * BFS in query order, duplicates sharing one result, and bad queries or solves
+ * that throw coming back FAILED without sinking the rest of the batch.
+ *
+ * @author Evann Hall
+ *
+ */
+class SolveAllTest {
+
+    @TempDir
+    Path dir;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void answersInQueryOrder() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir,
+                new DungeonGenerator().rooms(60).degree(DungeonGenerator.Degree.FIXED, 3).keys(6, 2).seed(12),
+                "dungeon");
+        FrozenDungeon frozen = map.freeze();
+
+        Random random = new Random(12);
+        int[][] queries = new int[50][];
+        queries[0] = new int[] { map.startVertex, map.endVertex };
+        for (int q = 1; q < queries.length; q++) {
+            queries[q] = new int[] { random.nextInt(map.size), random.nextInt(map.size) };
+        }
+
+        QueryResult[] results = frozen.solveAll(queries, executor);
+        assertEquals(queries.length, results.length);
+        for (int q = 0; q < queries.length; q++) {
+            int start = queries[q][0];
+            int end = queries[q][1];
+            String query = start + " -> " + end;
+            QueryResult result = results[q];
+            assertEquals(start, result.getStart(), query);
+            assertEquals(end, result.getEnd(), query);
+            assertNull(result.getError(), query);
+
+            int expected = TestDungeons.bruteForceMoves(map.graph(), map.keyTable(), start, end);
+            assertEquals(expected, result.getCost(), query);
+            if (expected == -1) {
+                assertEquals(QueryResult.Status.UNSOLVABLE, result.getStatus(), query);
+                assertNull(result.getPath(), query);
+            } else {
+                assertEquals(QueryResult.Status.SOLVED, result.getStatus(), query);
+                TestDungeons.assertWalkable(map.graph(), map.keyTable(), start, end, result.getPath());
+            }
+        }
+    }
+
+    @Test
+    void unsolvableDungeon() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir,
+                new DungeonGenerator().rooms(40).keys(4, 1).solvable(false).seed(7), "dungeon");
+
+        QueryResult[] results = map.freeze().solveAll(new int[][] { { map.startVertex, map.endVertex } }, executor);
+        assertEquals(QueryResult.Status.UNSOLVABLE, results[0].getStatus());
+        assertEquals(-1, results[0].getCost());
+    }
+
+    @Test
+    void duplicatesShareOneResult() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(40).keys(4, 1).seed(8), "dungeon");
+        int start = map.startVertex;
+        int end = map.endVertex;
+
+        QueryResult[] results = map.freeze().solveAll(
+                new int[][] { { start, end }, { end, start }, { start, end }, { start, start }, { start, end } },
+                executor);
+        assertSame(results[0], results[2]);
+        assertSame(results[0], results[4]);
+        assertEquals(end, results[1].getStart());
+        assertEquals(start, results[1].getEnd());
+        assertEquals(0, results[3].getCost());
+    }
+
+    @Test
+    void badQueriesFail() throws IOException {
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(40).keys(4, 1).seed(9), "dungeon");
+        int n = map.size;
+
+        QueryResult[] results = map.freeze().solveAll(new int[][] { null, {}, { 1 }, { 1, 2, 3 }, { -1, 0 },
+                { 0, n }, { map.startVertex, map.endVertex } }, executor);
+        for (int q = 0; q < 6; q++) {
+            assertEquals(QueryResult.Status.FAILED, results[q].getStatus(), "query " + q);
+            assertNull(results[q].getPath(), "query " + q);
+            assertEquals(-1, results[q].getCost(), "query " + q);
+            assertTrue(results[q].getError().contains("between 0 and " + (n - 1)), results[q].getError());
+        }
+        assertEquals(-1, results[0].getStart());
+        assertEquals(1, results[2].getStart());
+        assertEquals(-1, results[2].getEnd());
+        assertEquals(n, results[5].getEnd());
+        assertEquals(QueryResult.Status.SOLVED, results[6].getStatus());
+    }
+
+    @Test
+    void solveThatThrowsFails() throws IOException {
+        // One door of 24 keys: 60 rooms times 2^24 key states is past MAX_STATES
+        DungeonMap map = TestDungeons.generate(dir, new DungeonGenerator().rooms(60).keys(24, 24).seed(10),
+                "dungeon");
+        FrozenDungeon frozen = map.freeze();
+
+        QueryResult[] results = frozen.solveAll(new int[][] { { map.startVertex, map.endVertex } }, executor);
+        assertEquals(QueryResult.Status.FAILED, results[0].getStatus());
+        assertNotNull(results[0].getError());
+        assertEquals(map.startVertex, results[0].getStart());
+        assertEquals(map.endVertex, results[0].getEnd());
+    }
+}
@@ -0,0 +1,178 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ * Generated dungeons and brute-force reference answers the tests check the
+ * real solvers and tables against.
+ *
+ * @author Evann Hall
+ *
+ */
+final class TestDungeons {
+
+    private TestDungeons() {
+    }
+
+    /**
+     * Writes a generated dungeon into dir and loads it with the mapped loader.
+     */
+    static DungeonMap generate(Path dir, DungeonGenerator generator, String name) throws IOException {
+        Path graphFile = dir.resolve(name + "-graph.txt");
+        Path keyFile = dir.resolve(name + "-keys.txt");
+        generator.write(graphFile, keyFile);
+        return new DungeonMap(graphFile, keyFile, Level.OFF);
+    }
+
+    /**
+     * Breadth-first search over (room, keys collected), every move costing one
+     * and a key picked up on entering its room, the start included.
+     *
+     * @return Fewest moves from start to end, -1 if the keys never let us out.
+     */
+    static int bruteForceMoves(CsrGraph graph, KeyTable keys, int start, int end) {
+        int n = graph.size();
+        int[] bit = new int[n];
+        Arrays.fill(bit, -1);
+        int keyCount = 0;
+        for (int room = 0; room < n; room++) {
+            if (keys.hasKey(room)) {
+                bit[room] = keyCount++;
+            }
+        }
+        if (keyCount > 20) {
+            throw new IllegalArgumentException("Too many keys to brute force: " + keyCount);
+        }
+
+        int[] moves = new int[n << keyCount];
+        Arrays.fill(moves, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        int first = pickUp(bit, 0, start) * n + start;
+        moves[first] = 0;
+        queue.add(first);
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int mask = state / n;
+            int room = state % n;
+            if (room == end) {
+                return moves[state];
+            }
+            for (int e = graph.firstEdge(room); e < graph.endEdge(room); e++) {
+                int to = graph.target(e);
+                if (!isOpen(keys, bit, graph.weight(e), to, mask)) {
+                    continue;
+                }
+                int next = pickUp(bit, mask, to) * n + to;
+                if (moves[next] == -1) {
+                    moves[next] = moves[state] + 1;
+                    queue.add(next);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int pickUp(int[] bit, int mask, int room) {
+        return bit[room] == -1 ? mask : mask | 1 << bit[room];
+    }
+
+    private static boolean isOpen(KeyTable keys, int[] bit, int weight, int to, int mask) {
+        for (int room : keys.keyRoomsFor(to)) {
+            if ((mask & 1 << bit[room]) != 0) {
+                weight -= keys.getReduction(room, to);
+            }
+        }
+        return weight <= 0;
+    }
+
+    /**
+     * Textbook Floyd-Warshall over graph's current weights, distances only.
+     */
+    static int[][] floydWarshall(CsrGraph graph) {
+        int n = graph.size();
+        int[][] dist = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(dist[i], Integer.MAX_VALUE);
+            dist[i][i] = 0;
+            for (int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+                if (graph.target(e) != i) {
+                    dist[i][graph.target(e)] = graph.weight(e);
+                }
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            for (int i = 0; i < n; i++) {
+                if (dist[i][k] == Integer.MAX_VALUE) {
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    if (dist[k][j] != Integer.MAX_VALUE && dist[i][k] + dist[k][j] < dist[i][j]) {
+                        dist[i][j] = dist[i][k] + dist[k][j];
+                    }
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Walks path from start to end, picking up keys on the way, and checks every
+     * step is an edge the keys held at that point open.
+     */
+    static void assertWalkable(CsrGraph graph, KeyTable keys, int start, int end, int[] path) {
+        assertEquals(start, path[0], "path starts elsewhere");
+        assertEquals(end, path[path.length - 1], "path ends elsewhere");
+
+        KeyOverlay held = new KeyOverlay(keys);
+        held.collect(start);
+        for (int i = 1; i < path.length; i++) {
+            int edge = graph.findEdge(path[i - 1], path[i]);
+            assertNotEquals(-1, edge, "no edge " + path[i - 1] + " -> " + path[i]);
+            assertTrue(held.isOpen(graph.weight(edge), path[i]),
+                    "door " + path[i - 1] + " -> " + path[i] + " is still locked");
+            held.collect(path[i]);
+        }
+    }
+
+    /**
+     * Checks table answers every pair with the Floyd-Warshall distance and that
+     * its next hops walk a path of exactly that cost.
+     */
+    static void assertMatches(int[][] expected, CsrGraph graph, ShortestPathTable table) {
+        int n = expected.length;
+        assertEquals(n, table.size());
+        PathResult path = new PathResult();
+        for (int from = 0; from < n; from++) {
+            for (int to = 0; to < n; to++) {
+                assertEquals(expected[from][to], table.distance(from, to), "distance " + from + " -> " + to);
+                boolean found = table.path(from, to, path);
+                assertEquals(expected[from][to] != Integer.MAX_VALUE, found, "path " + from + " -> " + to);
+                if (found) {
+                    assertEquals(expected[from][to], cost(graph, path), "path cost " + from + " -> " + to);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Sum of the graph's weights along path, which must be a walk in it.
+     */
+    static int cost(CsrGraph graph, PathResult path) {
+        int cost = 0;
+        for (int i = 1; i < path.length(); i++) {
+            int edge = graph.findEdge(path.room(i - 1), path.room(i));
+            assertNotEquals(-1, edge, "no edge " + path.room(i - 1) + " -> " + path.room(i));
+            cost += graph.weight(edge);
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,97 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The SIMD row update against the scalar loop in FloydWarshallKernel.relaxTile,
+ * on random packed rows with unreachable cells and ranges that leave a scalar
+ * tail.
+ *
+ * @author Evann Hall
+ *
+ */
+class VectorMinPlusTest {
+
+    private static final int N = 203;
+
+    private final Random random = new Random(5);
+
+    @BeforeEach
+    void requireVectorModule() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+    }
+
+    @Test
+    void relaxRowMatchesScalar() {
+        for (int trial = 0; trial < 500; trial++) {
+            long[] dist = randomRow(2 * N);
+            int[] next = new int[2 * N];
+            for (int j = 0; j < next.length; j++) {
+                next[j] = random.nextInt(N);
+            }
+            int j0 = random.nextInt(N);
+            int j1 = j0 + random.nextInt(N - j0 + 1);
+            long dik = FloydWarshallKernel.pack(random.nextInt(50), random.nextInt(10));
+            int nik = random.nextInt(N);
+
+            long[] scalarDist = dist.clone();
+            int[] scalarNext = next.clone();
+            scalarRelax(scalarDist, scalarNext, 0, scalarDist, N, j0, j1, dik, nik);
+            VectorMinPlus.relaxRow(dist, next, 0, N, j0, j1, dik, nik);
+
+            assertArrayEquals(scalarDist, dist, "trial " + trial);
+            assertArrayEquals(scalarNext, next, "trial " + trial);
+        }
+    }
+
+    @Test
+    void relaxRowFromSeparateTableMatchesScalar() {
+        for (int trial = 0; trial < 500; trial++) {
+            long[] dist = randomRow(N);
+            long[] kDist = randomRow(N);
+            int[] next = new int[N];
+            int j0 = random.nextInt(N);
+            int j1 = j0 + random.nextInt(N - j0 + 1);
+            long dik = FloydWarshallKernel.pack(random.nextInt(50), random.nextInt(10));
+            int nik = random.nextInt(N);
+
+            long[] scalarDist = dist.clone();
+            int[] scalarNext = next.clone();
+            scalarRelax(scalarDist, scalarNext, 0, kDist, 0, j0, j1, dik, nik);
+            VectorMinPlus.relaxRow(dist, next, 0, kDist, 0, j0, j1, dik, nik);
+
+            assertArrayEquals(scalarDist, dist, "trial " + trial);
+            assertArrayEquals(scalarNext, next, "trial " + trial);
+        }
+    }
+
+    /*
+     * Packed cells, about a fifth of them unreachable.
+     */
+    private long[] randomRow(int length) {
+        long[] row = new long[length];
+        for (int j = 0; j < length; j++) {
+            row[j] = random.nextInt(5) == 0 ? FloydWarshallKernel.INF
+                    : FloydWarshallKernel.pack(random.nextInt(100), random.nextInt(20));
+        }
+        return row;
+    }
+
+    private static void scalarRelax(long[] dist, int[] next, int iRow, long[] kDist, int kRow, int j0, int j1,
+            long dik, int nik) {
+        for (int j = j0; j < j1; j++) {
+            long candidate = dik + kDist[kRow + j];
+            if (candidate < dist[iRow + j]) {
+                dist[iRow + j] = candidate;
+                next[iRow + j] = nik;
+            }
+        }
+    }
+}